@@ -14,13 +14,26 @@
 
 package com.google.devtools.bazel.e4b;
 
+import java.io.File;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.Platform;
 import org.eclipse.core.runtime.Status;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jface.preference.IPreferenceStore;
 import org.eclipse.jface.util.IPropertyChangeListener;
 import org.eclipse.jface.util.PropertyChangeEvent;
 import org.eclipse.ui.plugin.AbstractUIPlugin;
 import org.osgi.framework.BundleContext;
 
+import com.google.devtools.bazel.e4b.builder.ProblemMarkerUpdater;
+import com.google.devtools.bazel.e4b.classpath.JarIndexer;
 import com.google.devtools.bazel.e4b.command.BazelCommand;
+import com.google.devtools.bazel.e4b.report.BuildReportRecorder;
 
 /**
  * The activator class controls the plug-in life cycle
@@ -34,6 +47,34 @@ public class Activator extends AbstractUIPlugin {
   private static Activator plugin;
 
   private BazelCommand command;
+  private JarIndexer jarIndexer;
+  private BuildReportRecorder buildReportRecorder;
+  // Stops computing the classpath of the projects that are closed or deleted.
+  private final IResourceChangeListener projectListener = new IResourceChangeListener() {
+    @Override
+    public void resourceChanged(IResourceChangeEvent event) {
+      if (event.getResource() instanceof IProject) {
+        command.unregister(JavaCore.create((IProject) event.getResource()));
+      }
+    }
+  };
+  // Updates the project references of the other projects when a project is opened, closed or
+  // deleted.
+  private final IResourceChangeListener referenceListener = new IResourceChangeListener() {
+    @Override
+    public void resourceChanged(IResourceChangeEvent event) {
+      if (event.getDelta() == null) {
+        return;
+      }
+      for (IResourceDelta delta : event.getDelta().getAffectedChildren()) {
+        if (delta.getKind() == IResourceDelta.REMOVED
+            || (delta.getFlags() & IResourceDelta.OPEN) != 0) {
+          BazelProjectSupport.updateReferencingProjects();
+          return;
+        }
+      }
+    }
+  };
 
   /**
    * The constructor
@@ -50,13 +91,32 @@ public class Activator extends AbstractUIPlugin {
     plugin = this;
     super.start(context);
     this.command = new BazelCommand(new BazelAspectLocationImpl(), new CommandConsoleFactoryImpl());
+    this.command.setInfoCacheDirectory(new File(getSharedCacheDirectory(), "bazel-info"));
+    this.command.addBuildListener(new ProblemMarkerUpdater());
+    this.buildReportRecorder =
+        new BuildReportRecorder(getStateLocation().append("build-history").toFile());
+    this.command.addBuildListener(buildReportRecorder);
+    // JDT index files depend on the version of JDT that generated them.
+    this.jarIndexer = new JarIndexer(new File(getSharedCacheDirectory(),
+        "jdt-index" + File.separator + Platform.getBundle(JavaCore.PLUGIN_ID).getVersion()));
     // Get the bazel path from the settings
     this.command.setBazelPath(getPreferenceStore().getString("BAZEL_PATH"));
+    this.command.setBuildReportEnabled(getPreferenceStore().getBoolean("BUILD_REPORT"));
+    updateIdleTimeouts();
+    ResourcesPlugin.getWorkspace().addResourceChangeListener(projectListener,
+        IResourceChangeEvent.PRE_CLOSE | IResourceChangeEvent.PRE_DELETE);
+    ResourcesPlugin.getWorkspace().addResourceChangeListener(referenceListener,
+        IResourceChangeEvent.POST_CHANGE);
     getPreferenceStore().addPropertyChangeListener(new IPropertyChangeListener() {
       @Override
       public void propertyChange(PropertyChangeEvent event) {
         if (event.getProperty().equals("BAZEL_PATH")) {
           command.setBazelPath(event.getNewValue().toString());
+        } else if (event.getProperty().equals("BUILD_REPORT")) {
+          command.setBuildReportEnabled(getPreferenceStore().getBoolean("BUILD_REPORT"));
+        } else if (event.getProperty().equals("IDLE_EVICTION_MINUTES")
+            || event.getProperty().equals("SERVER_SHUTDOWN_MINUTES")) {
+          updateIdleTimeouts();
         }
       }
     });
@@ -70,10 +130,21 @@ public class Activator extends AbstractUIPlugin {
   @Override
   public void stop(BundleContext context) throws Exception {
     plugin = null;
+    ResourcesPlugin.getWorkspace().removeResourceChangeListener(projectListener);
+    ResourcesPlugin.getWorkspace().removeResourceChangeListener(referenceListener);
+    this.command.dispose();
     this.command = null;
+    this.jarIndexer.dispose();
+    this.jarIndexer = null;
     super.stop(context);
   }
 
+  private void updateIdleTimeouts() {
+    IPreferenceStore store = getPreferenceStore();
+    command.setIdleTimeouts(store.getInt("IDLE_EVICTION_MINUTES") * 60000L,
+        store.getInt("SERVER_SHUTDOWN_MINUTES") * 60000L);
+  }
+
   /**
    * Returns the shared instance
    *
@@ -90,6 +161,27 @@ public class Activator extends AbstractUIPlugin {
     return command;
   }
 
+  /**
+   * Returns the unique instance of {@link JarIndexer}.
+   */
+  public JarIndexer getJarIndexer() {
+    return jarIndexer;
+  }
+
+  /**
+   * Returns the unique instance of {@link BuildReportRecorder}.
+   */
+  public BuildReportRecorder getBuildReportRecorder() {
+    return buildReportRecorder;
+  }
+
+  /**
+   * Returns the directory where data shared between all Eclipse workspaces is cached.
+   */
+  public static File getSharedCacheDirectory() {
+    return new File(System.getProperty("user.home"), ".cache" + File.separator + "e4b");
+  }
+
   /**
    * Log an error to eclipse.
    */
@@ -19,6 +19,9 @@ import java.io.IOException;
 import java.net.URI;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 import org.eclipse.core.resources.ICommand;
 import org.eclipse.core.resources.IFolder;
@@ -40,10 +43,14 @@ import org.osgi.service.prefs.BackingStoreException;
 import org.osgi.service.prefs.Preferences;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.devtools.bazel.e4b.classpath.BazelClasspathContainer;
+import com.google.devtools.bazel.e4b.classpath.BazelClasspathContainerInitilalizer;
+import com.google.devtools.bazel.e4b.classpath.BazelRuntimeClasspathEntryResolver;
 import com.google.devtools.bazel.e4b.command.BazelCommand;
 import com.google.devtools.bazel.e4b.command.BazelCommand.BazelInstance;
 import com.google.devtools.bazel.e4b.command.BazelNotFoundException;
+import com.google.devtools.bazel.e4b.command.TargetPattern;
 import com.google.devtools.bazel.e4b.projectviews.ProjectView;
 
 /**
@@ -62,15 +69,87 @@ public class BazelProjectSupport {
    */
   public static IProject createProject(String projectName, URI location, String workspaceRoot,
       List<String> paths, List<String> targets, int javaLanguageVersion) {
+    return createProject(projectName, location, workspaceRoot, paths, targets, javaLanguageVersion,
+        false);
+  }
+
+  /**
+   * Create a e4b project, like {@link #createProject(String, URI, String, List, List, int)}. If
+   * <code>useInterfaceJars</code> is true, the Bazel classpath container of the project will use
+   * interface jars for the dependencies of the project.
+   */
+  public static IProject createProject(String projectName, URI location, String workspaceRoot,
+      List<String> paths, List<String> targets, int javaLanguageVersion,
+      boolean useInterfaceJars) {
+    return createProject(projectName, location, workspaceRoot, new Path(workspaceRoot), paths,
+        targets, javaLanguageVersion, useInterfaceJars, false);
+  }
+
+  /**
+   * Create one e4b project per directory in <code>paths</code>, instead of one project for all the
+   * directories. Each project is named after <code>projectName</code> and the path of its
+   * directory, tracks the targets of <code>targets</code> that are under its directory (or all the
+   * targets of the directory if none are) and is created in the default location.
+   *
+   * <p>
+   * Dependencies between those projects are expressed as project references rather than jars, so
+   * that JDT only rebuilds and re-indexes the projects affected by a change. Bazel forbids cycles
+   * between targets but not between directories (e.g. <code>a/x</code> depending on
+   * <code>b/y</code> and <code>b/z</code> on <code>a/w</code>), so JDT only reports the cycles
+   * between those projects as warnings and builds the projects of a cycle together.
+   */
+  public static List<IProject> createProjects(String projectName, String workspaceRoot,
+      List<String> paths, List<String> targets, int javaLanguageVersion,
+      boolean useInterfaceJars) {
+    ImmutableList.Builder<IProject> projects = ImmutableList.builder();
+    for (String path : paths) {
+      ImmutableList.Builder<String> projectTargets = ImmutableList.builder();
+      for (String target : targets) {
+        TargetPattern pattern = TargetPattern.parse(target);
+        if (path.isEmpty() || pattern.getPackage().equals(path)
+            || pattern.getPackage().startsWith(path + "/")) {
+          projectTargets.add(target);
+        }
+      }
+      List<String> pathTargets = projectTargets.build();
+      if (pathTargets.isEmpty()) {
+        pathTargets = ImmutableList.of(path.isEmpty() ? "//..." : "//" + path + "/...");
+      }
+      String name = path.isEmpty() ? projectName : projectName + "-" + path.replace('/', '.');
+      IProject project = createProject(name, null, workspaceRoot,
+          new Path(workspaceRoot).append(path), ImmutableList.of(""), pathTargets,
+          javaLanguageVersion, useInterfaceJars, true);
+      if (project != null) {
+        projects.add(project);
+      }
+    }
+    // The classpath of the projects created first could not reference the projects created after.
+    List<IProject> result = projects.build();
+    for (IProject project : result) {
+      BazelClasspathContainerInitilalizer.update(new Path(BazelClasspathContainer.CONTAINER_NAME),
+          JavaCore.create(project));
+    }
+    return result;
+  }
 
+  // Create a project linking the linkedDirectory folder (inside the Bazel workspace), and using the
+  // paths as source directories (relative to linkedDirectory).
+  private static IProject createProject(String projectName, URI location, String workspaceRoot,
+      IPath linkedDirectory, List<String> paths, List<String> targets, int javaLanguageVersion,
+      boolean useInterfaceJars, boolean useProjectReferences) {
     IProject project = createBaseProject(projectName, location);
     try {
       addNature(project, ProjectNature.NATURE_ID);
       addNature(project, JavaCore.NATURE_ID);
       addSettings(project, workspaceRoot, targets, ImmutableList.of());
+      setUseInterfaceJars(project, useInterfaceJars);
+      setUseProjectReferences(project, useProjectReferences);
       setBuilders(project);
-      createClasspath(new Path(workspaceRoot), paths, JavaCore.create(project),
-          javaLanguageVersion);
+      if (useProjectReferences) {
+        // Directories, unlike targets, can depend on each other.
+        JavaCore.create(project).setOption(JavaCore.CORE_CIRCULAR_CLASSPATH, JavaCore.WARNING);
+      }
+      createClasspath(linkedDirectory, paths, JavaCore.create(project), javaLanguageVersion);
     } catch (CoreException e) {
       e.printStackTrace();
       project = null;
@@ -192,15 +271,117 @@ public class BazelProjectSupport {
     // Get the list of targets from the preferences
     IScopeContext projectScope = new ProjectScope(project);
     Preferences projectNode = projectScope.getNode(Activator.PLUGIN_ID);
-    ImmutableList.Builder<String> builder = ImmutableList.builder();
+    return getBuildFlags(projectNode);
+  }
+
+  // The flags are stored as buildFlag0, buildFlag1, ... (buildArgs<i> by older versions). They are
+  // returned in that order since the order of the flags matters to Bazel, and to the cache of the
+  // IDE build information.
+  private static List<String> getBuildFlags(Preferences projectNode)
+      throws BackingStoreException {
+    SortedMap<Integer, String> flags = new TreeMap<>();
     for (String s : projectNode.keys()) {
-      if (s.startsWith("buildArgs")) {
-        builder.add(projectNode.get(s, ""));
+      String index = s.startsWith("buildFlag") ? s.substring("buildFlag".length())
+          : s.startsWith("buildArgs") ? s.substring("buildArgs".length()) : null;
+      if (index != null && index.matches("[0-9]+")) {
+        flags.put(Integer.parseInt(index), projectNode.get(s, ""));
+      }
+    }
+    return ImmutableList.copyOf(flags.values());
+  }
+
+  /**
+   * Returns true if the Bazel classpath container of <code>project</code> should use interface jars
+   * (ijars) instead of class jars for the dependencies of the project.
+   *
+   * <p>
+   * Interface jars only contain the signatures of the classes, they are smaller and faster to index
+   * than class jars but cannot be used to run code: the launches of the project get the class jars
+   * (see {@link BazelRuntimeClasspathEntryResolver}). Class jars are the default.
+   */
+  public static boolean useInterfaceJars(IProject project) {
+    IScopeContext projectScope = new ProjectScope(project);
+    Preferences projectNode = projectScope.getNode(Activator.PLUGIN_ID);
+    return projectNode.getBoolean("useInterfaceJars", false);
+  }
+
+  /**
+   * Set whether the Bazel classpath container of <code>project</code> should use interface jars for
+   * the dependencies of the project.
+   *
+   * @see #useInterfaceJars(IProject)
+   */
+  public static void setUseInterfaceJars(IProject project, boolean useInterfaceJars)
+      throws BackingStoreException {
+    IScopeContext projectScope = new ProjectScope(project);
+    Preferences projectNode = projectScope.getNode(Activator.PLUGIN_ID);
+    projectNode.putBoolean("useInterfaceJars", useInterfaceJars);
+    projectNode.flush();
+  }
+
+  /**
+   * Returns true if the dependencies of <code>project</code> that belong to another e4b project
+   * should be expressed as references to that project rather than as jars. This is the case of
+   * projects created with
+   * {@link #createProjects(String, String, List, List, int, boolean)}.
+   */
+  public static boolean useProjectReferences(IProject project) {
+    IScopeContext projectScope = new ProjectScope(project);
+    Preferences projectNode = projectScope.getNode(Activator.PLUGIN_ID);
+    return projectNode.getBoolean("useProjectReferences", false);
+  }
+
+  private static void setUseProjectReferences(IProject project, boolean useProjectReferences)
+      throws BackingStoreException {
+    IScopeContext projectScope = new ProjectScope(project);
+    Preferences projectNode = projectScope.getNode(Activator.PLUGIN_ID);
+    projectNode.putBoolean("useProjectReferences", useProjectReferences);
+    projectNode.flush();
+  }
+
+  /**
+   * Returns the other open e4b projects that use project references (see
+   * {@link #useProjectReferences(IProject)}) and the same Bazel workspace as <code>project</code>,
+   * with the list of targets they track.
+   */
+  public static Map<IProject, List<String>> getReferenceableProjects(IProject project)
+      throws BackingStoreException, CoreException {
+    String workspaceRoot = getWorkspaceRoot(project);
+    ImmutableMap.Builder<IProject, List<String>> builder = ImmutableMap.builder();
+    for (IProject other : ResourcesPlugin.getWorkspace().getRoot().getProjects()) {
+      if (!other.equals(project) && other.isOpen() && other.hasNature(ProjectNature.NATURE_ID)
+          && useProjectReferences(other) && workspaceRoot.equals(getWorkspaceRoot(other))) {
+        builder.put(other, getTargets(other));
       }
     }
     return builder.build();
   }
 
+  /**
+   * Schedule the update of the classpath of the open projects that use project references, e.g.
+   * when a project they might reference was opened, closed or deleted: its targets switch between
+   * a project reference and jars.
+   */
+  public static void updateReferencingProjects() {
+    for (IProject project : ResourcesPlugin.getWorkspace().getRoot().getProjects()) {
+      try {
+        if (project.isOpen() && project.hasNature(ProjectNature.NATURE_ID)
+            && useProjectReferences(project)) {
+          BazelClasspathContainerInitilalizer.update(
+              new Path(BazelClasspathContainer.CONTAINER_NAME), JavaCore.create(project));
+        }
+      } catch (CoreException e) {
+        Activator.error("Unable to update the classpath of " + project.getName(), e);
+      }
+    }
+  }
+
+  private static String getWorkspaceRoot(IProject project) {
+    IScopeContext projectScope = new ProjectScope(project);
+    Preferences projectNode = projectScope.getNode(Activator.PLUGIN_ID);
+    return projectNode.get("workspaceRoot", project.getLocation().toFile().toString());
+  }
+
   /**
    * Return the {@link BazelInstance} corresponding to the given <code>project</code>. It looks for
    * the instance that runs for the workspace root configured for that project.
@@ -209,10 +390,7 @@ public class BazelProjectSupport {
    */
   public static BazelCommand.BazelInstance getBazelCommandInstance(IProject project)
       throws BackingStoreException, IOException, InterruptedException, BazelNotFoundException {
-    IScopeContext projectScope = new ProjectScope(project.getProject());
-    Preferences projectNode = projectScope.getNode(Activator.PLUGIN_ID);
-    File workspaceRoot =
-        new File(projectNode.get("workspaceRoot", project.getLocation().toFile().toString()));
+    File workspaceRoot = new File(getWorkspaceRoot(project));
     return Activator.getDefault().getCommand().getInstance(workspaceRoot);
   }
 
@@ -224,21 +402,26 @@ public class BazelProjectSupport {
     com.google.devtools.bazel.e4b.projectviews.Builder builder = ProjectView.builder();
     IScopeContext projectScope = new ProjectScope(project);
     Preferences projectNode = projectScope.getNode(Activator.PLUGIN_ID);
+    for (String flag : getBuildFlags(projectNode)) {
+      builder.addBuildFlag(flag);
+    }
     for (String s : projectNode.keys()) {
-      if (s.startsWith("buildArgs")) {
-        builder.addBuildFlag(projectNode.get(s, ""));
-      } else if (s.startsWith("target")) {
+      if (s.startsWith("target")) {
         builder.addTarget(projectNode.get(s, ""));
       }
     }
 
     IWorkspaceRoot root = ResourcesPlugin.getWorkspace().getRoot();
-    for (IClasspathEntry entry : ((IJavaProject) project).getRawClasspath()) {
+    IPath workspaceRoot = new Path(getWorkspaceRoot(project));
+    for (IClasspathEntry entry : JavaCore.create(project).getRawClasspath()) {
       switch (entry.getEntryKind()) {
         case IClasspathEntry.CPE_SOURCE:
           IResource res = root.findMember(entry.getPath());
-          if (res != null) {
-            builder.addDirectory(res.getProjectRelativePath().removeFirstSegments(1).toOSString());
+          if (res != null && workspaceRoot.isPrefixOf(res.getLocation())) {
+            // The source directories are linked from the Bazel workspace, either through a link to
+            // the workspace root or to the directory itself.
+            String directory = res.getLocation().makeRelativeTo(workspaceRoot).toOSString();
+            builder.addDirectory(directory.isEmpty() ? "." : directory);
           }
           break;
         case IClasspathEntry.CPE_CONTAINER:
@@ -56,7 +56,7 @@ class CommandConsoleFactoryImpl implements CommandConsoleFactory {
   }
 
   @Override
-  public CommandConsole get(String name, String title) throws IOException {
+  public synchronized CommandConsole get(String name, String title) throws IOException {
     MessageConsole console = findConsole(name);
     MessageConsoleStream stream = console.newMessageStream();
     stream.setActivateOnWrite(true);
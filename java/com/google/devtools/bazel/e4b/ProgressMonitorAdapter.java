@@ -0,0 +1,81 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b;
+
+import java.util.function.Consumer;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.SubMonitor;
+
+import com.google.devtools.bazel.e4b.command.BazelCommand.BazelInstance;
+import com.google.devtools.bazel.e4b.command.ProgressParser.Phase;
+import com.google.devtools.bazel.e4b.command.ProgressParser.Progress;
+
+/**
+ * Reports the progress of the Bazel commands of a workspace to an {@link IProgressMonitor}, for as
+ * long as it is open.
+ *
+ * <p>
+ * The current progress message of Bazel, the action throughput and the critical path are shown as
+ * the sub-task and the completed ratio of actions as the work done.
+ */
+public final class ProgressMonitorAdapter implements Consumer<Progress>, AutoCloseable {
+
+  private static final int TOTAL_WORK = 1000;
+
+  private final BazelInstance instance;
+  private final SubMonitor monitor;
+  private int worked = 0;
+
+  private ProgressMonitorAdapter(BazelInstance instance, IProgressMonitor monitor,
+      String taskName) {
+    this.instance = instance;
+    this.monitor = SubMonitor.convert(monitor, taskName, TOTAL_WORK);
+  }
+
+  /**
+   * Report the progress of the Bazel commands run in the workspace of <code>instance</code> to
+   * <code>monitor</code>, until the returned object is closed.
+   */
+  public static ProgressMonitorAdapter attach(BazelInstance instance, IProgressMonitor monitor,
+      String taskName) {
+    ProgressMonitorAdapter adapter = new ProgressMonitorAdapter(instance, monitor, taskName);
+    instance.addProgressListener(adapter);
+    return adapter;
+  }
+
+  @Override
+  public synchronized void accept(Progress progress) {
+    monitor.subTask(progress.toString());
+    int target = worked;
+    if (progress.getPhase() == Phase.DONE) {
+      target = TOTAL_WORK;
+    } else if (progress.getPhase() == Phase.EXECUTION && progress.getActionsTotal() > 0) {
+      // The total number of actions grows during the build, never go backward.
+      target = Math.max(worked,
+          (int) ((long) TOTAL_WORK * progress.getActionsDone() / progress.getActionsTotal()));
+    }
+    if (target > worked) {
+      monitor.worked(target - worked);
+      worked = target;
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    instance.removeProgressListener(this);
+    monitor.done();
+  }
+}
@@ -0,0 +1,183 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.builder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.core.runtime.jobs.Job;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.bazel.e4b.Activator;
+import com.google.devtools.bazel.e4b.ProgressMonitorAdapter;
+import com.google.devtools.bazel.e4b.command.BazelCommand.BazelInstance;
+import com.google.devtools.bazel.e4b.command.BazelNotFoundException;
+
+/**
+ * A job running the builds of a Bazel workspace outside of Eclipse's build phase, so that the
+ * workspace lock is not held while Bazel runs.
+ *
+ * <p>
+ * There is one job per Bazel workspace. Targets recorded while the job is scheduled or running are
+ * accumulated and built by the next run of the job. Jobs of different Bazel workspaces have
+ * different scheduling rules and can run in parallel. A job is forgotten once it has nothing left
+ * to build, so that it does not keep a released {@link BazelInstance} alive.
+ *
+ * <p>
+ * Canceling the job interrupts the running build, which kills Bazel. The targets that were not
+ * built are kept for the next run.
+ */
+final class BackgroundBuildJob extends Job {
+
+  private static final Map<File, BackgroundBuildJob> JOBS = new HashMap<>();
+
+  /** A scheduling rule that conflicts only with the rule of the same Bazel workspace. */
+  private static final class WorkspaceRule implements ISchedulingRule {
+    private final File workspaceRoot;
+
+    WorkspaceRule(File workspaceRoot) {
+      this.workspaceRoot = workspaceRoot;
+    }
+
+    @Override
+    public boolean contains(ISchedulingRule rule) {
+      return isConflicting(rule);
+    }
+
+    @Override
+    public boolean isConflicting(ISchedulingRule rule) {
+      return rule instanceof WorkspaceRule
+          && ((WorkspaceRule) rule).workspaceRoot.equals(workspaceRoot);
+    }
+  }
+
+  private final BazelInstance instance;
+  // Targets to build, grouped by build flags.
+  private final Map<List<String>, Set<String>> pending = new LinkedHashMap<>();
+  private boolean dirty = false;
+  // The thread running the job, if running.
+  private Thread thread = null;
+
+  private BackgroundBuildJob(BazelInstance instance) {
+    super("Building Bazel workspace " + instance.getWorkspaceRoot());
+    this.instance = instance;
+    setRule(new WorkspaceRule(instance.getWorkspaceRoot()));
+  }
+
+  /**
+   * Record that <code>targets</code> should be built with <code>flags</code> in the workspace of
+   * <code>instance</code> and schedule the build. If <code>markAsDirty</code> is true, the IDE
+   * build information of the workspace is invalidated before building.
+   */
+  static void schedule(BazelInstance instance, List<String> targets, List<String> flags,
+      boolean markAsDirty) {
+    BackgroundBuildJob job;
+    synchronized (JOBS) {
+      job = JOBS.get(instance.getWorkspaceRoot());
+      if (job == null || job.instance != instance) {
+        job = new BackgroundBuildJob(instance);
+        JOBS.put(instance.getWorkspaceRoot(), job);
+      }
+      // While holding JOBS, so that the job is not forgotten in between.
+      job.add(targets, flags, markAsDirty);
+    }
+    job.schedule();
+  }
+
+  private synchronized void add(List<String> targets, List<String> flags, boolean markAsDirty) {
+    Set<String> set = pending.get(flags);
+    if (set == null) {
+      set = new LinkedHashSet<>();
+      pending.put(ImmutableList.copyOf(flags), set);
+    }
+    set.addAll(targets);
+    dirty |= markAsDirty;
+  }
+
+  @Override
+  protected IStatus run(IProgressMonitor monitor) {
+    Map<List<String>, Set<String>> builds;
+    boolean markAsDirty;
+    synchronized (this) {
+      builds = new LinkedHashMap<>(pending);
+      markAsDirty = dirty;
+      pending.clear();
+      dirty = false;
+      thread = Thread.currentThread();
+    }
+    try (ProgressMonitorAdapter progress =
+        ProgressMonitorAdapter.attach(instance, monitor, getName())) {
+      if (markAsDirty) {
+        instance.markAsDirty();
+      }
+      // The builds are removed once done, so that the remaining ones are kept if canceled.
+      while (!builds.isEmpty() && !monitor.isCanceled()) {
+        Map.Entry<List<String>, Set<String>> build = builds.entrySet().iterator().next();
+        instance.build(ImmutableList.copyOf(build.getValue()), build.getKey());
+        builds.remove(build.getKey());
+      }
+    } catch (InterruptedException e) {
+      if (!monitor.isCanceled()) {
+        Activator.error("Failed to build " + instance.getWorkspaceRoot(), e);
+      }
+    } catch (IOException e) {
+      Activator.error("Failed to build " + instance.getWorkspaceRoot(), e);
+    } catch (BazelNotFoundException e) {
+      Activator.error("Bazel not found: " + e.getMessage());
+    } finally {
+      synchronized (this) {
+        thread = null;
+        // Do not leave the interruption of a late cancel to the next job of this worker thread.
+        Thread.interrupted();
+      }
+      finish(monitor.isCanceled() ? builds : ImmutableMap.<List<String>, Set<String>>of());
+    }
+    return monitor.isCanceled() ? Status.CANCEL_STATUS : Status.OK_STATUS;
+  }
+
+  @Override
+  protected void canceling() {
+    synchronized (this) {
+      if (thread != null) {
+        thread.interrupt();
+      }
+    }
+  }
+
+  // Keeps the targets that were not built for the next run, or forgets the job if there are none.
+  private void finish(Map<List<String>, Set<String>> remaining) {
+    synchronized (JOBS) {
+      synchronized (this) {
+        for (Map.Entry<List<String>, Set<String>> e : remaining.entrySet()) {
+          add(ImmutableList.copyOf(e.getValue()), e.getKey(), false);
+        }
+        if (pending.isEmpty() && JOBS.get(instance.getWorkspaceRoot()) == this) {
+          JOBS.remove(instance.getWorkspaceRoot());
+        }
+      }
+    }
+  }
+}
@@ -15,19 +15,27 @@
 package com.google.devtools.bazel.e4b.builder;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResourceDelta;
 import org.eclipse.core.resources.IncrementalProjectBuilder;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.jdt.core.JavaCore;
 import org.osgi.service.prefs.BackingStoreException;
 
+import com.google.common.collect.ImmutableList;
 import com.google.devtools.bazel.e4b.Activator;
 import com.google.devtools.bazel.e4b.BazelProjectSupport;
+import com.google.devtools.bazel.e4b.ProgressMonitorAdapter;
+import com.google.devtools.bazel.e4b.command.AffectedTargets;
 import com.google.devtools.bazel.e4b.command.BazelCommand.BazelInstance;
 import com.google.devtools.bazel.e4b.command.BazelNotFoundException;
+import com.google.devtools.bazel.e4b.command.IdeBuildInfo;
 
 public class BazelBuilder extends IncrementalProjectBuilder {
 
@@ -37,16 +45,44 @@ public class BazelBuilder extends IncrementalProjectBuilder {
     IProject project = getProject();
     try {
       BazelInstance instance = BazelProjectSupport.getBazelCommandInstance(project);
+      List<String> targets = BazelProjectSupport.getTargets(project);
+      // Keep the IDE build information unless the target graph might have changed.
+      boolean markAsDirty = true;
       if (kind == INCREMENTAL_BUILD || kind == AUTO_BUILD) {
         IResourceDelta delta = getDelta(getProject());
-        if (delta == null || delta.getAffectedChildren().length == 0) {
+        if (delta == null) {
           // null build, skip calling Bazel.
           return null;
         }
+        DeltaClassifier.Changes changes = new DeltaClassifier(
+            Path.fromOSString(instance.getWorkspaceRoot().getAbsolutePath()),
+            BazelProjectSupport.getProjectView(project).getDirectories()).classify(delta);
+        if (changes.isEmpty()) {
+          // Nothing Bazel consumes changed (e.g. only outputs or settings), skip calling Bazel.
+          return null;
+        }
+        markAsDirty = changes.graphChanged();
+        if (!markAsDirty) {
+          targets = getAffectedTargets(instance, changes.getFiles(), targets);
+        }
+      }
+      if (markAsDirty) {
+        // Right away, the cache itself is only cleared when the build runs.
+        instance.getIdeInfoResolver().invalidate();
+      }
+      List<String> flags = BazelProjectSupport.getBuildFlags(project);
+      if (Activator.getDefault().getPreferenceStore().getBoolean("BACKGROUND_BUILD")) {
+        // Record the targets and return, the build runs without holding the workspace lock.
+        BackgroundBuildJob.schedule(instance, targets, flags, markAsDirty);
+        return null;
+      }
+      if (markAsDirty) {
+        instance.markAsDirty();
+      }
+      try (ProgressMonitorAdapter progress =
+          ProgressMonitorAdapter.attach(instance, monitor, "Building " + project.getName())) {
+        instance.build(targets, flags);
       }
-      instance.markAsDirty();
-      instance.build(BazelProjectSupport.getTargets(project),
-          BazelProjectSupport.getBuildFlags(project));
     } catch (BackingStoreException | IOException | InterruptedException e) {
       Activator.error("Failed to build " + project.getName(), e);
     } catch (BazelNotFoundException e) {
@@ -54,4 +90,21 @@ public class BazelBuilder extends IncrementalProjectBuilder {
     }
     return null;
   }
+
+  // Returns the targets to build for the changed files (relative to the workspace root): the targets
+  // owning the changed files and their reverse dependencies. Falls back to all the targets of the
+  // project if a changed file is not known to be a source of one of the targets.
+  private List<String> getAffectedTargets(BazelInstance instance, Set<String> files,
+      List<String> targets) {
+    // Only use the information already computed, computing it would cost more than the full build.
+    // It is not used once the target graph changed, e.g. a BUILD file added a reverse dependency.
+    Map<String, IdeBuildInfo> infos =
+        instance.getIdeInfoResolver().getCurrentIdeInfo(JavaCore.create(getProject()));
+    if (infos == null) {
+      return targets;
+    }
+    // Files that are new to the IDE build information are looked up in their BUILD file.
+    Set<String> affected = AffectedTargets.compute(infos, files, instance::getOwners);
+    return affected == null ? targets : ImmutableList.copyOf(affected);
+  }
 }
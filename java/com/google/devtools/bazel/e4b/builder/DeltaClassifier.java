@@ -0,0 +1,171 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.builder;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Classifies the changes of an {@link IResourceDelta} to decide whether Bazel should run.
+ *
+ * <p>
+ * Only changes to the content of files that Bazel can consume are relevant: BUILD and Skylark files
+ * anywhere in the workspace, the Bazel configuration files ({@code .bazelrc}, {@code .bazelversion}
+ * and {@code .bazelignore}), and other files under the directories of the project view. Derived
+ * resources, the Bazel convenience symlinks (<code>bazel-*</code>), hidden files and directories
+ * (e.g. <code>.settings</code>), editor temporary files and marker-only changes are ignored.
+ */
+final class DeltaClassifier {
+
+  private static final ImmutableSet<String> BUILD_FILE_NAMES = ImmutableSet.of("BUILD",
+      "BUILD.bazel", "WORKSPACE", "WORKSPACE.bazel", "MODULE.bazel");
+  // The hidden files that change how Bazel builds or which packages exist.
+  private static final ImmutableSet<String> CONFIG_FILE_NAMES =
+      ImmutableSet.of(".bazelrc", ".bazelversion", ".bazelignore");
+
+  // The delta flags that denote a change Bazel could see.
+  private static final int CONTENT_FLAGS = IResourceDelta.CONTENT | IResourceDelta.REPLACED
+      | IResourceDelta.MOVED_FROM | IResourceDelta.MOVED_TO | IResourceDelta.TYPE
+      | IResourceDelta.ENCODING;
+
+  /** The relevant changes of a delta. */
+  static final class Changes {
+    private final ImmutableSet<String> files;
+    private final boolean graphChanged;
+
+    private Changes(Set<String> files, boolean graphChanged) {
+      this.files = ImmutableSet.copyOf(files);
+      this.graphChanged = graphChanged;
+    }
+
+    /** Returns true if no relevant file changed. */
+    boolean isEmpty() {
+      return files.isEmpty();
+    }
+
+    /** Returns the changed files, relative to the workspace root. */
+    ImmutableSet<String> getFiles() {
+      return files;
+    }
+
+    /**
+     * Returns true if the target graph might have changed: a BUILD, WORKSPACE, Skylark or Bazel
+     * configuration file changed, or a file was added or removed (and might be matched by a glob).
+     */
+    boolean graphChanged() {
+      return graphChanged;
+    }
+  }
+
+  private final IPath workspaceRoot;
+  private final ImmutableList<IPath> directories;
+
+  /**
+   * Create a classifier for the Bazel workspace at <code>workspaceRoot</code>, considering the
+   * sources under <code>directories</code> (relative to the workspace root, "." for the whole
+   * workspace).
+   */
+  DeltaClassifier(IPath workspaceRoot, List<String> directories) {
+    this.workspaceRoot = workspaceRoot;
+    ImmutableList.Builder<IPath> builder = ImmutableList.builder();
+    for (String d : directories) {
+      builder.add(d.equals(".") ? Path.EMPTY : new Path(d));
+    }
+    this.directories = builder.build();
+  }
+
+  /**
+   * Returns the relevant changes of <code>delta</code>.
+   */
+  Changes classify(IResourceDelta delta) throws CoreException {
+    Set<String> files = new LinkedHashSet<>();
+    boolean[] graphChanged = {false};
+    delta.accept(d -> {
+      IResource resource = d.getResource();
+      if (resource.getType() == IResource.PROJECT || resource.getType() == IResource.ROOT) {
+        return true;
+      }
+      if (resource.isDerived() || resource.isTeamPrivateMember() || isIgnored(resource.getName())
+          || isConvenienceSymlink(resource)) {
+        return false;
+      }
+      if (resource.getType() != IResource.FILE) {
+        return true;
+      }
+      if (d.getKind() == IResourceDelta.CHANGED && (d.getFlags() & CONTENT_FLAGS) == 0) {
+        // e.g. marker only changes.
+        return false;
+      }
+      IPath location = resource.getLocation();
+      if (location == null || !workspaceRoot.isPrefixOf(location)) {
+        return false;
+      }
+      IPath path = location.makeRelativeTo(workspaceRoot);
+      if (isBuildFile(resource.getName())) {
+        graphChanged[0] = true;
+        files.add(path.toString());
+      } else if (isUnderDirectories(path)) {
+        graphChanged[0] |= d.getKind() != IResourceDelta.CHANGED;
+        files.add(path.toString());
+      }
+      return false;
+    });
+    return new Changes(files, graphChanged[0]);
+  }
+
+  private boolean isUnderDirectories(IPath path) {
+    for (IPath d : directories) {
+      if (d.isPrefixOf(path)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isBuildFile(String name) {
+    return BUILD_FILE_NAMES.contains(name) || CONFIG_FILE_NAMES.contains(name)
+        || name.endsWith(".bzl");
+  }
+
+  // The bazel-* symlinks at the root of the workspace point to the outputs of Bazel.
+  private boolean isConvenienceSymlink(IResource resource) {
+    if (!resource.getName().startsWith("bazel-")) {
+      return false;
+    }
+    IPath location = resource.getLocation();
+    return resource.isLinked()
+        || (location != null && location.removeLastSegments(1).equals(workspaceRoot));
+  }
+
+  // Hidden files (e.g. .settings, .project) and editor temporary files.
+  private static boolean isIgnored(String name) {
+    if (CONFIG_FILE_NAMES.contains(name)) {
+      return false;
+    }
+    return name.startsWith(".") || name.endsWith("~")
+        || name.endsWith(".swp") || name.endsWith(".tmp") || name.endsWith(".bak")
+        || (name.startsWith("#") && name.endsWith("#"));
+  }
+}
@@ -0,0 +1,331 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.builder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IMarker;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.bazel.e4b.Activator;
+import com.google.devtools.bazel.e4b.command.BazelCommand.BazelInstance;
+import com.google.devtools.bazel.e4b.command.BuildListener;
+import com.google.devtools.bazel.e4b.command.DiagnosticParser;
+import com.google.devtools.bazel.e4b.command.DiagnosticParser.Diagnostic;
+import com.google.devtools.bazel.e4b.command.TargetPattern;
+
+/**
+ * A {@link BuildListener} that turns the diagnostics printed by Bazel builds into problem markers.
+ *
+ * <p>
+ * Diagnostics are parsed as the build prints them and new ones are shown while the build is still
+ * running. Markers are updated in batches, in a single workspace operation, and only on the files
+ * whose diagnostics changed. When a build finishes, the markers of the files without diagnostics
+ * anymore are removed, but only for the files of the packages that the build covered: the other
+ * packages were not built and might still have errors. Bazel does not print again the warnings of
+ * cached actions, so warnings are only removed from files modified since they were reported.
+ *
+ * <p>
+ * The markers are not persistent: the diagnostics are only known for the builds of this session.
+ */
+public class ProblemMarkerUpdater implements BuildListener {
+
+  /** The type of the markers created for the diagnostics of Bazel builds. */
+  public static final String MARKER_TYPE = Activator.PLUGIN_ID + ".problem";
+
+  // Delay to batch the marker updates while the build is running.
+  private static final long FLUSH_DELAY_MS = 500;
+
+  private final class WorkspaceState {
+    private DiagnosticParser parser;
+    // The patterns built by the running build, and the ones it excluded.
+    private List<TargetPattern> built = ImmutableList.of();
+    private List<TargetPattern> excluded = ImmutableList.of();
+    // Diagnostics of the running build, per file.
+    private final Map<File, Set<Diagnostic>> building = new HashMap<>();
+    // Diagnostics currently shown as markers, per file.
+    private final Map<File, Set<Diagnostic>> reported = new HashMap<>();
+    // The modification time of each file of reported when its diagnostics were reported.
+    private final Map<File, Long> reportedStamps = new HashMap<>();
+  }
+
+  private final Map<File, WorkspaceState> states = new HashMap<>();
+  // Marker updates waiting to be applied: the new diagnostics of each file.
+  private final Map<File, ImmutableSet<Diagnostic>> updates = new LinkedHashMap<>();
+
+  private final Job flushJob = new Job("Updating Bazel problem markers") {
+    @Override
+    protected IStatus run(IProgressMonitor monitor) {
+      Map<File, ImmutableSet<Diagnostic>> toApply;
+      synchronized (ProblemMarkerUpdater.this) {
+        toApply = new LinkedHashMap<>(updates);
+        updates.clear();
+      }
+      try {
+        // Batch all the marker changes into one resource change event.
+        ResourcesPlugin.getWorkspace().run(m -> apply(toApply), null, IWorkspace.AVOID_UPDATE,
+            monitor);
+      } catch (CoreException e) {
+        Activator.error("Failed to update Bazel problem markers", e);
+      }
+      return Status.OK_STATUS;
+    }
+  };
+
+  public ProblemMarkerUpdater() {
+    flushJob.setSystem(true);
+  }
+
+  private WorkspaceState getState(BazelInstance instance) {
+    WorkspaceState state = states.get(instance.getWorkspaceRoot());
+    if (state == null) {
+      state = new WorkspaceState();
+      states.put(instance.getWorkspaceRoot(), state);
+    }
+    return state;
+  }
+
+  @Override
+  public synchronized void buildStarted(BazelInstance instance, List<String> targets) {
+    WorkspaceState state = getState(instance);
+    state.building.clear();
+    List<TargetPattern> built = new ArrayList<>();
+    List<TargetPattern> excluded = new ArrayList<>();
+    for (String target : targets) {
+      if (target.startsWith("-")) {
+        excluded.add(TargetPattern.parse(target.substring(1)));
+      } else {
+        built.add(TargetPattern.parse(target));
+      }
+    }
+    state.built = built;
+    state.excluded = excluded;
+    state.parser = new DiagnosticParser(instance.getWorkspaceRoot(), instance.getExecRoot(),
+        d -> addDiagnostic(state, d));
+  }
+
+  @Override
+  public synchronized void buildErrorLine(BazelInstance instance, String line) {
+    WorkspaceState state = getState(instance);
+    if (state.parser != null) {
+      state.parser.accept(line);
+    }
+  }
+
+  @Override
+  public synchronized void buildFinished(BazelInstance instance, int exitCode,
+      boolean cancelled) {
+    WorkspaceState state = getState(instance);
+    if (state.parser == null) {
+      return;
+    }
+    state.parser.flush();
+    state.parser = null;
+    if (!cancelled) {
+      // The build reported all the diagnostics of the packages it built: remove the ones that
+      // disappeared from those packages.
+      Set<File> files = new HashSet<>(state.reported.keySet());
+      files.addAll(state.building.keySet());
+      for (File file : files) {
+        Set<Diagnostic> diagnostics = state.building.get(file);
+        if (diagnostics != null) {
+          update(state, file, diagnostics);
+        } else if (isBuilt(state, instance.getWorkspaceRoot(), file)) {
+          update(state, file, getCachedDiagnostics(state, file));
+        }
+      }
+    }
+    state.building.clear();
+    state.built = ImmutableList.of();
+    state.excluded = ImmutableList.of();
+    flushJob.schedule();
+  }
+
+  // Called with the lock held, from the build thread.
+  private void addDiagnostic(WorkspaceState state, Diagnostic diagnostic) {
+    File file = diagnostic.getFile();
+    Set<Diagnostic> diagnostics = state.building.get(file);
+    if (diagnostics == null) {
+      diagnostics = new LinkedHashSet<>();
+      state.building.put(file, diagnostics);
+    }
+    diagnostics.add(diagnostic);
+    Set<Diagnostic> reported = state.reported.get(file);
+    if (reported == null || !reported.containsAll(diagnostics)) {
+      // Show new diagnostics right away but keep the old ones until the end of the build, when we
+      // know whether they are still there.
+      Set<Diagnostic> shown = new LinkedHashSet<>(diagnostics);
+      if (reported != null) {
+        shown.addAll(reported);
+      }
+      update(state, file, shown);
+      flushJob.schedule(FLUSH_DELAY_MS);
+    }
+  }
+
+  // Returns true if the package of file, if any, was covered by the build.
+  private static boolean isBuilt(WorkspaceState state, File workspaceRoot, File file) {
+    String pkg = getPackage(workspaceRoot, file);
+    if (pkg == null) {
+      return false;
+    }
+    for (TargetPattern pattern : state.excluded) {
+      if (pattern.matchesPackage(pkg)) {
+        return false;
+      }
+    }
+    for (TargetPattern pattern : state.built) {
+      if (pattern.matchesPackage(pkg)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Returns the package (e.g. foo/bar) of file, i.e. its closest directory with a BUILD file, or
+  // null if the file is not in a package of the workspace.
+  private static String getPackage(File workspaceRoot, File file) {
+    String root = workspaceRoot.getPath();
+    for (File dir = file.getParentFile(); dir != null; dir = dir.getParentFile()) {
+      String path = dir.getPath();
+      if (!path.startsWith(root)) {
+        return null;
+      }
+      if (new File(dir, "BUILD").isFile() || new File(dir, "BUILD.bazel").isFile()) {
+        return path.length() == root.length() ? "" : path.substring(root.length() + 1);
+      }
+    }
+    return null;
+  }
+
+  // The diagnostics of a file that the build did not print again: the warnings of a file that was
+  // not modified since might come from a cached action, errors are never cached.
+  private static Set<Diagnostic> getCachedDiagnostics(WorkspaceState state, File file) {
+    Long stamp = state.reportedStamps.get(file);
+    if (stamp == null || stamp != file.lastModified()) {
+      return ImmutableSet.of();
+    }
+    Set<Diagnostic> warnings = new LinkedHashSet<>();
+    for (Diagnostic d : state.reported.get(file)) {
+      if (d.getSeverity() == Diagnostic.Severity.WARNING) {
+        warnings.add(d);
+      }
+    }
+    return warnings;
+  }
+
+  private void update(WorkspaceState state, File file, Set<Diagnostic> diagnostics) {
+    Set<Diagnostic> reported = state.reported.get(file);
+    if (reported == null ? diagnostics.isEmpty() : reported.equals(diagnostics)) {
+      return;
+    }
+    if (diagnostics.isEmpty()) {
+      state.reported.remove(file);
+      state.reportedStamps.remove(file);
+    } else {
+      state.reported.put(file, ImmutableSet.copyOf(diagnostics));
+      state.reportedStamps.put(file, file.lastModified());
+    }
+    updates.put(file, ImmutableSet.copyOf(diagnostics));
+  }
+
+  private static void apply(Map<File, ImmutableSet<Diagnostic>> toApply) throws CoreException {
+    for (Map.Entry<File, ImmutableSet<Diagnostic>> entry : toApply.entrySet()) {
+      // A file can be linked from several projects.
+      for (IFile resource : ResourcesPlugin.getWorkspace().getRoot()
+          .findFilesForLocationURI(entry.getKey().toURI())) {
+        if (!resource.isAccessible()) {
+          continue;
+        }
+        resource.deleteMarkers(MARKER_TYPE, false, IResource.DEPTH_ZERO);
+        String content = null;
+        for (Diagnostic d : entry.getValue()) {
+          IMarker marker = resource.createMarker(MARKER_TYPE);
+          marker.setAttribute(IMarker.MESSAGE, d.getMessage());
+          marker.setAttribute(IMarker.LINE_NUMBER, d.getLine());
+          if (d.getColumn() > 0) {
+            if (content == null) {
+              content = getContent(resource);
+            }
+            setCharRange(marker, content, d.getLine(), d.getColumn());
+          }
+          marker.setAttribute(IMarker.SEVERITY,
+              d.getSeverity() == Diagnostic.Severity.ERROR ? IMarker.SEVERITY_ERROR
+                  : IMarker.SEVERITY_WARNING);
+        }
+      }
+    }
+  }
+
+  private static String getContent(IFile resource) throws CoreException {
+    StringBuilder content = new StringBuilder();
+    try (InputStream in = resource.getContents(true);
+        Reader reader = new InputStreamReader(in, resource.getCharset())) {
+      char[] buffer = new char[8192];
+      int n;
+      while ((n = reader.read(buffer)) > 0) {
+        content.append(buffer, 0, n);
+      }
+    } catch (IOException e) {
+      return "";
+    }
+    return content.toString();
+  }
+
+  // Highlights the word (or the character) at column of line, both starting at 1.
+  private static void setCharRange(IMarker marker, String content, int line, int column)
+      throws CoreException {
+    int offset = 0;
+    for (int l = 1; l < line; l++) {
+      offset = content.indexOf('\n', offset) + 1;
+      if (offset == 0) {
+        return;
+      }
+    }
+    int start = offset + column - 1;
+    int lineEnd = content.indexOf('\n', offset);
+    if (start > (lineEnd < 0 ? content.length() : lineEnd)) {
+      return;
+    }
+    int end = start;
+    while (end < content.length() && Character.isJavaIdentifierPart(content.charAt(end))) {
+      end++;
+    }
+    marker.setAttribute(IMarker.CHAR_START, start);
+    marker.setAttribute(IMarker.CHAR_END, Math.max(end, start + 1));
+  }
+}
@@ -19,15 +19,23 @@ import java.io.IOException;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
 
+import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.IWorkspaceRoot;
 import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
+import org.eclipse.jdt.core.IAccessRule;
+import org.eclipse.jdt.core.IClasspathAttribute;
 import org.eclipse.jdt.core.IClasspathContainer;
 import org.eclipse.jdt.core.IClasspathEntry;
 import org.eclipse.jdt.core.IJavaProject;
@@ -35,26 +43,64 @@ import org.eclipse.jdt.core.JavaCore;
 import org.eclipse.jdt.core.JavaModelException;
 import org.osgi.service.prefs.BackingStoreException;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.devtools.bazel.e4b.Activator;
 import com.google.devtools.bazel.e4b.BazelProjectSupport;
 import com.google.devtools.bazel.e4b.command.BazelCommand.BazelInstance;
 import com.google.devtools.bazel.e4b.command.BazelNotFoundException;
 import com.google.devtools.bazel.e4b.command.IdeBuildInfo;
 import com.google.devtools.bazel.e4b.command.IdeBuildInfo.Jars;
+import com.google.devtools.bazel.e4b.command.IdeInfoResolver;
+import com.google.devtools.bazel.e4b.command.TargetPattern;
 
 public class BazelClasspathContainer implements IClasspathContainer {
   public static final String CONTAINER_NAME = "com.google.devtools.bazel.e4b.BAZEL_CONTAINER";
 
   private final IPath path;
   private final IJavaProject project;
-  private final BazelInstance instance;
+  // Replaced when the instance is released because the workspace was idle.
+  private volatile BazelInstance instance;
+  // The IDE build information to compute the entries from, or null to compute it on demand.
+  private final Map<String, IdeBuildInfo> infos;
 
   public BazelClasspathContainer(IPath path, IJavaProject project)
       throws IOException, InterruptedException, BackingStoreException, JavaModelException,
       BazelNotFoundException {
+    this(path, project, null);
+  }
+
+  /**
+   * Create a container whose entries are computed from <code>infos</code>, e.g. partial or
+   * previously computed IDE build information, instead of running Bazel.
+   */
+  BazelClasspathContainer(IPath path, IJavaProject project, Map<String, IdeBuildInfo> infos)
+      throws IOException, InterruptedException, BackingStoreException, JavaModelException,
+      BazelNotFoundException {
     this.path = path;
     this.project = project;
     this.instance = BazelProjectSupport.getBazelCommandInstance(project.getProject());
+    this.infos = infos;
+  }
+
+  /**
+   * Computes the IDE build information of the project, running Bazel if needed. Unless it is null,
+   * <code>onShard</code> receives the partial information as it is computed.
+   */
+  Map<String, IdeBuildInfo> resolve(Consumer<Map<String, IdeBuildInfo>> onShard)
+      throws IOException, InterruptedException, BackingStoreException, BazelNotFoundException {
+    IdeInfoResolver resolver = getInstance().getIdeInfoResolver();
+    resolver.register(project, BazelProjectSupport.getTargets(project.getProject()),
+        BazelProjectSupport.getBuildFlags(project.getProject()));
+    return resolver.getIdeInfo(project, onShard);
+  }
+
+  /**
+   * Returns the IDE build information last computed for the project, or null if it was never
+   * computed.
+   */
+  Map<String, IdeBuildInfo> getLastIdeInfo() {
+    return instance.getIdeInfoResolver().getLastIdeInfo(project);
   }
 
   private boolean isSourcePath(String path) throws JavaModelException, BackingStoreException {
@@ -102,17 +148,42 @@ public class BazelClasspathContainer implements IClasspathContainer {
 
   @Override
   public IClasspathEntry[] getClasspathEntries() {
+    return getEntries(true);
+  }
+
+  /**
+   * Returns the entries of the container to run the programs of the project with, see
+   * {@link BazelRuntimeClasspathEntryResolver}. Unlike {@link #getClasspathEntries()}, they always
+   * use the full jars since the interface jars have no method bodies.
+   */
+  IClasspathEntry[] getRuntimeClasspathEntries() {
+    return getEntries(false);
+  }
+
+  // Returns the entries to compile the project with if compile is true, or to run it otherwise.
+  private IClasspathEntry[] getEntries(boolean compile) {
     try {
-      List<String> targets = BazelProjectSupport.getTargets(project.getProject());
-      Map<String, IdeBuildInfo> infos = instance.getIdeInfo(targets);
+      Map<String, IdeBuildInfo> infos = this.infos != null ? this.infos : resolve(null);
+      Map<IProject, List<TargetPattern>> referenceableProjects = getReferenceableProjects();
       Set<Jars> jars = new HashSet<>();
+      Set<IProject> references = new LinkedHashSet<>();
       for (IdeBuildInfo s : infos.values()) {
         jars.addAll(s.getGeneratedJars());
         if (!isSourceInPaths(s.getSources())) {
-          jars.addAll(s.getJars());
+          IProject owner = findOwner(referenceableProjects, s.getLabel());
+          if (owner != null) {
+            references.add(owner);
+          } else {
+            jars.addAll(s.getJars());
+          }
         }
       }
-      return jarsToClasspathEntries(jars);
+      List<IClasspathEntry> entries = new LinkedList<>();
+      for (IProject reference : references) {
+        entries.add(JavaCore.newProjectEntry(reference.getFullPath()));
+      }
+      entries.addAll(Arrays.asList(jarsToClasspathEntries(jars, compile)));
+      return entries.toArray(new IClasspathEntry[0]);
     } catch (JavaModelException | BackingStoreException | IOException | InterruptedException e) {
       Activator.error("Unable to compute classpath containers entries.", e);
       return new IClasspathEntry[] {};
@@ -122,15 +193,67 @@ public class BazelClasspathContainer implements IClasspathContainer {
     }
   }
 
-  private IClasspathEntry[] jarsToClasspathEntries(Set<Jars> jars) {
+  // Returns the other e4b projects that the project can reference, with their target patterns.
+  private Map<IProject, List<TargetPattern>> getReferenceableProjects()
+      throws BackingStoreException {
+    if (!BazelProjectSupport.useProjectReferences(project.getProject())) {
+      return ImmutableMap.of();
+    }
+    try {
+      ImmutableMap.Builder<IProject, List<TargetPattern>> builder = ImmutableMap.builder();
+      for (Map.Entry<IProject, List<String>> entry : BazelProjectSupport
+          .getReferenceableProjects(project.getProject()).entrySet()) {
+        ImmutableList.Builder<TargetPattern> patterns = ImmutableList.builder();
+        for (String target : entry.getValue()) {
+          patterns.add(TargetPattern.parse(target));
+        }
+        builder.put(entry.getKey(), patterns.build());
+      }
+      return builder.build();
+    } catch (CoreException e) {
+      Activator.error("Unable to list projects to reference, using jars instead.", e);
+      return ImmutableMap.of();
+    }
+  }
+
+  private static IProject findOwner(Map<IProject, List<TargetPattern>> projects, String label) {
+    for (Map.Entry<IProject, List<TargetPattern>> entry : projects.entrySet()) {
+      for (TargetPattern pattern : entry.getValue()) {
+        if (pattern.matches(label)) {
+          return entry.getKey();
+        }
+      }
+    }
+    return null;
+  }
+
+  // The index files of the jars are only attached to the compilation entries, which JDT indexes.
+  private IClasspathEntry[] jarsToClasspathEntries(Set<Jars> jars, boolean compile) {
     IClasspathEntry[] entries = new IClasspathEntry[jars.size()];
     int i = 0;
     File execRoot = instance.getExecRoot();
+    boolean useInterfaceJars =
+        compile && BazelProjectSupport.useInterfaceJars(project.getProject());
+    JarIndexer indexer = Activator.getDefault().getJarIndexer();
+    boolean missingIndex = false;
     for (Jars j : jars) {
-      entries[i] = JavaCore.newLibraryEntry(getJarIPath(execRoot, j.getJar()),
-          getJarIPath(execRoot, j.getSrcJar()), null);
+      File jar = new File(execRoot, j.getCompileJar(useInterfaceJars));
+      File index = compile ? indexer.getIndexFile(jar) : null;
+      IClasspathAttribute[] attributes = {};
+      if (index != null) {
+        attributes = new IClasspathAttribute[] {JavaCore.newClasspathAttribute(
+            IClasspathAttribute.INDEX_LOCATION_ATTRIBUTE_NAME, index.toURI().toString())};
+      } else if (compile && indexer.isIndexable(jar)) {
+        missingIndex = true;
+      }
+      entries[i] = JavaCore.newLibraryEntry(getJarIPath(jar),
+          getJarIPath(execRoot, j.getSrcJar()), null, new IAccessRule[] {}, attributes, false);
       i++;
     }
+    if (missingIndex) {
+      // Attach the index files once they have been generated.
+      indexer.whenIdle(project, () -> BazelClasspathContainerInitilalizer.update(path, project));
+    }
     return entries;
   }
 
@@ -138,7 +261,10 @@ public class BazelClasspathContainer implements IClasspathContainer {
     if (file == null) {
       return null;
     }
-    File path = new File(execRoot, file);
+    return getJarIPath(new File(execRoot, file));
+  }
+
+  private static IPath getJarIPath(File path) {
     return org.eclipse.core.runtime.Path.fromOSString(path.toString());
   }
 
@@ -158,6 +284,21 @@ public class BazelClasspathContainer implements IClasspathContainer {
   }
 
 
+  /**
+   * Returns the Bazel instance of the project, getting a new one if the workspace was idle for long
+   * enough for the previous one to be released.
+   */
+  BazelInstance getInstance()
+      throws IOException, InterruptedException, BackingStoreException, BazelNotFoundException {
+    if (instance != null && instance.isDisposed()) {
+      BazelInstance current = BazelProjectSupport.getBazelCommandInstance(project.getProject());
+      if (current != null) {
+        instance = current;
+      }
+    }
+    return instance;
+  }
+
   public boolean isValid() {
     return instance != null;
   }
@@ -15,27 +15,45 @@
 package com.google.devtools.bazel.e4b.classpath;
 
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jdt.core.ClasspathContainerInitializer;
 import org.eclipse.jdt.core.IClasspathContainer;
+import org.eclipse.jdt.core.IJavaElement;
 import org.eclipse.jdt.core.IJavaProject;
 import org.eclipse.jdt.core.JavaCore;
 import org.osgi.service.prefs.BackingStoreException;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.devtools.bazel.e4b.Activator;
+import com.google.devtools.bazel.e4b.ProgressMonitorAdapter;
 import com.google.devtools.bazel.e4b.command.BazelNotFoundException;
+import com.google.devtools.bazel.e4b.command.IdeBuildInfo;
 
 public class BazelClasspathContainerInitilalizer extends ClasspathContainerInitializer {
 
+  /**
+   * Set the container to the entries last computed for the project (if any) and compute the
+   * up-to-date entries in the background. Running the aspect over a large set of targets takes a
+   * while, so the container is updated each time a shard of targets has been analyzed, the targets
+   * of the project first.
+   */
   @Override
   public void initialize(IPath path, IJavaProject project) throws CoreException {
     try {
       BazelClasspathContainer container = new BazelClasspathContainer(path, project);
       if (container.isValid()) {
-        JavaCore.setClasspathContainer(path, new IJavaProject[] {project},
-            new IClasspathContainer[] {container}, null);
+        Map<String, IdeBuildInfo> last = container.getLastIdeInfo();
+        publish(path, project, last == null ? ImmutableMap.of() : last);
+        resolve(path, project, container, last);
       } else {
         Activator.error("Unable to create classpath container (Not a Bazel workspace?)");
       }
@@ -46,4 +64,103 @@ public class BazelClasspathContainerInitilalizer extends ClasspathContainerIniti
     }
   }
 
+  // Compute the IDE build information of the project in the background and publish it, as well as
+  // the partial information, unless it did not change since last.
+  private static void resolve(IPath path, IJavaProject project, BazelClasspathContainer container,
+      Map<String, IdeBuildInfo> last) {
+    PublishJob publishJob = new PublishJob(path, project);
+    Job job = new Job("Computing Bazel classpath of " + project.getElementName()) {
+      @Override
+      protected IStatus run(IProgressMonitor monitor) {
+        try (ProgressMonitorAdapter adapter =
+            ProgressMonitorAdapter.attach(container.getInstance(), monitor, getName())) {
+          Map<String, IdeBuildInfo> infos =
+              container.resolve(partial -> publishJob.publish(partial, false));
+          if (infos != last) {
+            publishJob.publish(infos, true);
+          }
+        } catch (IOException | InterruptedException | BackingStoreException e) {
+          Activator.error("Error while computing Bazel classpath container.", e);
+        } catch (BazelNotFoundException e) {
+          Activator.error("Bazel not found: " + e.getMessage());
+        }
+        return Status.OK_STATUS;
+      }
+    };
+    job.schedule();
+  }
+
+  // Publishes the latest IDE build information given to publish(). The container is set from a
+  // separate job so that JDT is never called while holding the locks of the resolver. The partial
+  // information might point to jars that are not built yet, so JDT is asked to look at the jars
+  // again once the complete information is published.
+  private static final class PublishJob extends Job {
+    private final IPath path;
+    private final IJavaProject project;
+    private final AtomicReference<Map<String, IdeBuildInfo>> latest = new AtomicReference<>();
+    private final AtomicBoolean refresh = new AtomicBoolean(false);
+
+    PublishJob(IPath path, IJavaProject project) {
+      super("Updating Bazel classpath of " + project.getElementName());
+      this.path = path;
+      this.project = project;
+      setSystem(true);
+    }
+
+    void publish(Map<String, IdeBuildInfo> infos, boolean complete) {
+      latest.set(infos);
+      if (complete) {
+        refresh.set(true);
+      }
+      schedule();
+    }
+
+    @Override
+    protected IStatus run(IProgressMonitor monitor) {
+      Map<String, IdeBuildInfo> infos = latest.getAndSet(null);
+      if (infos != null) {
+        try {
+          BazelClasspathContainerInitilalizer.publish(path, project, infos);
+          if (refresh.getAndSet(false)) {
+            project.getJavaModel().refreshExternalArchives(new IJavaElement[] {project}, monitor);
+          }
+        } catch (CoreException e) {
+          return e.getStatus();
+        } catch (IOException | InterruptedException | BackingStoreException e) {
+          Activator.error("Error while updating Bazel classpath container.", e);
+        } catch (BazelNotFoundException e) {
+          Activator.error("Bazel not found: " + e.getMessage());
+        }
+      }
+      return Status.OK_STATUS;
+    }
+  }
+
+  private static void publish(IPath path, IJavaProject project, Map<String, IdeBuildInfo> infos)
+      throws CoreException, IOException, InterruptedException, BackingStoreException,
+      BazelNotFoundException {
+    JavaCore.setClasspathContainer(path, new IJavaProject[] {project},
+        new IClasspathContainer[] {new BazelClasspathContainer(path, project, infos)}, null);
+  }
+
+  /**
+   * Schedule a recomputation of the Bazel classpath container <code>path</code> of
+   * <code>project</code>, e.g. when new information about its entries is available.
+   */
+  public static void update(IPath path, IJavaProject project) {
+    Job job = new Job("Updating Bazel classpath of " + project.getElementName()) {
+      @Override
+      protected IStatus run(IProgressMonitor monitor) {
+        try {
+          new BazelClasspathContainerInitilalizer().initialize(path, project);
+        } catch (CoreException e) {
+          return e.getStatus();
+        }
+        return Status.OK_STATUS;
+      }
+    };
+    job.setSystem(true);
+    job.schedule();
+  }
+
 }
@@ -0,0 +1,84 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.classpath;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.debug.core.ILaunchConfiguration;
+import org.eclipse.jdt.core.IClasspathContainer;
+import org.eclipse.jdt.core.IClasspathEntry;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.launching.IRuntimeClasspathEntry;
+import org.eclipse.jdt.launching.IRuntimeClasspathEntryResolver;
+import org.eclipse.jdt.launching.IVMInstall;
+import org.eclipse.jdt.launching.JavaRuntime;
+
+/**
+ * Resolves the Bazel classpath container for the launches (applications, tests...) of a project.
+ *
+ * <p>
+ * The container can use the interface jars of the dependencies to compile the project (see
+ * {@link com.google.devtools.bazel.e4b.BazelProjectSupport#useInterfaceJars}), but the interface
+ * jars have no method bodies: the launches get the full jars instead.
+ */
+public class BazelRuntimeClasspathEntryResolver implements IRuntimeClasspathEntryResolver {
+
+  @Override
+  public IRuntimeClasspathEntry[] resolveRuntimeClasspathEntry(IRuntimeClasspathEntry entry,
+      ILaunchConfiguration configuration) throws CoreException {
+    return resolveRuntimeClasspathEntry(entry, JavaRuntime.getJavaProject(configuration));
+  }
+
+  @Override
+  public IRuntimeClasspathEntry[] resolveRuntimeClasspathEntry(IRuntimeClasspathEntry entry,
+      IJavaProject project) throws CoreException {
+    if (project == null || entry.getType() != IRuntimeClasspathEntry.CONTAINER) {
+      return new IRuntimeClasspathEntry[0];
+    }
+    IClasspathContainer container = JavaCore.getClasspathContainer(entry.getPath(), project);
+    if (container == null) {
+      return new IRuntimeClasspathEntry[0];
+    }
+    IClasspathEntry[] entries = container instanceof BazelClasspathContainer
+        ? ((BazelClasspathContainer) container).getRuntimeClasspathEntries()
+        : container.getClasspathEntries();
+    List<IRuntimeClasspathEntry> result = new ArrayList<>();
+    for (IClasspathEntry e : entries) {
+      IRuntimeClasspathEntry runtimeEntry;
+      if (e.getEntryKind() == IClasspathEntry.CPE_PROJECT) {
+        IProject reference =
+            ResourcesPlugin.getWorkspace().getRoot().getProject(e.getPath().segment(0));
+        runtimeEntry = JavaRuntime.newProjectRuntimeClasspathEntry(JavaCore.create(reference));
+      } else {
+        runtimeEntry = JavaRuntime.newArchiveRuntimeClasspathEntry(e.getPath());
+        runtimeEntry.setSourceAttachmentPath(e.getSourceAttachmentPath());
+        runtimeEntry.setSourceAttachmentRootPath(e.getSourceAttachmentRootPath());
+      }
+      runtimeEntry.setClasspathProperty(entry.getClasspathProperty());
+      result.add(runtimeEntry);
+    }
+    return result.toArray(new IRuntimeClasspathEntry[0]);
+  }
+
+  @Override
+  public IVMInstall resolveVMInstall(IClasspathEntry entry) throws CoreException {
+    return null;
+  }
+}
@@ -0,0 +1,273 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.classpath;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.jdt.core.index.JavaIndexer;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import com.google.devtools.bazel.e4b.Activator;
+
+/**
+ * Generates JDT index files for the jars referenced by the Bazel classpath container, so that JDT
+ * does not have to index them itself when opening a project.
+ *
+ * <p>
+ * Index files are generated in a background pool and stored in a directory shared by all Eclipse
+ * workspaces, named after the SHA-256 digest of the jar they index. A jar that has already been
+ * indexed, by any project or workspace, is never indexed again. The digests of the jars are
+ * remembered across sessions, by path, size and modification time, so that the existing index files
+ * are attached to the classpath right away on the next start.
+ */
+public final class JarIndexer {
+
+  // Identify a jar file on disk at a given time, used to avoid recomputing the digest of jars that
+  // did not change.
+  private static final class JarKey {
+    private final String path;
+    private final long length;
+    private final long lastModified;
+
+    JarKey(File file) {
+      this(file.getAbsolutePath(), file.length(), file.lastModified());
+    }
+
+    JarKey(String path, long length, long lastModified) {
+      this.path = path;
+      this.length = length;
+      this.lastModified = lastModified;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof JarKey)) {
+        return false;
+      }
+      JarKey other = (JarKey) obj;
+      return path.equals(other.path) && length == other.length
+          && lastModified == other.lastModified;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(path, length, lastModified);
+    }
+  }
+
+  // The file, in the index directory, remembering the digests of the jars across sessions. Each
+  // line is "<length> <lastModified> <digest> <path>".
+  private static final String DIGESTS_FILE = "digests";
+
+  private final File indexDirectory;
+  private final ExecutorService pool;
+
+  private final Map<JarKey, String> digests = new ConcurrentHashMap<>();
+  // Whether digests has entries that are not in the digests file yet.
+  private final AtomicBoolean digestsChanged = new AtomicBoolean(false);
+  private final Set<JarKey> failed = ConcurrentHashMap.newKeySet();
+  private final Set<JarKey> pending = ConcurrentHashMap.newKeySet();
+  // Actions to run when the pending set becomes empty, keyed to avoid duplicates.
+  private final Map<Object, Runnable> idleActions = new LinkedHashMap<>();
+
+  /**
+   * Create a {@link JarIndexer} that stores the index files in <code>indexDirectory</code>.
+   */
+  public JarIndexer(File indexDirectory) {
+    this.indexDirectory = indexDirectory;
+    this.pool = Executors.newFixedThreadPool(
+        Math.max(1, Runtime.getRuntime().availableProcessors() / 2), r -> {
+          Thread t = new Thread(r, "Bazel JDT indexer");
+          t.setDaemon(true);
+          t.setPriority(Thread.MIN_PRIORITY);
+          return t;
+        });
+    digests.putAll(readDigests());
+  }
+
+  /**
+   * Returns the index file for <code>jar</code> if it has already been generated. Otherwise,
+   * schedule the generation of the index in the background and returns null. Use
+   * {@link #whenIdle(Object, Runnable)} to be notified when the index files have been generated.
+   */
+  public File getIndexFile(File jar) {
+    if (!jar.isFile()) {
+      // Not built yet.
+      return null;
+    }
+    JarKey key = new JarKey(jar);
+    String digest = digests.get(key);
+    if (digest != null) {
+      File index = getIndexFileForDigest(digest);
+      if (index.isFile()) {
+        return index;
+      }
+    }
+    if (!failed.contains(key) && pending.add(key)) {
+      pool.execute(() -> index(jar, key));
+    }
+    return null;
+  }
+
+  /**
+   * Returns true if an index file can be generated for <code>jar</code>, that is the jar exists and
+   * a previous attempt at indexing it did not fail.
+   */
+  public boolean isIndexable(File jar) {
+    return jar.isFile() && !failed.contains(new JarKey(jar));
+  }
+
+  /**
+   * Run <code>action</code> once all the index files currently scheduled have been generated. Only
+   * the last action registered for a given <code>key</code> is run. If no index file is being
+   * generated, <code>action</code> is run right away in the background.
+   */
+  public void whenIdle(Object key, Runnable action) {
+    synchronized (idleActions) {
+      if (!pending.isEmpty()) {
+        idleActions.put(key, action);
+        return;
+      }
+    }
+    pool.execute(action);
+  }
+
+  /**
+   * Stop generating index files.
+   */
+  public void dispose() {
+    pool.shutdownNow();
+  }
+
+  private File getIndexFileForDigest(String digest) {
+    return new File(indexDirectory, digest + ".index");
+  }
+
+  private void index(File jar, JarKey key) {
+    try {
+      String digest = Files.asByteSource(jar).hash(Hashing.sha256()).toString();
+      File index = getIndexFileForDigest(digest);
+      if (!index.isFile()) {
+        // Generate to a temporary file and move it in place so that concurrent indexers (e.g.
+        // another Eclipse instance) never see a partial index.
+        indexDirectory.mkdirs();
+        File tmp = File.createTempFile(digest, ".tmp", indexDirectory);
+        try {
+          JavaIndexer.generateIndexForJar(jar.getAbsolutePath(), tmp.getAbsolutePath());
+          java.nio.file.Files.move(tmp.toPath(), index.toPath(),
+              StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+          tmp.delete();
+        }
+      }
+      digests.put(key, digest);
+      digestsChanged.set(true);
+    } catch (IOException | RuntimeException e) {
+      failed.add(key);
+      Activator.error("Unable to generate JDT index for " + jar, e);
+    } finally {
+      pending.remove(key);
+      runIdleActions();
+    }
+  }
+
+  private void runIdleActions() {
+    Runnable[] actions;
+    synchronized (idleActions) {
+      if (!pending.isEmpty()) {
+        return;
+      }
+      if (digestsChanged.getAndSet(false)) {
+        writeDigests();
+      }
+      if (idleActions.isEmpty()) {
+        return;
+      }
+      actions = idleActions.values().toArray(new Runnable[0]);
+      idleActions.clear();
+    }
+    for (Runnable action : actions) {
+      action.run();
+    }
+  }
+
+  // Returns the digests of the remembered jars.
+  private Map<JarKey, String> readDigests() {
+    Map<JarKey, String> result = new HashMap<>();
+    File file = new File(indexDirectory, DIGESTS_FILE);
+    if (!file.isFile()) {
+      return result;
+    }
+    try {
+      for (String line : java.nio.file.Files.readAllLines(file.toPath(),
+          StandardCharsets.UTF_8)) {
+        String[] parts = line.split(" ", 4);
+        if (parts.length == 4) {
+          try {
+            result.put(new JarKey(parts[3], Long.parseLong(parts[0]), Long.parseLong(parts[1])),
+                parts[2]);
+          } catch (NumberFormatException e) {
+            // Ignore the corrupted line.
+          }
+        }
+      }
+    } catch (IOException e) {
+      // Digests are computed again.
+    }
+    return result;
+  }
+
+  // Merge the digests with the ones written by other Eclipse instances, dropping the jars that
+  // changed or no longer exist.
+  private synchronized void writeDigests() {
+    Map<JarKey, String> known = readDigests();
+    known.putAll(digests);
+    List<String> lines = new ArrayList<>();
+    for (Map.Entry<JarKey, String> e : known.entrySet()) {
+      JarKey key = e.getKey();
+      if (key.equals(new JarKey(new File(key.path)))) {
+        lines.add(key.length + " " + key.lastModified + " " + e.getValue() + " " + key.path);
+      }
+    }
+    try {
+      indexDirectory.mkdirs();
+      File tmp = File.createTempFile(DIGESTS_FILE, ".tmp", indexDirectory);
+      try {
+        java.nio.file.Files.write(tmp.toPath(), lines, StandardCharsets.UTF_8);
+        java.nio.file.Files.move(tmp.toPath(), new File(indexDirectory, DIGESTS_FILE).toPath(),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        tmp.delete();
+      }
+    } catch (IOException e) {
+      Activator.error("Unable to save the digests of the indexed jars", e);
+    }
+  }
+}
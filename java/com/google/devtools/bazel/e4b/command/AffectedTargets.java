@@ -0,0 +1,95 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.command;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.SetMultimap;
+
+/**
+ * Computes the set of targets affected by a change to a list of source files, using the sources
+ * and dependencies reported in the {@link IdeBuildInfo}-s of a target graph.
+ */
+public final class AffectedTargets {
+
+  private AffectedTargets() {}
+
+  /**
+   * Returns the labels of the targets of <code>infos</code> that consume one of the
+   * <code>files</code> (given relative to the workspace root), together with the targets of
+   * <code>infos</code> that depend on them. Returns null if one of the files is not a source of any
+   * target of <code>infos</code>, in which case the affected targets cannot be known.
+   */
+  public static ImmutableSet<String> compute(Map<String, IdeBuildInfo> infos,
+      Collection<String> files) {
+    return compute(infos, files, file -> ImmutableList.of());
+  }
+
+  /**
+   * Returns the labels of the targets of <code>infos</code> that consume one of the
+   * <code>files</code>, together with the targets of <code>infos</code> that depend on them, like
+   * {@link #compute(Map, Collection)}. The owners of the files that are not a source of any target
+   * of <code>infos</code> (e.g. new files matched by a glob) are given by <code>owners</code>.
+   */
+  public static ImmutableSet<String> compute(Map<String, IdeBuildInfo> infos,
+      Collection<String> files, Function<String, Collection<String>> fallbackOwners) {
+    Map<String, Set<String>> owners = new HashMap<>();
+    for (String file : files) {
+      owners.put(file, new LinkedHashSet<>());
+    }
+    SetMultimap<String, String> reverseDeps = HashMultimap.create();
+    for (IdeBuildInfo info : infos.values()) {
+      for (String source : info.getSources()) {
+        Set<String> fileOwners = owners.get(source);
+        if (fileOwners != null) {
+          fileOwners.add(info.getLabel());
+        }
+      }
+      for (String dep : info.getDeps()) {
+        reverseDeps.put(dep, info.getLabel());
+      }
+    }
+
+    Deque<String> queue = new ArrayDeque<>();
+    for (Map.Entry<String, Set<String>> e : owners.entrySet()) {
+      Set<String> fileOwners = e.getValue();
+      if (fileOwners.isEmpty()) {
+        fileOwners.addAll(fallbackOwners.apply(e.getKey()));
+        if (fileOwners.isEmpty()) {
+          return null;
+        }
+      }
+      queue.addAll(fileOwners);
+    }
+    Set<String> result = new LinkedHashSet<>();
+    while (!queue.isEmpty()) {
+      String label = queue.poll();
+      if (result.add(label)) {
+        queue.addAll(reverseDeps.get(label));
+      }
+    }
+    return ImmutableSet.copyOf(result);
+  }
+}
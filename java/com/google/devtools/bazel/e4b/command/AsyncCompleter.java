@@ -0,0 +1,169 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.command;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Computes the completions of target patterns in the background, so that typing in a text field
+ * never waits for Bazel.
+ *
+ * <p>
+ * Requests are debounced: a computation only starts when no other request arrived for a short
+ * delay, and each request cancels the pending or running one, so that only the latest request is
+ * answered. When the prefix only grows within the package name or within the target name of the
+ * last computed result, the completions are filtered from that result without running Bazel.
+ */
+public final class AsyncCompleter {
+
+  /** The function computing the completions of a prefix, e.g. {@code BazelInstance::complete}. */
+  public interface Completer {
+    List<String> complete(String prefix)
+        throws IOException, InterruptedException, BazelNotFoundException;
+  }
+
+  private static final long DEFAULT_DELAY_MILLIS = 150;
+
+  // A single thread is enough since only the latest request is computed.
+  private static final ScheduledExecutorService EXECUTOR = createExecutor();
+
+  private static ScheduledExecutorService createExecutor() {
+    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+      Thread thread = new Thread(r, "Bazel target completion");
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor.setRemoveOnCancelPolicy(true);
+    return executor;
+  }
+
+  private final Completer completer;
+  private final Consumer<Exception> onError;
+  private final ScheduledExecutorService executor;
+  private final long delayMillis;
+
+  private long generation = 0;
+  private Future<?> pending = null;
+  private String lastPrefix = null;
+  private ImmutableList<String> lastResult = null;
+
+  /**
+   * Create a completer running <code>completer</code> in the background and passing its failures
+   * to <code>onError</code>.
+   */
+  public AsyncCompleter(Completer completer, Consumer<Exception> onError) {
+    this(completer, onError, EXECUTOR, DEFAULT_DELAY_MILLIS);
+  }
+
+  AsyncCompleter(Completer completer, Consumer<Exception> onError,
+      ScheduledExecutorService executor, long delayMillis) {
+    this.completer = completer;
+    this.onError = onError;
+    this.executor = executor;
+    this.delayMillis = delayMillis;
+  }
+
+  /**
+   * Request the completions of <code>prefix</code>. Returns them right away if they can be
+   * filtered from the last result. Otherwise returns null and computes them in the background:
+   * <code>callback</code> is then called, from a background thread, with the completions unless
+   * another request arrived in the meantime.
+   */
+  public synchronized ImmutableList<String> request(String prefix,
+      Consumer<ImmutableList<String>> callback) {
+    cancelPending();
+    if (lastResult != null && isRefinement(lastPrefix, prefix)) {
+      ImmutableList.Builder<String> builder = ImmutableList.builder();
+      for (String s : lastResult) {
+        if (s.startsWith(prefix)) {
+          builder.add(s);
+        }
+      }
+      return builder.build();
+    }
+    long requestGeneration = generation;
+    pending = executor.schedule(() -> run(prefix, requestGeneration, callback), delayMillis,
+        TimeUnit.MILLISECONDS);
+    return null;
+  }
+
+  /**
+   * Cancel the pending request, if any.
+   */
+  public synchronized void cancel() {
+    cancelPending();
+  }
+
+  private void cancelPending() {
+    generation++;
+    if (pending != null) {
+      // Interrupting the computation kills the running Bazel command.
+      pending.cancel(true);
+      pending = null;
+    }
+  }
+
+  private void run(String prefix, long requestGeneration,
+      Consumer<ImmutableList<String>> callback) {
+    ImmutableList<String> result;
+    try {
+      List<String> completions = completer.complete(prefix);
+      result = completions == null ? ImmutableList.of() : ImmutableList.copyOf(completions);
+    } catch (InterruptedException e) {
+      // Superseded by a newer request.
+      return;
+    } catch (IOException | BazelNotFoundException e) {
+      if (isCurrent(requestGeneration)) {
+        onError.accept(e);
+      }
+      return;
+    }
+    synchronized (this) {
+      if (requestGeneration != generation) {
+        return;
+      }
+      pending = null;
+      lastPrefix = prefix;
+      lastResult = result;
+    }
+    callback.accept(result);
+  }
+
+  private synchronized boolean isCurrent(long requestGeneration) {
+    return requestGeneration == generation;
+  }
+
+  // The completions of prefix are a subset of the completions of base if prefix extends base
+  // without starting a new package (a '/' before the ':') or the target name (the ':'). The empty
+  // prefix and "/" are only completed to "//", so only the same prefix can reuse their completions.
+  private static boolean isRefinement(String base, String prefix) {
+    if (prefix.equals(base)) {
+      return true;
+    }
+    if (base.isEmpty() || base.equals("/") || !prefix.startsWith(base)) {
+      return false;
+    }
+    String added = prefix.substring(base.length());
+    return added.indexOf(':') < 0 && (base.indexOf(':') >= 0 || added.indexOf('/') < 0);
+  }
+}
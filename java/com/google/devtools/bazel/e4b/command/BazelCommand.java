@@ -19,15 +19,21 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
 import com.google.devtools.bazel.e4b.command.CommandConsole.CommandConsoleFactory;
 
 /**
@@ -35,13 +41,19 @@ import com.google.devtools.bazel.e4b.command.CommandConsole.CommandConsoleFactor
  */
 public class BazelCommand {
 
-  private static Joiner NEW_LINE_JOINER = Joiner.on("\n");
   private static Pattern VERSION_PATTERN =
       Pattern.compile("^([0-9]+)\\.([0-9]+)\\.([0-9]+)([^0-9].*)?$");
 
   // Minimum bazel version needed to work with this plugin (currently 0.5.0)
   private static int[] MINIMUM_BAZEL_VERSION = {0, 5, 0};
 
+  // Number of targets analyzed by the first run of the IDE build information aspect, see
+  // TargetShards.
+  private static final int FIRST_SHARD_SIZE = 8;
+
+  // How often the idle instances and Bazel servers are looked for.
+  private static final long IDLE_CHECK_INTERVAL_MILLIS = 60000;
+
   private static enum ConsoleType {
     NO_CONSOLE, SYSTEM, WORKSPACE
   }
@@ -53,7 +65,19 @@ public class BazelCommand {
   private final List<String> aspectOptions;
 
   private final Map<File, BazelInstance> instances = new HashMap<>();
+  private final WorkspaceRootFinder workspaceRootFinder =
+      new WorkspaceRootFinder(this::queryWorkspaceRoot);
+  // The uses of the workspace roots, for the release of their instances and of their servers.
+  private final IdleTracker<File> instanceTracker = new IdleTracker<>(System::currentTimeMillis);
+  private final IdleTracker<File> serverTracker = new IdleTracker<>(System::currentTimeMillis);
+  private volatile long instanceIdleMillis = 0;
+  private volatile long serverIdleMillis = 0;
+  private ScheduledExecutorService idleChecker = null;
+  private final BazelInfoCache infoCache = new BazelInfoCache(directory -> runBazelAndGetOuputLines(
+      ConsoleType.SYSTEM, directory, ImmutableList.of("info")));
+  private final List<BuildListener> buildListeners = new CopyOnWriteArrayList<>();
   private File bazel = null;
+  private volatile boolean buildReportEnabled = false;
 
   /**
    * Create a {@link BazelCommand} object, providing the implementation for locating aspect and
@@ -70,7 +94,7 @@ public class BazelCommand {
         .build();
   }
 
-  private String getBazelPath() throws BazelNotFoundException {
+  private synchronized String getBazelPath() throws BazelNotFoundException {
     if (bazel == null || !bazel.exists() || !bazel.canExecute()) {
       throw new BazelNotFoundException.BazelNotSetException();
     }
@@ -85,6 +109,136 @@ public class BazelCommand {
     this.bazel = new File(bazel);
   }
 
+  /**
+   * Set the directory where the output of <code>bazel info</code> is persisted for each workspace,
+   * so that the instances of the workspaces already seen are created without running Bazel.
+   */
+  public void setInfoCacheDirectory(File directory) {
+    infoCache.setDirectory(directory);
+  }
+
+  /**
+   * Set how long a workspace must not be used before its {@link BazelInstance} and its caches are
+   * released (<code>instanceIdleMillis</code>), and before its Bazel server is shut down
+   * (<code>serverIdleMillis</code>). A duration of 0 disables the corresponding release. The next
+   * call to {@link #getInstance(File)} creates a new instance from the persisted output of
+   * <code>bazel info</code>, without running Bazel. An instance with owners registered with its
+   * {@link IdeInfoResolver} is kept, only its caches are released.
+   */
+  public synchronized void setIdleTimeouts(long instanceIdleMillis, long serverIdleMillis) {
+    this.instanceIdleMillis = instanceIdleMillis;
+    this.serverIdleMillis = serverIdleMillis;
+    if (idleChecker == null && (instanceIdleMillis > 0 || serverIdleMillis > 0)) {
+      idleChecker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "Bazel idle workspaces");
+        thread.setDaemon(true);
+        return thread;
+      });
+      idleChecker.scheduleWithFixedDelay(this::releaseIdleWorkspaces, IDLE_CHECK_INTERVAL_MILLIS,
+          IDLE_CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Release all the {@link BazelInstance}-s and stop looking for idle workspaces. The Bazel
+   * servers are left running.
+   */
+  public void dispose() {
+    synchronized (this) {
+      if (idleChecker != null) {
+        idleChecker.shutdownNow();
+        idleChecker = null;
+      }
+    }
+    List<BazelInstance> disposed;
+    synchronized (instances) {
+      disposed = ImmutableList.copyOf(instances.values());
+      instances.clear();
+    }
+    for (BazelInstance instance : disposed) {
+      instance.dispose();
+    }
+  }
+
+  /**
+   * Unregister <code>owner</code> (e.g. a closed or deleted project) from the
+   * {@link IdeInfoResolver} of all the {@link BazelInstance}-s.
+   */
+  public void unregister(Object owner) {
+    List<BazelInstance> all;
+    synchronized (instances) {
+      all = ImmutableList.copyOf(instances.values());
+    }
+    for (BazelInstance instance : all) {
+      instance.getIdeInfoResolver().unregister(owner);
+    }
+  }
+
+  private void releaseIdleWorkspaces() {
+    for (File root : serverTracker.getIdle(serverIdleMillis)) {
+      evict(root);
+      try {
+        // Bazel waits for the running command, if any, before shutting down.
+        runBazelAndGetOuputLines(ConsoleType.NO_CONSOLE, root, ImmutableList.of("shutdown"));
+      } catch (IOException | BazelNotFoundException e) {
+        // Best effort, the server exits by itself with --max_idle_secs anyway.
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      serverTracker.remove(root);
+    }
+    for (File root : instanceTracker.getIdle(instanceIdleMillis)) {
+      evict(root);
+    }
+  }
+
+  // Release the instance of workspaceRoot. If projects are still registered with it, they hold the
+  // instance and would not see a new one, so only its caches are released.
+  private void evict(File workspaceRoot) {
+    BazelInstance instance;
+    synchronized (instances) {
+      instance = instances.get(workspaceRoot);
+    }
+    // The resolver is not locked while holding instances.
+    if (instance != null && instance.getIdeInfoResolver().hasRegistrations()) {
+      instanceTracker.remove(workspaceRoot);
+      instance.releaseCaches();
+      return;
+    }
+    synchronized (instances) {
+      if (instance != null && !instances.remove(workspaceRoot, instance)) {
+        return;
+      }
+    }
+    instanceTracker.remove(workspaceRoot);
+    if (instance != null) {
+      instance.dispose();
+    }
+  }
+
+  /**
+   * Enable or disable the capture of the build event stream of the builds, to report the
+   * per-target durations of each build to {@link BuildListener#buildReported}.
+   */
+  public void setBuildReportEnabled(boolean enabled) {
+    this.buildReportEnabled = enabled;
+  }
+
+  /**
+   * Add a listener to be notified of the builds run by all the {@link BazelInstance}-s.
+   */
+  public void addBuildListener(BuildListener listener) {
+    buildListeners.add(listener);
+  }
+
+  /**
+   * Remove a listener added with {@link #addBuildListener(BuildListener)}.
+   */
+  public void removeBuildListener(BuildListener listener) {
+    buildListeners.remove(listener);
+  }
+
   /**
    * Check the version of Bazel: throws an exception if the version is incorrect or the path does
    * not point to a Bazel binary.
@@ -136,18 +290,67 @@ public class BazelCommand {
    * Returns a {@link BazelInstance} for the given directory. It looks for the enclosing workspace
    * and returns the instance that correspond to it. If not in a workspace, returns null.
    *
+   * <p>
+   * The workspace is found by looking for its marker files. Bazel is only run the first time a
+   * workspace is seen, and not at all if the output of <code>bazel info</code> for the workspace
+   * was persisted by a previous session.
+   *
    * @throws BazelNotFoundException
    */
   public BazelInstance getInstance(File directory)
       throws IOException, InterruptedException, BazelNotFoundException {
-    File workspaceRoot = getWorkspaceRoot(directory);
+    // Bazel runs without any lock held, so that a cold Bazel server in one workspace does not
+    // block the callers of the other workspaces (e.g. the UI).
+    File workspaceRoot = workspaceRootFinder.find(directory);
     if (workspaceRoot == null) {
       return null;
     }
-    if (!instances.containsKey(workspaceRoot)) {
-      instances.put(workspaceRoot, new BazelInstance(workspaceRoot));
+    instanceTracker.touch(workspaceRoot);
+    serverTracker.touch(workspaceRoot);
+    synchronized (instances) {
+      BazelInstance instance = instances.get(workspaceRoot);
+      if (instance != null) {
+        return instance;
+      }
+    }
+    BazelInfo info = infoCache.get(workspaceRoot, new File(getBazelPath()));
+    if (info == null) {
+      return null;
+    }
+    synchronized (instances) {
+      BazelInstance instance = instances.get(workspaceRoot);
+      if (instance == null) {
+        instance = new BazelInstance(workspaceRoot, info);
+        instances.put(workspaceRoot, instance);
+      }
+      return instance;
+    }
+  }
+
+  // The key of the IDE build information cache: the targets (in any order) and the additional build
+  // flags.
+  private static final class IdeInfoKey {
+    private final ImmutableSortedSet<String> targets;
+    private final ImmutableList<String> flags;
+
+    private IdeInfoKey(Collection<String> targets, List<String> flags) {
+      this.targets = ImmutableSortedSet.copyOf(targets);
+      this.flags = ImmutableList.copyOf(flags);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof IdeInfoKey)) {
+        return false;
+      }
+      IdeInfoKey other = (IdeInfoKey) o;
+      return targets.equals(other.targets) && flags.equals(other.flags);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * targets.hashCode() + flags.hashCode();
     }
-    return instances.get(workspaceRoot);
   }
 
   /**
@@ -157,27 +360,98 @@ public class BazelCommand {
   public class BazelInstance {
     private final File workspaceRoot;
     private final File execRoot;
+    // Whether this version of Bazel can compute the IDE build information from the analysis phase.
+    private final boolean analysisSupported;
+
+    // Guarded by itself rather than by the instance, so that markAsDirty() never waits for Bazel.
+    private final Map<IdeInfoKey, ImmutableMap<String, IdeBuildInfo>> buildInfoCache =
+        new HashMap<>();
+    // Incremented by markAsDirty(), so that results computed before are not cached.
+    private long buildInfoGeneration = 0;
+    private final IdeInfoResolver ideInfoResolver = new IdeInfoResolver(this::getIdeInfo);
+    private final BuildCoordinator buildCoordinator = new BuildCoordinator(this::runBuild);
+    private final TargetCompletionIndex completionIndex;
+    private final PackageIndex packageIndex;
+    private final BuildFileScanner buildFileScanner = new BuildFileScanner();
+    private final TargetPatternExpander targetPatternExpander;
+    private final List<Consumer<ProgressParser.Progress>> progressListeners =
+        new CopyOnWriteArrayList<>();
+    private volatile boolean disposed = false;
+
+    private BazelInstance(File workspaceRoot, BazelInfo info) {
+      this.workspaceRoot = workspaceRoot;
+      this.execRoot = info.getExecutionRoot();
+      this.analysisSupported = IdeInfoQuery.isSupported(info.getRelease());
+      this.completionIndex = new TargetCompletionIndex(workspaceRoot, this::queryTargetNames);
+      this.packageIndex = new PackageIndex(workspaceRoot.toPath());
+      this.targetPatternExpander = new TargetPatternExpander(workspaceRoot, packageIndex,
+          buildFileScanner, pattern -> runBazel("query", pattern));
+    }
 
-    private final Map<String, ImmutableMap<String, IdeBuildInfo>> buildInfoCache = new HashMap<>();
-
-    private BazelInstance(File workspaceRoot)
+    // Returns the names of the targets of the package packageName, from its BUILD file if possible,
+    // or null if Bazel failed.
+    private List<String> queryTargetNames(String packageName)
         throws IOException, InterruptedException, BazelNotFoundException {
-      this.workspaceRoot = workspaceRoot;
-      this.execRoot = new File(String.join("", runBazel("info", "execution_root")));
+      if (packageName.startsWith("//") || packageName.startsWith("@//")) {
+        List<String> names = targetPatternExpander
+            .getTargetNames(packageName.substring(packageName.indexOf("//") + 2), true);
+        if (names != null) {
+          return names;
+        }
+      }
+      List<String> names = BazelCommand.this.runBazelAndGetOuputLines(ConsoleType.NO_CONSOLE,
+          workspaceRoot, ImmutableList.of("query", packageName + ":*"), line -> {
+            String s = line.substring(line.indexOf(':') + 1);
+            return s.isEmpty() ? null : s;
+          });
+      // A package has at least its BUILD file, so nothing means that the query failed.
+      return names.isEmpty() ? null : names;
+    }
+
+    /**
+     * Returns the labels of the rules that have <code>file</code> (relative to the workspace root)
+     * in their sources according to the BUILD file of its package, without running Bazel. Returns
+     * an empty list if they cannot be known that way.
+     */
+    public List<String> getOwners(String file) {
+      try {
+        return targetPatternExpander.getOwners(file);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return ImmutableList.of();
+      }
     }
 
     /**
      * Returns the list of targets present in the BUILD files for the given sub-directories.
      *
+     * <p>
+     * The targets are listed from the BUILD files when possible, Bazel is only run for the packages
+     * that cannot be read without evaluating them.
+     *
      * @throws BazelNotFoundException
      */
-    public synchronized List<String> listTargets(File... directories)
+    public List<String> listTargets(File... directories)
+        throws IOException, InterruptedException, BazelNotFoundException {
+      ImmutableList.Builder<String> builder = ImmutableList.builder();
+      listTargets(builder::addAll, directories);
+      return builder.build();
+    }
+
+    /**
+     * Lists the targets present in the BUILD files for the given sub-directories like
+     * {@link #listTargets(File...)}, passing them to <code>consumer</code> as they are found, so
+     * that the targets of large directories can be shown before all of them are known.
+     *
+     * @throws BazelNotFoundException
+     */
+    public void listTargets(Consumer<List<String>> consumer, File... directories)
         throws IOException, InterruptedException, BazelNotFoundException {
-      StringBuilder builder = new StringBuilder();
       for (File f : directories) {
-        builder.append(f.toURI().relativize(workspaceRoot.toURI()).getPath()).append("/... ");
+        String path = workspaceRoot.toPath().relativize(f.toPath()).toString()
+            .replace(File.separatorChar, '/');
+        targetPatternExpander.expand(path.isEmpty() ? "//..." : "//" + path + "/...", consumer);
       }
-      return runBazel("query", builder.toString());
     }
 
     private synchronized List<String> runBazel(String... args)
@@ -196,13 +470,39 @@ public class BazelCommand {
      *
      * @throws BazelNotFoundException
      */
-    private synchronized List<String> buildIdeInfo(Collection<String> targets)
+    private synchronized List<String> buildIdeInfo(Collection<String> targets, List<String> flags)
         throws IOException, InterruptedException, BazelNotFoundException {
       return BazelCommand.this.runBazelAndGetErrorLines(ConsoleType.WORKSPACE, workspaceRoot,
-          ImmutableList.<String>builder().add("build").addAll(aspectOptions).addAll(targets)
-              .build(),
+          ImmutableList.<String>builder().add("build").addAll(aspectOptions).addAll(flags)
+              .addAll(targets).build(),
           // Strip out the artifact list, keeping the e4b-build.json files.
-          t -> t.startsWith(">>>") ? (t.endsWith(".e4b-build.json") ? t.substring(3) : "") : null);
+          t -> t.startsWith(">>>") ? (t.endsWith(".e4b-build.json") ? t.substring(3) : "") : null,
+          newProgressParser());
+    }
+
+    /**
+     * Add a listener receiving the progress of the builds, tests and aspect runs of this workspace.
+     * The listener is called from the thread reading the output of Bazel.
+     */
+    public void addProgressListener(Consumer<ProgressParser.Progress> listener) {
+      progressListeners.add(listener);
+    }
+
+    /**
+     * Remove a listener added with {@link #addProgressListener(Consumer)}.
+     */
+    public void removeProgressListener(Consumer<ProgressParser.Progress> listener) {
+      progressListeners.remove(listener);
+    }
+
+    // Returns a listener for the standard error of a command, parsing the progress of the command.
+    private Consumer<String> newProgressParser() {
+      ProgressParser parser = new ProgressParser(progress -> {
+        for (Consumer<ProgressParser.Progress> listener : progressListeners) {
+          listener.accept(progress);
+        }
+      });
+      return parser::accept;
     }
 
     /**
@@ -216,13 +516,132 @@ public class BazelCommand {
      *
      * @throws BazelNotFoundException
      */
-    public synchronized Map<String, IdeBuildInfo> getIdeInfo(Collection<String> targets)
+    public Map<String, IdeBuildInfo> getIdeInfo(Collection<String> targets)
+        throws IOException, InterruptedException, BazelNotFoundException {
+      return getIdeInfo(targets, ImmutableList.of());
+    }
+
+    /**
+     * Runs the analysis of the given list of targets with the additional build <code>flags</code>
+     * (e.g. <code>--config=...</code>) using the IDE build information aspect, like
+     * {@link #getIdeInfo(Collection)}.
+     *
+     * <p>
+     * The results are cached per list of targets and flags, so the results for different
+     * configurations coexist in the cache.
+     *
+     * @throws BazelNotFoundException
+     */
+    public Map<String, IdeBuildInfo> getIdeInfo(Collection<String> targets, List<String> flags)
+        throws IOException, InterruptedException, BazelNotFoundException {
+      return getIdeInfo(targets, flags, null, false);
+    }
+
+    /**
+     * Runs the analysis of the given list of targets with the additional build <code>flags</code>
+     * using the IDE build information aspect, like {@link #getIdeInfo(Collection, List)}.
+     *
+     * <p>
+     * The targets are analyzed in shards of growing size, in the order of <code>targets</code>,
+     * after splitting the recursive patterns into one pattern per package.
+     * Unless it is null, <code>onShard</code> receives the IDE build information computed so far
+     * each time a shard completes, so it can be used before the whole list of targets is analyzed.
+     * If <code>analyzeFirst</code> is true, <code>onShard</code> also receives before the first
+     * shard the IDE build information obtained from the analysis phase only (see
+     * {@link #queryIdeInfo}), whose jars might not be built yet. This delays the build, so it is
+     * only worth it when no IDE build information was published yet.
+     *
+     * @throws BazelNotFoundException
+     */
+    public Map<String, IdeBuildInfo> getIdeInfo(Collection<String> targets,
+        List<String> flags, Consumer<Map<String, IdeBuildInfo>> onShard, boolean analyzeFirst)
+        throws IOException, InterruptedException, BazelNotFoundException {
+      IdeInfoKey key = new IdeInfoKey(targets, flags);
+      ImmutableMap<String, IdeBuildInfo> result;
+      long generation;
+      synchronized (buildInfoCache) {
+        result = buildInfoCache.get(key);
+        generation = buildInfoGeneration;
+      }
+      if (result == null) {
+        Map<String, IdeBuildInfo> analyzed = ImmutableMap.of();
+        if (onShard != null && analyzeFirst && analysisSupported && !targets.isEmpty()) {
+          analyzed = queryIdeInfo(targets, flags);
+          if (!analyzed.isEmpty()) {
+            onShard.accept(analyzed);
+          }
+        }
+        Map<String, IdeBuildInfo> infos = new LinkedHashMap<>();
+        ImmutableList<ImmutableList<String>> shards = TargetShards.split(
+            targetPatternExpander.splitPackages(ImmutableList.copyOf(targets)), FIRST_SHARD_SIZE);
+        for (int i = 0; i < shards.size(); i++) {
+          // Dependencies shared by several shards are reported by each of them.
+          for (Map.Entry<String, IdeBuildInfo> e : IdeBuildInfo
+              .getInfo(buildIdeInfo(shards.get(i), flags)).entrySet()) {
+            infos.putIfAbsent(e.getKey(), e.getValue());
+          }
+          if (onShard != null && i < shards.size() - 1) {
+            // The targets not analyzed yet keep the information from the analysis phase.
+            Map<String, IdeBuildInfo> partial = new LinkedHashMap<>(analyzed);
+            partial.putAll(infos);
+            onShard.accept(ImmutableMap.copyOf(partial));
+          }
+        }
+        result = ImmutableMap.copyOf(infos);
+        synchronized (buildInfoCache) {
+          if (generation == buildInfoGeneration) {
+            buildInfoCache.put(key, result);
+          }
+        }
+      }
+      return result;
+    }
+
+    /**
+     * Returns the IDE build information of the given list of targets computed from the analysis
+     * phase only, without building the jars (only with the versions of Bazel supported by
+     * {@link IdeInfoQuery#isSupported}). Returns an empty map if the query fails.
+     *
+     * <p>
+     * The analysis uses the same options as the aspect build so that it doesn't discard the
+     * analysis cache of the server and the build that follows reuses it.
+     *
+     * @throws BazelNotFoundException
+     */
+    private synchronized ImmutableMap<String, IdeBuildInfo> queryIdeInfo(
+        Collection<String> targets, List<String> flags)
         throws IOException, InterruptedException, BazelNotFoundException {
-      String key = NEW_LINE_JOINER.join(targets);
-      if (!buildInfoCache.containsKey(key)) {
-        buildInfoCache.put(key, IdeBuildInfo.getInfo(buildIdeInfo(targets)));
+      List<String> jars = BazelCommand.this.runBazelAndGetOuputLines(ConsoleType.NO_CONSOLE,
+          workspaceRoot, IdeInfoQuery.getCqueryArguments(targets,
+              ImmutableList.<String>builder().addAll(aspectOptions).addAll(flags).build(),
+              aspectLocation.getWorkspaceDirectory()));
+      if (jars.isEmpty()) {
+        return ImmutableMap.of();
+      }
+      List<String> rules = BazelCommand.this.runBazelAndGetOuputLines(ConsoleType.NO_CONSOLE,
+          workspaceRoot, IdeInfoQuery.getQueryArguments(targets));
+      if (rules.isEmpty()) {
+        return ImmutableMap.of();
+      }
+      try {
+        return IdeInfoQuery.parse(String.join("\n", rules), jars, workspaceRoot);
+      } catch (IOException e) {
+        // The aspect will give the information anyway.
+        return ImmutableMap.of();
       }
-      return buildInfoCache.get(key);
+    }
+
+    // The index of the packages of the workspace, crawled on first use.
+    PackageIndex getPackageIndex() {
+      return packageIndex;
+    }
+
+    /**
+     * Returns the {@link IdeInfoResolver} that shares the computation of the IDE build information
+     * between all the projects using this workspace.
+     */
+    public IdeInfoResolver getIdeInfoResolver() {
+      return ideInfoResolver;
     }
 
     /**
@@ -233,30 +652,119 @@ public class BazelCommand {
      * This function totally clear the cache and that might leads to useless rebuilds when several
      * eclipse project points to the same workspace but that is a rare case.
      */
-    public synchronized void markAsDirty() {
-      buildInfoCache.clear();
+    public void markAsDirty() {
+      synchronized (buildInfoCache) {
+        buildInfoGeneration++;
+        buildInfoCache.clear();
+      }
+      ideInfoResolver.invalidate();
+    }
+
+    /**
+     * Returns true if this instance was released because its workspace was idle. The instance
+     * still works, but {@link BazelCommand#getInstance(File)} returns a new instance.
+     */
+    public boolean isDisposed() {
+      return disposed;
+    }
+
+    // Releases the caches and the watch of the workspace.
+    private void dispose() {
+      disposed = true;
+      packageIndex.close();
+      releaseCaches();
+    }
+
+    // Release the caches of this instance, computed again on demand. The registrations of the
+    // IdeInfoResolver and its last results (also held by the classpath of the projects) are kept.
+    private void releaseCaches() {
+      packageIndex.release();
+      completionIndex.clear();
+      buildFileScanner.clear();
+      markAsDirty();
     }
 
     /**
      * Build a list of targets in the current workspace.
      *
      * @throws BazelNotFoundException
+     * @see #build(List, List)
      */
-    public synchronized int build(List<String> targets, String... extraArgs)
+    public int build(List<String> targets, String... extraArgs)
         throws IOException, InterruptedException, BazelNotFoundException {
-      return BazelCommand.this.runBazel(workspaceRoot, ImmutableList.<String>builder().add("build")
-          .addAll(buildOptions).add(extraArgs).add("--").addAll(targets).build());
+      return build(targets, ImmutableList.copyOf(extraArgs));
     }
 
     /**
      * Build a list of targets in the current workspace.
      *
+     * <p>
+     * Builds requested while another build is running are merged into one build of all their
+     * targets, and a build whose targets overlap the running build cancels it. The returned exit
+     * code is the one of the build that built <code>targets</code>.
+     *
      * @throws BazelNotFoundException
      */
-    public synchronized int build(List<String> targets, List<String> extraArgs)
+    public int build(List<String> targets, List<String> extraArgs)
         throws IOException, InterruptedException, BazelNotFoundException {
-      return BazelCommand.this.runBazel(workspaceRoot, ImmutableList.<String>builder().add("build")
-          .addAll(buildOptions).addAll(extraArgs).add("--").addAll(targets).build());
+      return buildCoordinator.build(targets, extraArgs);
+    }
+
+    // Run the build for the coordinator, notifying the build listeners.
+    private int runBuild(List<String> targets, List<String> extraArgs, Consumer<Command> onStart)
+        throws IOException, InterruptedException, BazelNotFoundException {
+      Command[] started = new Command[1];
+      for (BuildListener listener : buildListeners) {
+        listener.buildStarted(this, targets);
+      }
+      int result = -1;
+      Consumer<String> progressParser = newProgressParser();
+      ImmutableList.Builder<String> args =
+          ImmutableList.<String>builder().add("build").addAll(buildOptions);
+      File buildEvents = null;
+      if (buildReportEnabled) {
+        buildEvents = File.createTempFile("e4b-build-events", ".json");
+        args.add("--build_event_json_file=" + buildEvents.getAbsolutePath(),
+            "--build_event_publish_all_actions");
+      }
+      args.addAll(extraArgs).add("--").addAll(targets);
+      try {
+        result = BazelCommand.this.runCancellableBazel(ConsoleType.WORKSPACE, workspaceRoot,
+            args.build(),
+            command -> {
+              started[0] = command;
+              onStart.accept(command);
+            }, line -> {
+              progressParser.accept(line);
+              for (BuildListener listener : buildListeners) {
+                listener.buildErrorLine(this, line);
+              }
+            });
+      } finally {
+        boolean cancelled = started[0] == null || started[0].isCancelled();
+        for (BuildListener listener : buildListeners) {
+          listener.buildFinished(this, result, cancelled);
+        }
+        if (buildEvents != null) {
+          reportBuild(buildEvents, cancelled);
+        }
+      }
+      return result;
+    }
+
+    private void reportBuild(File buildEvents, boolean cancelled) {
+      try {
+        if (!cancelled && buildEvents.length() > 0) {
+          BuildReport report = BuildReport.parse(buildEvents);
+          for (BuildListener listener : buildListeners) {
+            listener.buildReported(this, report);
+          }
+        }
+      } catch (IOException e) {
+        // The report is only informative, do not fail the build for it.
+      } finally {
+        buildEvents.delete();
+      }
     }
 
     /**
@@ -267,7 +775,8 @@ public class BazelCommand {
     public synchronized int tests(List<String> targets, String... extraArgs)
         throws IOException, InterruptedException, BazelNotFoundException {
       return BazelCommand.this.runBazel(workspaceRoot, ImmutableList.<String>builder().add("test")
-          .addAll(buildOptions).add(extraArgs).add("--").addAll(targets).build());
+          .addAll(buildOptions).add(extraArgs).add("--").addAll(targets).build(),
+          newProgressParser());
     }
 
     /**
@@ -284,6 +793,16 @@ public class BazelCommand {
       return execRoot;
     }
 
+    /**
+     * Returns the output of <code>bazel info</code> for the current workspace. It is only computed
+     * again if the Bazel binary or the options of Bazel changed since it was last computed.
+     *
+     * @throws BazelNotFoundException
+     */
+    public BazelInfo getInfo() throws IOException, InterruptedException, BazelNotFoundException {
+      return infoCache.get(workspaceRoot, new File(getBazelPath()));
+    }
+
     /**
      * Gives a list of target completions for the given beginning string. The result is the list of
      * possible completion for a target pattern starting with string.
@@ -295,19 +814,14 @@ public class BazelCommand {
       if (string.equals("/") || string.isEmpty()) {
         return ImmutableList.of("//");
       } else if (string.contains(":")) {
-        // complete targets using `bazel query`
+        // complete targets using the index, filled with `bazel query`
         int idx = string.indexOf(':');
         final String packageName = string.substring(0, idx);
         final String targetPrefix = string.substring(idx + 1);
         ImmutableList.Builder<String> builder = ImmutableList.builder();
-        builder.addAll(
-            BazelCommand.this.runBazelAndGetOuputLines(ConsoleType.NO_CONSOLE, workspaceRoot,
-                ImmutableList.<String>builder().add("query", packageName + ":*").build(), line -> {
-                  int i = line.indexOf(':');
-                  String s = line.substring(i + 1);
-                  return !s.isEmpty() && s.startsWith(targetPrefix) ? (packageName + ":" + s)
-                      : null;
-                }));
+        for (String name : completionIndex.complete(packageName, targetPrefix)) {
+          builder.add(packageName + ":" + name);
+        }
         if ("all".startsWith(targetPrefix)) {
           builder.add(packageName + ":all");
         }
@@ -322,21 +836,14 @@ public class BazelCommand {
         final String suffix = lastSlash > 0 ? string.substring(lastSlash + 1) : string;
         final String directory = (prefix.isEmpty() || prefix.equals("//")) ? ""
             : prefix.substring(string.startsWith("//") ? 2 : 0, prefix.length() - 1);
-        File file = directory.isEmpty() ? workspaceRoot : new File(workspaceRoot, directory);
         ImmutableList.Builder<String> builder = ImmutableList.builder();
-        File[] files = file.listFiles((f) -> {
-          // Only give directories whose name starts with suffix...
-          return f.getName().startsWith(suffix) && f.isDirectory()
-          // ...that does not start with '.'...
-              && !f.getName().startsWith(".")
-          // ...and is not a Bazel convenience link
-              && (!file.equals(workspaceRoot) || !f.getName().startsWith("bazel-"));
-        });
-        if (files != null) {
-          for (File d : files) {
-            builder.add(prefix + d.getName() + "/");
-            if (new File(d, "BUILD").exists()) {
-              builder.add(prefix + d.getName() + ":");
+        // The index skips the Bazel convenience links.
+        for (String name : packageIndex.getSubdirectories(directory)) {
+          // Only give directories whose name starts with suffix and does not start with '.'
+          if (name.startsWith(suffix) && !name.startsWith(".")) {
+            builder.add(prefix + name + "/");
+            if (packageIndex.isPackage(directory.isEmpty() ? name : directory + "/" + name)) {
+              builder.add(prefix + name + ":");
             }
           }
         }
@@ -348,14 +855,10 @@ public class BazelCommand {
     }
   }
 
-  private File getWorkspaceRoot(File directory)
+  private File queryWorkspaceRoot(File directory)
       throws IOException, InterruptedException, BazelNotFoundException {
-    List<String> result = runBazelAndGetOuputLines(ConsoleType.SYSTEM, directory,
-        ImmutableList.of("info", "workspace"));
-    if (result.size() > 0) {
-      return new File(result.get(0));
-    }
-    return null;
+    BazelInfo info = infoCache.get(directory, new File(getBazelPath()));
+    return info == null ? null : info.getWorkspace();
   }
 
   private List<String> runBazelAndGetOuputLines(ConsoleType type, File directory, List<String> args)
@@ -363,41 +866,77 @@ public class BazelCommand {
     return runBazelAndGetOuputLines(type, directory, args, (t) -> t);
   }
 
-  private synchronized List<String> runBazelAndGetOuputLines(ConsoleType type, File directory,
+  private List<String> runBazelAndGetOuputLines(ConsoleType type, File directory,
       List<String> args, Function<String, String> selector)
       throws IOException, InterruptedException, BazelNotFoundException {
     Command command = Command.builder(consoleFactory)
         .setConsoleName(getConsoleName(type, directory)).setDirectory(directory)
         .addArguments(getBazelPath()).addArguments(args).setStdoutLineSelector(selector).build();
-    if (command.run() == 0) {
+    if (run(command, directory) == 0) {
       return command.getSelectedOutputLines();
     }
     return ImmutableList.of();
   }
 
-  private synchronized List<String> runBazelAndGetErrorLines(ConsoleType type, File directory,
-      List<String> args, Function<String, String> selector)
+  private List<String> runBazelAndGetErrorLines(ConsoleType type, File directory,
+      List<String> args, Function<String, String> selector, Consumer<String> stderrListener)
       throws IOException, InterruptedException, BazelNotFoundException {
     Command command = Command.builder(consoleFactory)
         .setConsoleName(getConsoleName(type, directory)).setDirectory(directory)
-        .addArguments(getBazelPath()).addArguments(args).setStderrLineSelector(selector).build();
-    if (command.run() == 0) {
+        .addArguments(getBazelPath()).addArguments(args).setStderrLineSelector(selector)
+        .setStderrLineListener(stderrListener).build();
+    if (run(command, directory) == 0) {
       return command.getSelectedErrorLines();
     }
     return ImmutableList.of();
   }
 
-  private synchronized int runBazel(ConsoleType type, File directory, List<String> args,
-      OutputStream stdout, OutputStream stderr)
+  // The runBazel* methods are not synchronized so that commands on different workspaces can run in
+  // parallel. Commands on the same workspace are serialized by the Bazel server.
+  private int runBazel(ConsoleType type, File directory, List<String> args,
+      OutputStream stdout, OutputStream stderr, Consumer<String> stderrListener)
       throws IOException, InterruptedException, BazelNotFoundException {
-    return Command.builder(consoleFactory).setConsoleName(getConsoleName(type, directory))
+    return run(Command.builder(consoleFactory).setConsoleName(getConsoleName(type, directory))
         .setDirectory(directory).addArguments(getBazelPath()).addArguments(args)
-        .setStandardOutput(stdout).setStandardError(stderr).build().run();
+        .setStandardOutput(stdout).setStandardError(stderr).setStderrLineListener(stderrListener)
+        .build(), directory);
+  }
+
+  private int runCancellableBazel(ConsoleType type, File directory, List<String> args,
+      Consumer<Command> onStart, Consumer<String> stderrListener)
+      throws IOException, InterruptedException, BazelNotFoundException {
+    Command command = Command.builder(consoleFactory)
+        .setConsoleName(getConsoleName(type, directory)).setDirectory(directory)
+        .addArguments(getBazelPath()).addArguments(args).setStderrLineListener(stderrListener)
+        .build();
+    onStart.accept(command);
+    return run(command, directory);
+  }
+
+  // Records the use of the workspace, which is never released while a command runs in it. Only the
+  // commands of the instances, which run in the workspace root, are recorded: the other directories
+  // (e.g. the candidates of WorkspaceRootFinder) are not workspace roots.
+  private int run(Command command, File directory) throws IOException, InterruptedException {
+    boolean tracked;
+    synchronized (instances) {
+      tracked = instances.containsKey(directory);
+    }
+    if (!tracked) {
+      return command.run();
+    }
+    instanceTracker.begin(directory);
+    serverTracker.begin(directory);
+    try {
+      return command.run();
+    } finally {
+      instanceTracker.end(directory);
+      serverTracker.end(directory);
+    }
   }
 
-  private int runBazel(File directory, List<String> args)
+  private int runBazel(File directory, List<String> args, Consumer<String> stderrListener)
       throws IOException, InterruptedException, BazelNotFoundException {
-    return runBazel(ConsoleType.WORKSPACE, directory, args, null, null);
+    return runBazel(ConsoleType.WORKSPACE, directory, args, null, null, stderrListener);
   }
 
   private String getConsoleName(ConsoleType type, File directory) {
@@ -0,0 +1,89 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.command;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * A snapshot of the output of <code>bazel info</code> for a workspace, e.g. the workspace root, the
+ * execution root, the output base, the output directories and the release of Bazel.
+ */
+public final class BazelInfo {
+
+  private final ImmutableMap<String, String> values;
+
+  BazelInfo(Map<String, String> values) {
+    this.values = ImmutableMap.copyOf(values);
+  }
+
+  /**
+   * Parse the output of <code>bazel info</code>, made of <code>key: value</code> lines.
+   */
+  static BazelInfo parse(List<String> lines) {
+    Map<String, String> values = new LinkedHashMap<>();
+    for (String line : lines) {
+      int idx = line.indexOf(": ");
+      if (idx > 0) {
+        values.put(line.substring(0, idx).trim(), line.substring(idx + 2).trim());
+      }
+    }
+    return new BazelInfo(values);
+  }
+
+  /** Returns all the values, by key. */
+  public ImmutableMap<String, String> getValues() {
+    return values;
+  }
+
+  /** Returns the value of <code>key</code>, or null if Bazel did not report it. */
+  public String get(String key) {
+    return values.get(key);
+  }
+
+  /** Returns the root of the workspace, or null if unknown. */
+  public File getWorkspace() {
+    return getFile("workspace");
+  }
+
+  /** Returns the execution root of the workspace, or null if unknown. */
+  public File getExecutionRoot() {
+    return getFile("execution_root");
+  }
+
+  /** Returns the output base of the workspace, or null if unknown. */
+  public File getOutputBase() {
+    return getFile("output_base");
+  }
+
+  /** Returns the directory of the outputs of the build (<code>bazel-bin</code>), or null. */
+  public File getBazelBin() {
+    return getFile("bazel-bin");
+  }
+
+  /** Returns the release of Bazel (e.g. "release 7.1.0"), or null if unknown. */
+  public String getRelease() {
+    return values.get("release");
+  }
+
+  private File getFile(String key) {
+    String value = values.get(key);
+    return value == null || value.isEmpty() ? null : new File(value);
+  }
+}
@@ -0,0 +1,264 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.command;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * The {@link BazelInfo} of the workspaces, computed by a single <code>bazel info</code> per
+ * workspace and persisted in a cache directory, so that a workspace seen in a previous session
+ * does not need to run Bazel.
+ *
+ * <p>
+ * Each snapshot is stored with a fingerprint of what determines it: the Bazel binary (its path,
+ * size and modification time), the content of the files holding the options and the version
+ * of Bazel ({@code .bazelrc}, {@code .bazelversion} and {@code tools/bazel} of the workspace, the
+ * user and the system {@code bazelrc}, and the files they import) and the environment variables
+ * read by the Bazel launchers (e.g. {@code USE_BAZEL_VERSION}). The snapshot is computed again the
+ * first time it is used after the fingerprint changed.
+ *
+ * <p>
+ * Workspaces are identified by their real path, so that a workspace reached through a symbolic link
+ * shares the snapshot of its target. Only the lookups of the same workspace wait for each other.
+ */
+final class BazelInfoCache {
+
+  /** The function running <code>bazel info</code> in a directory. */
+  interface Loader {
+    List<String> info(File directory)
+        throws IOException, InterruptedException, BazelNotFoundException;
+  }
+
+  private static final ImmutableList<String> WORKSPACE_FILES =
+      ImmutableList.of(".bazelrc", ".bazelversion", "tools/bazel");
+  private static final ImmutableList<File> GLOBAL_FILES = ImmutableList.of(
+      new File(System.getProperty("user.home"), ".bazelrc"), new File("/etc/bazel.bazelrc"));
+  // The variables selecting the Bazel binary run by Bazelisk and the tools/bazel wrapper.
+  private static final ImmutableList<String> ENVIRONMENT = ImmutableList.of("USE_BAZEL_VERSION",
+      "BAZELISK_BASE_URL", "BAZELISK_HOME", "BAZELISK_SKIP_WRAPPER", "BAZEL_REAL");
+
+  private static final class Entry {
+    private final String fingerprint;
+    private final BazelInfo info;
+
+    private Entry(String fingerprint, BazelInfo info) {
+      this.fingerprint = fingerprint;
+      this.info = info;
+    }
+  }
+
+  private final Loader loader;
+  private final ImmutableList<File> globalFiles;
+  private final ImmutableMap<String, String> environment;
+  private final Map<File, Entry> entries = new ConcurrentHashMap<>();
+  // The lock of each workspace, held while its snapshot is computed.
+  private final Map<File, Object> locks = new ConcurrentHashMap<>();
+  private volatile File directory = null;
+
+  BazelInfoCache(Loader loader) {
+    this(loader, GLOBAL_FILES);
+  }
+
+  BazelInfoCache(Loader loader, List<File> globalFiles) {
+    this(loader, globalFiles, System.getenv());
+  }
+
+  BazelInfoCache(Loader loader, List<File> globalFiles, Map<String, String> environment) {
+    this.loader = loader;
+    this.globalFiles = ImmutableList.copyOf(globalFiles);
+    this.environment = ImmutableMap.copyOf(environment);
+  }
+
+  /**
+   * Set the directory where the snapshots are persisted, or null to only keep them in memory.
+   */
+  void setDirectory(File directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * Returns the snapshot of the workspace at <code>workspace</code> for the Bazel binary
+   * <code>bazel</code>, running <code>bazel info</code> if there is no valid snapshot. Returns
+   * null if Bazel does not report a workspace for <code>workspace</code>.
+   *
+   * @throws BazelNotFoundException
+   */
+  BazelInfo get(File workspace, File bazel)
+      throws IOException, InterruptedException, BazelNotFoundException {
+    File key = getKey(workspace);
+    synchronized (locks.computeIfAbsent(key, k -> new Object())) {
+      String fingerprint = getFingerprint(key, bazel);
+      Entry entry = entries.get(key);
+      if (entry == null || !entry.fingerprint.equals(fingerprint)) {
+        BazelInfo info = read(key, fingerprint);
+        if (info == null) {
+          info = BazelInfo.parse(loader.info(workspace));
+          if (info.getWorkspace() == null) {
+            return null;
+          }
+          write(key, fingerprint, info);
+          // The workspace reported by Bazel (e.g. for a nested directory) is looked up next.
+          File root = getKey(info.getWorkspace());
+          if (!root.equals(key)) {
+            String rootFingerprint = getFingerprint(root, bazel);
+            entries.put(root, new Entry(rootFingerprint, info));
+            write(root, rootFingerprint, info);
+          }
+        }
+        entry = new Entry(fingerprint, info);
+        entries.put(key, entry);
+      }
+      return entry.info;
+    }
+  }
+
+  private static File getKey(File workspace) {
+    try {
+      return workspace.toPath().toRealPath().toFile();
+    } catch (IOException e) {
+      return workspace.getAbsoluteFile();
+    }
+  }
+
+  private String getFingerprint(File workspace, File bazel) throws IOException {
+    Hasher hasher = Hashing.sha256().newHasher();
+    hasher.putString(workspace.getAbsolutePath(), StandardCharsets.UTF_8).putByte((byte) 0);
+    hasher.putString(bazel.getAbsolutePath(), StandardCharsets.UTF_8).putByte((byte) 0)
+        .putLong(bazel.length()).putLong(bazel.lastModified());
+    Set<File> visited = new HashSet<>();
+    for (String name : WORKSPACE_FILES) {
+      File file = new File(workspace, name);
+      putFile(hasher, workspace, file, name.equals(".bazelrc") ? visited : null);
+    }
+    for (File file : globalFiles) {
+      putFile(hasher, workspace, file, visited);
+    }
+    for (String name : ENVIRONMENT) {
+      String value = environment.get(name);
+      hasher.putString(name, StandardCharsets.UTF_8).putByte((byte) 0);
+      if (value != null) {
+        hasher.putString(value, StandardCharsets.UTF_8).putByte((byte) 0);
+      } else {
+        hasher.putByte((byte) 1);
+      }
+    }
+    return hasher.hash().toString();
+  }
+
+  /**
+   * Hashes <code>file</code> and, if <code>visited</code> is not null (i.e. it is a bazelrc), the
+   * files it imports that were not visited yet.
+   */
+  private static void putFile(Hasher hasher, File workspace, File file, Set<File> visited)
+      throws IOException {
+    hasher.putString(file.getPath(), StandardCharsets.UTF_8).putByte((byte) 0);
+    if (!file.isFile()) {
+      hasher.putInt(-1);
+      return;
+    }
+    byte[] content = Files.readAllBytes(file.toPath());
+    hasher.putInt(content.length).putBytes(content);
+    if (visited == null || !visited.add(file.getAbsoluteFile())) {
+      return;
+    }
+    for (String line : new String(content, StandardCharsets.UTF_8).split("\\r?\\n")) {
+      String[] words = line.trim().split("\\s+", 2);
+      if (words.length == 2 && (words[0].equals("import") || words[0].equals("try-import"))) {
+        String path = words[1].trim().replace("%workspace%", workspace.getPath());
+        File imported = new File(path);
+        if (!imported.isAbsolute()) {
+          imported = new File(file.getParentFile(), path);
+        }
+        putFile(hasher, workspace, imported, visited);
+      }
+    }
+  }
+
+  private File getFile(File workspace) {
+    if (directory == null) {
+      return null;
+    }
+    String name = Hashing.sha256()
+        .hashString(workspace.getAbsolutePath(), StandardCharsets.UTF_8).toString();
+    return new File(directory, name + ".json");
+  }
+
+  private BazelInfo read(File workspace, String fingerprint) {
+    File file = getFile(workspace);
+    if (file == null || !file.isFile()) {
+      return null;
+    }
+    try {
+      JSONObject object =
+          new JSONObject(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+      if (!fingerprint.equals(object.optString("fingerprint", ""))
+          || !workspace.getAbsolutePath().equals(object.optString("workspace", ""))) {
+        return null;
+      }
+      JSONObject info = object.getJSONObject("info");
+      Map<String, String> values = new LinkedHashMap<>();
+      for (String key : info.keySet()) {
+        values.put(key, info.getString(key));
+      }
+      return new BazelInfo(values);
+    } catch (IOException | JSONException e) {
+      // Computed again.
+      return null;
+    }
+  }
+
+  private void write(File workspace, String fingerprint, BazelInfo info) {
+    File file = getFile(workspace);
+    if (file == null) {
+      return;
+    }
+    JSONObject object = new JSONObject();
+    object.put("workspace", workspace.getAbsolutePath());
+    object.put("fingerprint", fingerprint);
+    JSONObject values = new JSONObject();
+    for (Map.Entry<String, String> e : info.getValues().entrySet()) {
+      values.put(e.getKey(), e.getValue());
+    }
+    object.put("info", values);
+    try {
+      // Write atomically so that another Eclipse instance never reads a truncated snapshot.
+      file.getParentFile().mkdirs();
+      File tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+      Files.write(tmp.toPath(), object.toString().getBytes(StandardCharsets.UTF_8));
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      // Only kept in memory.
+    }
+  }
+}
@@ -0,0 +1,240 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.command;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Coordinates the build requests sent to a Bazel workspace.
+ *
+ * <p>
+ * Requests arriving while a build is running are merged into a single pending build of the union of
+ * their targets. A request whose targets overlap the targets of the running build supersedes it:
+ * the running build is cancelled and its targets are merged into the pending build. Each request
+ * returns the exit code of the build that covered its targets, so that the time spent building
+ * depends on the last request rather than on the number of requests.
+ *
+ * <p>
+ * Only requests with the same extra arguments are merged.
+ */
+final class BuildCoordinator {
+
+  /** The function actually running a build. */
+  interface Runner {
+    /**
+     * Build <code>targets</code> with <code>extraArgs</code> and returns the exit code of Bazel. The
+     * {@link Command} running the build should be passed to <code>onStart</code> before being run,
+     * so the build can be cancelled.
+     */
+    int run(List<String> targets, List<String> extraArgs, Consumer<Command> onStart)
+        throws IOException, InterruptedException, BazelNotFoundException;
+  }
+
+  private static final class Batch {
+    private final List<String> extraArgs;
+    private final Set<String> targets = new LinkedHashSet<>();
+
+    // The number of requests waiting for this batch.
+    private int waiters = 0;
+    private Command command = null;
+    private boolean cancelled = false;
+    private Batch supersededBy = null;
+
+    private boolean done = false;
+    private int result;
+    private Exception exception = null;
+
+    Batch(List<String> extraArgs) {
+      this.extraArgs = extraArgs;
+    }
+  }
+
+  private final Runner runner;
+  private final Deque<Batch> pending = new ArrayDeque<>();
+  private Batch running = null;
+
+  BuildCoordinator(Runner runner) {
+    this.runner = runner;
+  }
+
+  /**
+   * Build <code>targets</code> with <code>extraArgs</code>, possibly merged with other requests.
+   * Returns the exit code of the build that built <code>targets</code>.
+   *
+   * @throws BazelNotFoundException
+   */
+  int build(Collection<String> targets, List<String> extraArgs)
+      throws IOException, InterruptedException, BazelNotFoundException {
+    Batch batch;
+    synchronized (this) {
+      if (running != null && running.extraArgs.equals(extraArgs)
+          && !Collections.disjoint(running.targets, targets)) {
+        cancel(running);
+      }
+      batch = getPendingBatch(extraArgs, false);
+      batch.targets.addAll(targets);
+      batch.waiters++;
+    }
+    try {
+      while (true) {
+        Batch next;
+        synchronized (this) {
+          while (true) {
+            while (batch.supersededBy != null) {
+              batch = batch.supersededBy;
+            }
+            if (batch.done) {
+              return getResult(batch);
+            }
+            // Any waiting request can run the next pending build, not only the requests of that
+            // build, so that the queue does not stall if a requesting thread is interrupted.
+            if (running == null && !pending.isEmpty()) {
+              next = pending.removeFirst();
+              running = next;
+              break;
+            }
+            wait();
+          }
+        }
+        run(next, next == batch);
+      }
+    } finally {
+      synchronized (this) {
+        while (batch.supersededBy != null) {
+          batch = batch.supersededBy;
+        }
+        leave(batch);
+      }
+    }
+  }
+
+  // Records that a request stopped waiting for batch. A batch that no request waits for anymore is
+  // not built: e.g. its only request was interrupted because the user canceled it.
+  private void leave(Batch batch) {
+    batch.waiters--;
+    if (batch.waiters == 0 && !batch.done) {
+      if (running == batch) {
+        cancel(batch);
+      } else {
+        pending.remove(batch);
+      }
+    }
+  }
+
+  // Runs batch in the calling thread, own being true if the request of that thread waits for batch.
+  // If that thread is interrupted, the interruption is thrown to it only: the batch is queued again
+  // for the other requests waiting for it, if any.
+  private void run(Batch batch, boolean own) throws InterruptedException {
+    int result = -1;
+    Exception exception = null;
+    InterruptedException interrupted = null;
+    try {
+      result = runner.run(ImmutableList.copyOf(batch.targets), batch.extraArgs, command -> {
+        synchronized (BuildCoordinator.this) {
+          batch.command = command;
+          if (batch.cancelled) {
+            command.cancel();
+          }
+        }
+      });
+    } catch (InterruptedException e) {
+      interrupted = e;
+    } catch (IOException | BazelNotFoundException | RuntimeException e) {
+      exception = e;
+    } finally {
+      synchronized (this) {
+        running = null;
+        // The request of an interrupted thread does not wait for the batch anymore.
+        int remaining = batch.waiters - (own && interrupted != null ? 1 : 0);
+        if ((batch.cancelled || interrupted != null) && remaining > 0) {
+          // Build again the targets of the cancelled or interrupted build, as soon as possible.
+          Batch next = getPendingBatch(batch.extraArgs, true);
+          next.targets.addAll(batch.targets);
+          next.waiters += batch.waiters;
+          batch.supersededBy = next;
+        } else {
+          batch.done = true;
+          batch.result = result;
+          batch.exception = exception;
+        }
+        notifyAll();
+      }
+    }
+    if (interrupted != null) {
+      throw interrupted;
+    }
+  }
+
+  // Returns the pending batch for extraArgs, creating it (first or last) if none exists.
+  private Batch getPendingBatch(List<String> extraArgs, boolean first) {
+    for (Batch b : pending) {
+      if (b.extraArgs.equals(extraArgs)) {
+        return b;
+      }
+    }
+    Batch b = new Batch(ImmutableList.copyOf(extraArgs));
+    if (first) {
+      pending.addFirst(b);
+    } else {
+      pending.addLast(b);
+    }
+    return b;
+  }
+
+  private void cancel(Batch batch) {
+    batch.cancelled = true;
+    if (batch.command != null) {
+      batch.command.cancel();
+    }
+  }
+
+  private static int getResult(Batch batch)
+      throws IOException, InterruptedException, BazelNotFoundException {
+    if (batch.exception instanceof IOException) {
+      throw (IOException) batch.exception;
+    } else if (batch.exception instanceof InterruptedException) {
+      throw (InterruptedException) batch.exception;
+    } else if (batch.exception instanceof BazelNotFoundException) {
+      throw (BazelNotFoundException) batch.exception;
+    } else if (batch.exception instanceof RuntimeException) {
+      throw (RuntimeException) batch.exception;
+    }
+    return batch.result;
+  }
+
+  /**
+   * Returns the targets waiting for the running build to finish.
+   */
+  @VisibleForTesting
+  synchronized ImmutableSet<String> getPendingTargets() {
+    ImmutableSet.Builder<String> builder = ImmutableSet.builder();
+    for (Batch b : pending) {
+      builder.addAll(b.targets);
+    }
+    return builder.build();
+  }
+}
@@ -0,0 +1,587 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.command;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+/**
+ * A scanner for the subset of Starlark used in most BUILD files: top-level rule calls with a
+ * literal <code>name</code> and a list of literal <code>srcs</code>. It tells the targets of a
+ * package without running Bazel.
+ *
+ * <p>
+ * Constructs the scanner cannot evaluate (functions, loops, conditionals, rules without a literal
+ * name, macros loaded from extensions) make the result incomplete: Bazel should then be asked for
+ * the targets of the package. The results are cached by content digest, so a BUILD file that is
+ * touched or checked out again with the same content is not scanned again.
+ */
+final class BuildFileScanner {
+
+  /** A rule call of a BUILD file. */
+  static final class Rule {
+    private final String kind;
+    private final String name;
+    private final ImmutableList<String> srcs;
+    private final ImmutableList<String> globs;
+    private final ImmutableList<String> excludes;
+    private final boolean srcsKnown;
+    private volatile Pattern globPattern;
+    private volatile Pattern excludePattern;
+
+    private Rule(String kind, String name, ImmutableList<String> srcs, ImmutableList<String> globs,
+        ImmutableList<String> excludes, boolean srcsKnown) {
+      this.kind = kind;
+      this.name = name;
+      this.srcs = srcs;
+      this.globs = globs;
+      this.excludes = excludes;
+      this.srcsKnown = srcsKnown;
+    }
+
+    /** Returns the kind of the rule (the name of the function called), e.g. java_library. */
+    String getKind() {
+      return kind;
+    }
+
+    /** Returns the name of the rule. */
+    String getName() {
+      return name;
+    }
+
+    /** Returns the literal elements of the srcs attribute, files or labels. */
+    ImmutableList<String> getSrcs() {
+      return srcs;
+    }
+
+    /** Returns the include patterns of the globs of the srcs attribute. */
+    ImmutableList<String> getGlobs() {
+      return globs;
+    }
+
+    /** Returns the exclude patterns of the globs of the srcs attribute. */
+    ImmutableList<String> getExcludes() {
+      return excludes;
+    }
+
+    /**
+     * Returns false if the srcs attribute uses something else than literal lists and globs, e.g. a
+     * variable or a select().
+     */
+    boolean isSrcsKnown() {
+      return srcsKnown;
+    }
+
+    /**
+     * Returns true if the file <code>path</code> (relative to the package) is one of the sources of
+     * the rule, literally or through a glob.
+     */
+    boolean hasSource(String path) {
+      if (srcs.contains(path)) {
+        return true;
+      }
+      if (globs.isEmpty()) {
+        return false;
+      }
+      if (globPattern == null) {
+        excludePattern = globsToPattern(excludes);
+        globPattern = globsToPattern(globs);
+      }
+      return globPattern.matcher(path).matches() && !excludePattern.matcher(path).matches();
+    }
+  }
+
+  /**
+   * Returns a pattern matching the paths matched by one of the glob <code>patterns</code> (e.g.
+   * <code>**&#47;*.java</code>), following the semantics of Bazel: <code>*</code> does not cross
+   * directories and <code>**</code> matches any number of directories, including none.
+   */
+  static Pattern globsToPattern(List<String> patterns) {
+    StringBuilder regex = new StringBuilder();
+    for (String glob : patterns) {
+      if (regex.length() > 0) {
+        regex.append('|');
+      }
+      for (int i = 0; i < glob.length(); i++) {
+        char c = glob.charAt(i);
+        if (glob.startsWith("**/", i)) {
+          regex.append("(?:.*/)?");
+          i += 2;
+        } else if (glob.startsWith("**", i)) {
+          regex.append(".*");
+          i++;
+        } else if (c == '*') {
+          regex.append("[^/]*");
+        } else if (c == '?') {
+          regex.append("[^/]");
+        } else {
+          regex.append(Pattern.quote(String.valueOf(c)));
+        }
+      }
+    }
+    return Pattern.compile(regex.length() == 0 ? "(?!)" : regex.toString());
+  }
+
+  /** The result of the scan of a BUILD file. */
+  static final class BuildFile {
+    private final ImmutableList<Rule> rules;
+    private final ImmutableList<String> exportedFiles;
+    private final boolean complete;
+
+    private BuildFile(ImmutableList<Rule> rules, ImmutableList<String> exportedFiles,
+        boolean complete) {
+      this.rules = rules;
+      this.exportedFiles = exportedFiles;
+      this.complete = complete;
+    }
+
+    /** Returns the rules found in the file. */
+    ImmutableList<Rule> getRules() {
+      return rules;
+    }
+
+    /** Returns the files listed by exports_files. */
+    ImmutableList<String> getExportedFiles() {
+      return exportedFiles;
+    }
+
+    /** Returns true if the rules found are all the rules of the package. */
+    boolean isComplete() {
+      return complete;
+    }
+
+    /** Returns the rule named <code>name</code> or null. */
+    Rule getRule(String name) {
+      for (Rule r : rules) {
+        if (r.name.equals(name)) {
+          return r;
+        }
+      }
+      return null;
+    }
+  }
+
+  // Functions that do not create rules.
+  private static final ImmutableSet<String> NON_RULES =
+      ImmutableSet.of("package", "licenses", "load", "exports_files", "workspace");
+  // Loaded functions with these names are rules, or macros creating a rule of the same name.
+  private static final Pattern RULE_LIKE = Pattern.compile(
+      ".*_(library|binary|test|import|plugin|toolchain)$|^(filegroup|genrule|alias|test_suite)$");
+
+  private static final int MAX_CACHED_SCANS = 10000;
+
+  // The state of a BUILD file when it was last read.
+  private static final class Entry {
+    private final long lastModified;
+    private final long length;
+    private final HashCode digest;
+
+    private Entry(long lastModified, long length, HashCode digest) {
+      this.lastModified = lastModified;
+      this.length = length;
+      this.digest = digest;
+    }
+  }
+
+  private final Map<String, Entry> files = new ConcurrentHashMap<>();
+  private final Cache<HashCode, BuildFile> scans =
+      CacheBuilder.newBuilder().maximumSize(MAX_CACHED_SCANS).build();
+
+  /** Forget the files read so far. */
+  void clear() {
+    files.clear();
+    scans.invalidateAll();
+  }
+
+  /**
+   * Returns the scan of <code>file</code>. The file is only read if its size or modification time
+   * changed since it was last read, and only scanned if its content changed.
+   */
+  BuildFile scan(File file) throws IOException {
+    long lastModified = file.lastModified();
+    long length = file.length();
+    Entry entry = files.get(file.getPath());
+    BuildFile buildFile = null;
+    if (entry != null && entry.lastModified == lastModified && entry.length == length) {
+      buildFile = scans.getIfPresent(entry.digest);
+    }
+    if (buildFile == null) {
+      byte[] content = Files.readAllBytes(file.toPath());
+      HashCode digest = Hashing.sha256().hashBytes(content);
+      buildFile = scans.getIfPresent(digest);
+      if (buildFile == null) {
+        buildFile = scan(new String(content, StandardCharsets.UTF_8));
+        scans.put(digest, buildFile);
+      }
+      files.put(file.getPath(), new Entry(lastModified, length, digest));
+    }
+    return buildFile;
+  }
+
+  /**
+   * Scans the content of a BUILD file.
+   */
+  static BuildFile scan(String content) {
+    return new Parser(new Lexer(content)).parse();
+  }
+
+  // Token types.
+  private static final int IDENTIFIER = 0;
+  private static final int STRING = 1;
+  private static final int PUNCTUATION = 2;
+  private static final int OTHER = 3;
+
+  // Splits the content in tokens, kept as offsets in the content to avoid allocations.
+  private static final class Lexer {
+    private final String content;
+    private int[] types = new int[256];
+    private int[] starts = new int[256];
+    private int[] ends = new int[256];
+    // True for the tokens starting a top-level statement.
+    private boolean[] statementStarts = new boolean[256];
+    private int size = 0;
+
+    Lexer(String content) {
+      this.content = content;
+      int depth = 0;
+      boolean lineStart = true;
+      int i = 0;
+      int length = content.length();
+      while (i < length) {
+        char c = content.charAt(i);
+        if (c == '\n') {
+          lineStart = true;
+          i++;
+          continue;
+        }
+        if (c == ' ' || c == '\t' || c == '\r' || c == '\\') {
+          i++;
+          continue;
+        }
+        if (c == '#') {
+          while (i < length && content.charAt(i) != '\n') {
+            i++;
+          }
+          continue;
+        }
+        // Top-level statements start at the first column.
+        boolean statementStart =
+            lineStart && depth == 0 && (i == 0 || content.charAt(i - 1) == '\n');
+        lineStart = false;
+        int start = i;
+        int type;
+        if (isQuote(content, i)) {
+          type = STRING;
+          i = skipString(content, i);
+        } else if (Character.isJavaIdentifierStart(c)) {
+          type = IDENTIFIER;
+          while (i < length && Character.isJavaIdentifierPart(content.charAt(i))) {
+            i++;
+          }
+        } else if ("()[]{},=+:".indexOf(c) >= 0) {
+          type = PUNCTUATION;
+          i++;
+          if (c == '(' || c == '[' || c == '{') {
+            depth++;
+          } else if ((c == ')' || c == ']' || c == '}') && depth > 0) {
+            depth--;
+          } else if (c == '=' && i < length && content.charAt(i) == '=') {
+            type = OTHER;
+            i++;
+          }
+        } else {
+          type = OTHER;
+          i++;
+        }
+        add(type, start, i, statementStart);
+      }
+    }
+
+    // A string starts with a quote, optionally prefixed by r or b.
+    private static boolean isQuote(String content, int i) {
+      char c = content.charAt(i);
+      if (c == 'r' || c == 'b' || c == 'R' || c == 'B') {
+        return i + 1 < content.length()
+            && (content.charAt(i + 1) == '"' || content.charAt(i + 1) == '\'');
+      }
+      return c == '"' || c == '\'';
+    }
+
+    private static int skipString(String content, int i) {
+      while (content.charAt(i) != '"' && content.charAt(i) != '\'') {
+        i++;
+      }
+      char quote = content.charAt(i);
+      boolean triple = content.startsWith(new String(new char[] {quote, quote, quote}), i);
+      i += triple ? 3 : 1;
+      while (i < content.length()) {
+        char c = content.charAt(i);
+        if (c == '\\') {
+          i += 2;
+        } else if (c == quote && (!triple || (i + 2 < content.length()
+            && content.charAt(i + 1) == quote && content.charAt(i + 2) == quote))) {
+          return i + (triple ? 3 : 1);
+        } else if (c == '\n' && !triple) {
+          // Unterminated string.
+          return i;
+        } else {
+          i++;
+        }
+      }
+      return content.length();
+    }
+
+    private void add(int type, int start, int end, boolean statementStart) {
+      if (size == types.length) {
+        int newSize = size * 2;
+        types = Arrays.copyOf(types, newSize);
+        starts = Arrays.copyOf(starts, newSize);
+        ends = Arrays.copyOf(ends, newSize);
+        statementStarts = Arrays.copyOf(statementStarts, newSize);
+      }
+      types[size] = type;
+      starts[size] = start;
+      ends[size] = end;
+      statementStarts[size] = statementStart;
+      size++;
+    }
+
+    boolean is(int i, int type) {
+      return i < size && types[i] == type;
+    }
+
+    boolean is(int i, char punctuation) {
+      return is(i, PUNCTUATION) && content.charAt(starts[i]) == punctuation;
+    }
+
+    boolean is(int i, String identifier) {
+      return is(i, IDENTIFIER) && ends[i] - starts[i] == identifier.length()
+          && content.startsWith(identifier, starts[i]);
+    }
+
+    String text(int i) {
+      return content.substring(starts[i], ends[i]);
+    }
+
+    // The value of a string token, with the simple escape sequences decoded.
+    String string(int i) {
+      int start = starts[i];
+      int end = ends[i];
+      boolean raw = false;
+      while (content.charAt(start) != '"' && content.charAt(start) != '\'') {
+        raw |= content.charAt(start) == 'r' || content.charAt(start) == 'R';
+        start++;
+      }
+      char quote = content.charAt(start);
+      int quotes = end - start >= 6 && content.charAt(start + 1) == quote
+          && content.charAt(start + 2) == quote ? 3 : 1;
+      String value = content.substring(start + quotes, Math.max(start + quotes, end - quotes));
+      if (raw || value.indexOf('\\') < 0) {
+        return value;
+      }
+      StringBuilder builder = new StringBuilder(value.length());
+      for (int j = 0; j < value.length(); j++) {
+        char c = value.charAt(j);
+        if (c == '\\' && j + 1 < value.length()) {
+          char next = value.charAt(++j);
+          builder.append(next == 'n' ? '\n' : next == 't' ? '\t' : next);
+        } else {
+          builder.append(c);
+        }
+      }
+      return builder.toString();
+    }
+  }
+
+  private static final class Parser {
+    private final Lexer lexer;
+    private final ImmutableList.Builder<Rule> rules = ImmutableList.builder();
+    private final ImmutableList.Builder<String> exportedFiles = ImmutableList.builder();
+    private final Set<String> loaded = new HashSet<>();
+    private boolean complete = true;
+
+    Parser(Lexer lexer) {
+      this.lexer = lexer;
+    }
+
+    BuildFile parse() {
+      int i = 0;
+      while (i < lexer.size) {
+        int end = i + 1;
+        while (end < lexer.size && !lexer.statementStarts[end]) {
+          end++;
+        }
+        statement(i, end);
+        i = end;
+      }
+      return new BuildFile(rules.build(), exportedFiles.build(), complete);
+    }
+
+    // A top-level statement, tokens [start, end).
+    private void statement(int start, int end) {
+      if (lexer.is(start, IDENTIFIER) && lexer.is(start + 1, '(')) {
+        call(lexer.text(start), start + 2, end);
+      } else if (lexer.is(start, IDENTIFIER) && lexer.is(start + 1, '=')) {
+        // An assignment, only used through references the scanner does not follow.
+      } else {
+        // def, for, if, or an expression.
+        complete = false;
+      }
+    }
+
+    // A top-level call, with its arguments starting at token start.
+    private void call(String function, int start, int end) {
+      String name = null;
+      ImmutableList<String> srcs = ImmutableList.of();
+      ImmutableList<String> globs = ImmutableList.of();
+      ImmutableList<String> excludes = ImmutableList.of();
+      boolean srcsKnown = true;
+      ImmutableList.Builder<String> positional = ImmutableList.builder();
+      int i = start;
+      while (i < end && !lexer.is(i, ')')) {
+        int valueEnd = skipValue(lexer.is(i, IDENTIFIER) && lexer.is(i + 1, '=') ? i + 2 : i, end);
+        if (lexer.is(i, IDENTIFIER) && lexer.is(i + 1, '=')) {
+          String key = lexer.text(i);
+          if (key.equals("name")) {
+            name = valueEnd == i + 3 && lexer.is(i + 2, STRING) ? lexer.string(i + 2) : null;
+          } else if (key.equals("srcs")) {
+            ImmutableList.Builder<String> literals = ImmutableList.builder();
+            ImmutableList.Builder<String> patterns = ImmutableList.builder();
+            ImmutableList.Builder<String> excluded = ImmutableList.builder();
+            srcsKnown = sum(i + 2, valueEnd, literals, patterns, excluded);
+            srcs = literals.build();
+            globs = patterns.build();
+            excludes = excluded.build();
+          } else if (function.equals("load")) {
+            loaded.add(key);
+          }
+        } else if (valueEnd == i + 1 && lexer.is(i, STRING)) {
+          positional.add(lexer.string(i));
+        } else if (function.equals("exports_files") && lexer.is(i, '[')) {
+          list(i, valueEnd, exportedFiles);
+        }
+        i = lexer.is(valueEnd, ',') ? valueEnd + 1 : valueEnd;
+      }
+      if (function.equals("load")) {
+        ImmutableList<String> symbols = positional.build();
+        loaded.addAll(symbols.subList(Math.min(1, symbols.size()), symbols.size()));
+      } else if (!NON_RULES.contains(function)) {
+        if (name == null || (loaded.contains(function) && !RULE_LIKE.matcher(function).matches())) {
+          // The targets created by macros and rules with computed names are unknown.
+          complete = false;
+        }
+        if (name != null) {
+          rules.add(new Rule(function, name, srcs, globs, excludes, srcsKnown));
+        }
+      }
+    }
+
+    // Returns the end of the value starting at token i: the next ',' or ')' at the same depth.
+    private int skipValue(int i, int end) {
+      int depth = 0;
+      while (i < end) {
+        if (depth == 0 && (lexer.is(i, ',') || lexer.is(i, ')'))) {
+          return i;
+        }
+        if (lexer.is(i, '(') || lexer.is(i, '[') || lexer.is(i, '{')) {
+          depth++;
+        } else if (lexer.is(i, ')') || lexer.is(i, ']') || lexer.is(i, '}')) {
+          depth--;
+        }
+        i++;
+      }
+      return end;
+    }
+
+    // A sum of literal lists and globs, tokens [start, end). Returns false if something else is
+    // found.
+    private boolean sum(int start, int end, ImmutableList.Builder<String> literals,
+        ImmutableList.Builder<String> patterns, ImmutableList.Builder<String> excludes) {
+      int i = start;
+      while (i < end) {
+        int termEnd;
+        if (lexer.is(i, '[')) {
+          termEnd = matching(i, end);
+          if (!list(i, termEnd, literals)) {
+            return false;
+          }
+        } else if (lexer.is(i, "glob") && lexer.is(i + 1, '(') && lexer.is(i + 2, '[')) {
+          int listEnd = matching(i + 2, end);
+          if (!list(i + 2, listEnd, patterns)) {
+            return false;
+          }
+          termEnd = matching(i + 1, end);
+          // The other arguments: exclude = [...], exclude_directories, allow_empty.
+          for (int j = listEnd; j < termEnd - 1; j++) {
+            if (lexer.is(j, "exclude") && lexer.is(j + 1, '=') && lexer.is(j + 2, '[')
+                && !list(j + 2, matching(j + 2, termEnd), excludes)) {
+              return false;
+            }
+          }
+        } else {
+          return false;
+        }
+        if (termEnd < end && !lexer.is(termEnd, '+')) {
+          return false;
+        }
+        i = termEnd + 1;
+      }
+      return true;
+    }
+
+    // Returns the token following the bracket matching the one at token i.
+    private int matching(int i, int end) {
+      int depth = 0;
+      for (int j = i; j < end; j++) {
+        if (lexer.is(j, '(') || lexer.is(j, '[') || lexer.is(j, '{')) {
+          depth++;
+        } else if (lexer.is(j, ')') || lexer.is(j, ']') || lexer.is(j, '}')) {
+          if (--depth == 0) {
+            return j + 1;
+          }
+        }
+      }
+      return end;
+    }
+
+    // A list of literal strings, tokens [start, end) including the brackets.
+    private boolean list(int start, int end, ImmutableList.Builder<String> values) {
+      for (int i = start + 1; i < end - 1; i++) {
+        if (lexer.is(i, STRING)) {
+          values.add(lexer.string(i));
+        } else if (!lexer.is(i, ',')) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,122 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.command;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * A history of the per-target build durations of a workspace, stored in a local file (one JSON
+ * object per build), so that slow-downs of a target stand out across builds and days.
+ *
+ * <p>
+ * Only the targets that executed actions are recorded and only the last builds are kept. A single
+ * instance should be used per file, the updates of different instances are not serialized.
+ */
+public final class BuildHistory {
+
+  private final File file;
+  private final int maxBuilds;
+
+  /**
+   * Create a history stored in <code>file</code>, keeping the last <code>maxBuilds</code> builds.
+   */
+  public BuildHistory(File file, int maxBuilds) {
+    this.file = file;
+    this.maxBuilds = maxBuilds;
+  }
+
+  /**
+   * Add the durations of the targets of <code>report</code> to the history.
+   */
+  public synchronized void record(BuildReport report) throws IOException {
+    JSONObject durations = new JSONObject();
+    for (BuildReport.TargetRecord target : report.getTargets()) {
+      if (target.getActionsExecuted() > 0) {
+        durations.put(target.getLabel(), target.getDurationMillis());
+      }
+    }
+    JSONObject entry = new JSONObject();
+    entry.put("time", report.getStartMillis());
+    entry.put("targets", durations);
+    List<String> lines = new ArrayList<>(readLines());
+    lines.add(entry.toString());
+    if (lines.size() > maxBuilds) {
+      lines = lines.subList(lines.size() - maxBuilds, lines.size());
+    }
+    // Write atomically so that a concurrent reader never sees a truncated history.
+    file.getParentFile().mkdirs();
+    File tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+    try {
+      Files.write(tmp.toPath(), lines, StandardCharsets.UTF_8);
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tmp.toPath());
+    }
+  }
+
+  /**
+   * Returns the median duration (in milliseconds) of each target over the recorded builds in which
+   * it executed actions.
+   */
+  public synchronized ImmutableMap<String, Long> getBaseline() throws IOException {
+    Map<String, List<Long>> durations = new HashMap<>();
+    for (String line : readLines()) {
+      JSONObject targets;
+      try {
+        targets = new JSONObject(line).getJSONObject("targets");
+      } catch (JSONException e) {
+        continue;
+      }
+      for (String label : targets.keySet()) {
+        List<Long> l = durations.get(label);
+        if (l == null) {
+          l = new ArrayList<>();
+          durations.put(label, l);
+        }
+        l.add(targets.getLong(label));
+      }
+    }
+    ImmutableMap.Builder<String, Long> builder = ImmutableMap.builder();
+    for (Map.Entry<String, List<Long>> e : durations.entrySet()) {
+      List<Long> l = e.getValue();
+      Collections.sort(l);
+      builder.put(e.getKey(), l.get(l.size() / 2));
+    }
+    return builder.build();
+  }
+
+  private List<String> readLines() throws IOException {
+    if (!file.exists()) {
+      return ImmutableList.of();
+    }
+    return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,49 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.command;
+
+import java.util.List;
+
+import com.google.devtools.bazel.e4b.command.BazelCommand.BazelInstance;
+
+/**
+ * A listener notified of the builds run by {@link BazelInstance#build(List, List)}, e.g. to report
+ * the diagnostics of the build. The methods are called from the thread running the build.
+ */
+public interface BuildListener {
+
+  /**
+   * Called when Bazel starts building <code>targets</code> in the workspace of
+   * <code>instance</code>.
+   */
+  void buildStarted(BazelInstance instance, List<String> targets);
+
+  /**
+   * Called for each line printed by Bazel on its standard error, as soon as it is printed.
+   */
+  void buildErrorLine(BazelInstance instance, String line);
+
+  /**
+   * Called when the build finished with exit code <code>exitCode</code>. <code>cancelled</code> is
+   * true if the build was cancelled because it was superseded by another build.
+   */
+  void buildFinished(BazelInstance instance, int exitCode, boolean cancelled);
+
+  /**
+   * Called after {@link #buildFinished(BazelInstance, int, boolean)} with the per-target durations
+   * of the build, if build reports are enabled (see {@link BazelCommand#setBuildReportEnabled}).
+   */
+  default void buildReported(BazelInstance instance, BuildReport report) {}
+}
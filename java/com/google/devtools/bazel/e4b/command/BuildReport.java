@@ -0,0 +1,245 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.command;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * The per-target durations of a build, computed from the build event stream written by Bazel with
+ * {@code --build_event_json_file} and {@code --build_event_publish_all_actions}.
+ *
+ * <p>
+ * The build event stream reports the actions that were executed, i.e. that missed the action cache,
+ * with their start and end time. The duration of a target is the span between the start of its
+ * first executed action and the end of its last one, so fully cached targets take no time. The
+ * cache hits are only reported for the whole build.
+ */
+public final class BuildReport {
+
+  /** The actions executed for a target and the time they took. */
+  public static final class TargetRecord {
+    private final String label;
+    private long startMillis = 0;
+    private long endMillis = 0;
+    private long actionMillis = 0;
+    private int actionsExecuted = 0;
+    private boolean success = true;
+
+    private TargetRecord(String label) {
+      this.label = label;
+    }
+
+    /** Returns the label of the target. */
+    public String getLabel() {
+      return label;
+    }
+
+    /** Returns the start time of the first executed action of the target, or 0. */
+    public long getStartMillis() {
+      return startMillis;
+    }
+
+    /** Returns the end time of the last executed action of the target, or 0. */
+    public long getEndMillis() {
+      return endMillis;
+    }
+
+    /** Returns the span between the start of the first action and the end of the last action. */
+    public long getDurationMillis() {
+      return endMillis - startMillis;
+    }
+
+    /** Returns the sum of the durations of the executed actions of the target. */
+    public long getActionMillis() {
+      return actionMillis;
+    }
+
+    /** Returns the number of actions of the target that were executed (cache misses). */
+    public int getActionsExecuted() {
+      return actionsExecuted;
+    }
+
+    /** Returns false if the target or one of its actions failed. */
+    public boolean isSuccess() {
+      return success;
+    }
+
+    private void addAction(long start, long end, boolean actionSuccess) {
+      actionsExecuted++;
+      success &= actionSuccess;
+      if (start > 0 && end >= start) {
+        actionMillis += end - start;
+        startMillis = startMillis == 0 ? start : Math.min(startMillis, start);
+        endMillis = Math.max(endMillis, end);
+      }
+    }
+  }
+
+  private final long startMillis;
+  private final long endMillis;
+  private final boolean success;
+  private final long actionCacheHits;
+  private final long actionCacheMisses;
+  private final ImmutableList<TargetRecord> targets;
+
+  private BuildReport(long startMillis, long endMillis, boolean success, long actionCacheHits,
+      long actionCacheMisses, List<TargetRecord> targets) {
+    this.startMillis = startMillis;
+    this.endMillis = endMillis;
+    this.success = success;
+    this.actionCacheHits = actionCacheHits;
+    this.actionCacheMisses = actionCacheMisses;
+    this.targets = ImmutableList.sortedCopyOf(
+        Comparator.comparingLong(TargetRecord::getDurationMillis).reversed(), targets);
+  }
+
+  /** Returns the start time of the build, or 0 if unknown. */
+  public long getStartMillis() {
+    return startMillis;
+  }
+
+  /** Returns the end time of the build, or 0 if unknown. */
+  public long getEndMillis() {
+    return endMillis;
+  }
+
+  /** Returns true if the build succeeded. */
+  public boolean isSuccess() {
+    return success;
+  }
+
+  /** Returns the number of action cache hits of the build, or -1 if unknown. */
+  public long getActionCacheHits() {
+    return actionCacheHits;
+  }
+
+  /** Returns the number of action cache misses of the build, or -1 if unknown. */
+  public long getActionCacheMisses() {
+    return actionCacheMisses;
+  }
+
+  /** Returns the targets of the build, slowest first. */
+  public ImmutableList<TargetRecord> getTargets() {
+    return targets;
+  }
+
+  /**
+   * Parse the JSON build event stream <code>file</code>.
+   */
+  public static BuildReport parse(File file) throws IOException {
+    try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+      return parse(reader);
+    }
+  }
+
+  /**
+   * Parse a JSON build event stream (one event per line) from <code>reader</code>. Events that
+   * cannot be parsed, e.g. the last event of a stream being written, are ignored.
+   */
+  public static BuildReport parse(Reader reader) throws IOException {
+    Map<String, TargetRecord> targets = new LinkedHashMap<>();
+    long startMillis = 0;
+    long endMillis = 0;
+    boolean success = false;
+    long hits = -1;
+    long misses = -1;
+    BufferedReader lines = new BufferedReader(reader);
+    String line;
+    while ((line = lines.readLine()) != null) {
+      JSONObject event;
+      try {
+        event = new JSONObject(line);
+      } catch (JSONException e) {
+        continue;
+      }
+      JSONObject id = event.optJSONObject("id");
+      if (id == null) {
+        continue;
+      }
+      if (id.has("started") && event.has("started")) {
+        startMillis = event.getJSONObject("started").optLong("startTimeMillis", 0);
+      } else if (id.has("targetCompleted")) {
+        TargetRecord target = getTarget(targets, id.getJSONObject("targetCompleted"));
+        JSONObject completed = event.optJSONObject("completed");
+        target.success &= completed != null && completed.optBoolean("success", false);
+      } else if (id.has("actionCompleted")) {
+        JSONObject action = event.optJSONObject("action");
+        if (action != null) {
+          TargetRecord target = getTarget(targets, id.getJSONObject("actionCompleted"));
+          target.addAction(getTime(action.opt("startTime")), getTime(action.opt("endTime")),
+              action.optBoolean("success", false));
+        }
+      } else if (id.has("buildFinished") && event.has("finished")) {
+        JSONObject finished = event.getJSONObject("finished");
+        endMillis = finished.optLong("finishTimeMillis", 0);
+        JSONObject exitCode = finished.optJSONObject("exitCode");
+        success = finished.optBoolean("overallSuccess", false)
+            || (exitCode != null && "SUCCESS".equals(exitCode.optString("name", "")));
+      } else if (id.has("buildMetrics") && event.has("buildMetrics")) {
+        JSONObject summary = event.getJSONObject("buildMetrics").optJSONObject("actionSummary");
+        JSONObject cache = summary == null ? null : summary.optJSONObject("actionCacheStatistics");
+        if (cache != null) {
+          hits = cache.optLong("hits", 0);
+          misses = cache.optLong("misses", 0);
+        }
+      }
+    }
+    // Actions that are not attached to a target.
+    targets.remove("");
+    return new BuildReport(startMillis, endMillis, success, hits, misses,
+        ImmutableList.copyOf(targets.values()));
+  }
+
+  private static TargetRecord getTarget(Map<String, TargetRecord> targets, JSONObject id) {
+    String label = id.optString("label", "");
+    TargetRecord target = targets.get(label);
+    if (target == null) {
+      target = new TargetRecord(label);
+      targets.put(label, target);
+    }
+    return target;
+  }
+
+  // Timestamps are printed as RFC 3339 strings, or as {"seconds": ..., "nanos": ...}.
+  private static long getTime(Object value) {
+    if (value instanceof String) {
+      try {
+        return Instant.parse((String) value).toEpochMilli();
+      } catch (DateTimeParseException e) {
+        return 0;
+      }
+    } else if (value instanceof JSONObject) {
+      JSONObject time = (JSONObject) value;
+      return time.optLong("seconds", 0) * 1000 + time.optLong("nanos", 0) / 1000000;
+    }
+    return 0;
+  }
+}
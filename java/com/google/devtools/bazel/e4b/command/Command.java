@@ -18,6 +18,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 import com.google.common.base.Preconditions;
@@ -38,10 +39,13 @@ final public class Command {
   private final SelectOutputStream stdout;
   private final SelectOutputStream stderr;
   private boolean executed = false;
+  private boolean cancelled = false;
+  private Process process = null;
 
   private Command(CommandConsole console, File directory, ImmutableList<String> args,
       Function<String, String> stdoutSelector, Function<String, String> stderrSelector,
-      OutputStream stdout, OutputStream stderr) throws IOException {
+      Consumer<String> stderrListener, OutputStream stdout, OutputStream stderr)
+      throws IOException {
     this.directory = directory;
     this.args = args;
     if (console != null) {
@@ -52,13 +56,14 @@ final public class Command {
         stderr = console.createErrorStream();
       }
     }
-    this.stderr = new SelectOutputStream(stderr, stderrSelector);
+    this.stderr = new SelectOutputStream(stderr, stderrSelector, stderrListener);
     this.stdout = new SelectOutputStream(stdout, stdoutSelector);
   }
 
   /**
    * Executes the command represented by this instance, and return the exit code of the command.
-   * This method should not be called twice on the same object.
+   * This method should not be called twice on the same object. If the command was cancelled before
+   * being executed, it is not executed and this method returns -1.
    */
   public int run() throws IOException, InterruptedException {
     Preconditions.checkState(!executed);
@@ -67,11 +72,25 @@ final public class Command {
     builder.directory(directory);
     builder.redirectOutput(ProcessBuilder.Redirect.PIPE);
     builder.redirectError(ProcessBuilder.Redirect.PIPE);
-    Process process = builder.start();
+    Process process;
+    synchronized (this) {
+      if (cancelled) {
+        return -1;
+      }
+      process = builder.start();
+      this.process = process;
+    }
     Thread err = copyStream(process.getErrorStream(), stderr);
     // seriously? That's stdout, why is it called getInputStream???
     Thread out = copyStream(process.getInputStream(), stdout);
-    int r = process.waitFor();
+    int r;
+    try {
+      r = process.waitFor();
+    } catch (InterruptedException e) {
+      // Do not leave the command running when the caller gives up on it.
+      process.destroy();
+      throw e;
+    }
     if (err != null) {
       err.join();
     }
@@ -87,6 +106,25 @@ final public class Command {
     return r;
   }
 
+  /**
+   * Cancel the command: the process is killed if it is running and will not be started if
+   * {@link #run()} has not been called yet.
+   */
+  public synchronized void cancel() {
+    cancelled = true;
+    if (process != null) {
+      // Bazel cancels the running command when its client is killed.
+      process.destroy();
+    }
+  }
+
+  /**
+   * Returns true if {@link #cancel()} has been called on this command.
+   */
+  public synchronized boolean isCancelled() {
+    return cancelled;
+  }
+
   private static class CopyStreamRunnable implements Runnable {
     private InputStream inputStream;
     private OutputStream outputStream;
@@ -154,6 +192,7 @@ final public class Command {
     private OutputStream stderr = null;
     private Function<String, String> stdoutSelector;
     private Function<String, String> stderrSelector;
+    private Consumer<String> stderrListener;
     private final CommandConsoleFactory consoleFactory;
 
     private Builder(final CommandConsoleFactory consoleFactory) {
@@ -259,6 +298,16 @@ final public class Command {
       return this;
     }
 
+    /**
+     * Set a listener that receives each line printed to the standard error stream as soon as it is
+     * printed, whether it is selected or not. The listener is called from the thread reading the
+     * output of the program.
+     */
+    public Builder setStderrLineListener(Consumer<String> listener) {
+      this.stderrListener = listener;
+      return this;
+    }
+
     /**
      * Build a Command object.
      */
@@ -269,7 +318,7 @@ final public class Command {
           : consoleFactory.get(consoleName,
               "Running " + String.join(" ", args) + " from " + directory.toString());
       return new Command(console, directory, args, stdoutSelector, stderrSelector,
-          stdout, stderr);
+          stderrListener, stdout, stderr);
     }
   }
 
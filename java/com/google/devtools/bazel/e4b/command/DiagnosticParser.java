@@ -0,0 +1,204 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.command;
+
+import java.io.File;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A streaming parser for the diagnostics printed by a Bazel build on its standard error: javac
+ * diagnostics (e.g. {@code java/foo/Bar.java:12: error: cannot find symbol}) and Bazel diagnostics
+ * (e.g. {@code ERROR: /ws/java/foo/BUILD:3:1: no such target}).
+ *
+ * <p>
+ * Lines are passed one by one to {@link #accept(String)} as they arrive and diagnostics are passed
+ * to the consumer as soon as they are complete. Paths are resolved to files of the workspace: paths
+ * relative to or under the execution root are mapped back to the workspace when the file exists
+ * there.
+ */
+public final class DiagnosticParser {
+
+  /** A diagnostic reported by the build. */
+  public static final class Diagnostic {
+
+    /** The severity of a diagnostic. */
+    public static enum Severity {
+      ERROR, WARNING
+    }
+
+    private final File file;
+    private final int line;
+    private final int column;
+    private final Severity severity;
+    private final String message;
+
+    Diagnostic(File file, int line, int column, Severity severity, String message) {
+      this.file = file;
+      this.line = line;
+      this.column = column;
+      this.severity = severity;
+      this.message = message;
+    }
+
+    /** Returns the file the diagnostic refers to. */
+    public File getFile() {
+      return file;
+    }
+
+    /** Returns the line (starting at 1) the diagnostic refers to. */
+    public int getLine() {
+      return line;
+    }
+
+    /** Returns the column (starting at 1) the diagnostic refers to, or 0 if unknown. */
+    public int getColumn() {
+      return column;
+    }
+
+    /** Returns the severity of the diagnostic. */
+    public Severity getSeverity() {
+      return severity;
+    }
+
+    /** Returns the message of the diagnostic. */
+    public String getMessage() {
+      return message;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Diagnostic)) {
+        return false;
+      }
+      Diagnostic other = (Diagnostic) o;
+      return file.equals(other.file) && line == other.line && column == other.column
+          && severity == other.severity && message.equals(other.message);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(file, line, column, severity, message);
+    }
+
+    @Override
+    public String toString() {
+      return file + ":" + line + ":" + column + ": " + severity + ": " + message;
+    }
+  }
+
+  private static final Pattern ANSI_ESCAPE = Pattern.compile("\u001B\\[[;\\d]*m");
+  private static final Pattern JAVAC =
+      Pattern.compile("^((?:[A-Za-z]:)?[^:\\s][^:]*\\.java):(\\d+): (error|warning): (.*)$");
+  private static final Pattern BAZEL =
+      Pattern.compile("^(ERROR|WARNING): ((?:[A-Za-z]:)?[^:\\s][^:]*):(\\d+):(\\d+): (.*)$");
+  private static final Pattern CARET = Pattern.compile("^(\\s*)\\^\\s*$");
+
+  private final File workspaceRoot;
+  private final File execRoot;
+  private final Consumer<Diagnostic> consumer;
+
+  // The javac diagnostic being parsed: javac prints the source line, a caret line giving the column
+  // and then indented details (e.g. "  symbol: class Foo") after the first line of the diagnostic.
+  private File file = null;
+  private int line;
+  private int column;
+  private Diagnostic.Severity severity;
+  private StringBuilder message;
+  private boolean afterCaret;
+
+  /**
+   * Create a parser for the output of builds in <code>workspaceRoot</code>, whose execution root is
+   * <code>execRoot</code>, passing the diagnostics to <code>consumer</code>.
+   */
+  public DiagnosticParser(File workspaceRoot, File execRoot, Consumer<Diagnostic> consumer) {
+    this.workspaceRoot = workspaceRoot;
+    this.execRoot = execRoot;
+    this.consumer = consumer;
+  }
+
+  /**
+   * Parse the next line of the standard error of the build.
+   */
+  public void accept(String l) {
+    String text = ANSI_ESCAPE.matcher(l).replaceAll("");
+    Matcher javac = JAVAC.matcher(text);
+    Matcher bazel = BAZEL.matcher(text);
+    boolean header = javac.matches() || bazel.matches();
+    if (file != null) {
+      if (!afterCaret && !header) {
+        Matcher caret = CARET.matcher(text);
+        if (caret.matches()) {
+          column = caret.group(1).length() + 1;
+          afterCaret = true;
+        }
+        // Otherwise this is the source line, skip it.
+        return;
+      } else if (afterCaret && !header && text.startsWith("  ")) {
+        message.append('\n').append(text.trim());
+        return;
+      }
+      flush();
+    }
+    if (javac.matches()) {
+      file = resolve(javac.group(1));
+      line = Integer.parseInt(javac.group(2));
+      column = 0;
+      severity = getSeverity(javac.group(3));
+      message = new StringBuilder(javac.group(4));
+      afterCaret = false;
+      return;
+    }
+    if (bazel.matches()) {
+      consumer.accept(new Diagnostic(resolve(bazel.group(2)), Integer.parseInt(bazel.group(3)),
+          Integer.parseInt(bazel.group(4)), getSeverity(bazel.group(1)), bazel.group(5)));
+    }
+  }
+
+  /**
+   * Pass the diagnostic being parsed, if any, to the consumer. Should be called at the end of the
+   * output.
+   */
+  public void flush() {
+    if (file != null) {
+      consumer.accept(new Diagnostic(file, line, column, severity, message.toString()));
+      file = null;
+      message = null;
+    }
+  }
+
+  private static Diagnostic.Severity getSeverity(String s) {
+    return s.equalsIgnoreCase("warning") ? Diagnostic.Severity.WARNING
+        : Diagnostic.Severity.ERROR;
+  }
+
+  // Map a path printed by the build to a file of the workspace if possible.
+  private File resolve(String path) {
+    File f = new File(path);
+    String relative = null;
+    if (!f.isAbsolute()) {
+      relative = path;
+    } else if (f.getPath().startsWith(execRoot.getPath() + File.separator)) {
+      relative = f.getPath().substring(execRoot.getPath().length() + 1);
+    }
+    if (relative == null) {
+      return f;
+    }
+    File inWorkspace = new File(workspaceRoot, relative);
+    return inWorkspace.exists() ? inWorkspace : new File(execRoot, relative);
+  }
+}
@@ -0,0 +1,183 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.command;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * The sub-directories of a directory tree (e.g. a Bazel workspace), listed lazily for a tree view.
+ *
+ * <p>
+ * The sub-directories of a directory are listed with a {@link DirectoryStream} on a background
+ * thread the first time they are requested, and cached. Whether a directory has sub-directories is
+ * answered from its link count when the file system provides it (a directory without
+ * sub-directories has two links), so that showing a directory costs a single stat instead of a
+ * listing of its content. Hidden directories and the Bazel convenience symlinks are skipped.
+ *
+ * <p>
+ * The tree can be restricted to the directories containing Bazel packages, using the
+ * {@link PackageIndex} of the {@link BazelCommand.BazelInstance} of the workspace, which is shared
+ * with the completion and the listing of the targets.
+ */
+public final class DirectoryTree implements AutoCloseable {
+
+  private static final ExecutorService LOADER = Executors.newFixedThreadPool(2, r -> {
+    Thread thread = new Thread(r, "Directory tree loader");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final Path root;
+  // The root of the workspace of packageIndex, or null to show all the directories.
+  private final Path indexRoot;
+  private final PackageIndex packageIndex;
+  private final Consumer<File> onLoaded;
+  private final Map<Path, ImmutableList<File>> children = new ConcurrentHashMap<>();
+  private final Set<Path> loading = ConcurrentHashMap.newKeySet();
+  private volatile boolean closed = false;
+
+  /**
+   * Create the tree of the directory <code>root</code>. <code>onLoaded</code> is called from a
+   * background thread with each directory whose sub-directories were loaded.
+   */
+  public DirectoryTree(File root, Consumer<File> onLoaded) {
+    this(root, null, null, onLoaded);
+  }
+
+  /**
+   * Create the tree of the directory <code>root</code>, in the workspace of <code>instance</code>,
+   * only showing the directories that contain Bazel packages. <code>onLoaded</code> is called from
+   * a background thread with each directory whose sub-directories were loaded.
+   */
+  public DirectoryTree(File root, BazelCommand.BazelInstance instance, Consumer<File> onLoaded) {
+    this(root, instance.getWorkspaceRoot().toPath(), instance.getPackageIndex(), onLoaded);
+  }
+
+  DirectoryTree(File root, Path indexRoot, PackageIndex packageIndex, Consumer<File> onLoaded) {
+    this.root = root.toPath();
+    this.indexRoot = indexRoot;
+    this.packageIndex = packageIndex;
+    this.onLoaded = onLoaded;
+  }
+
+  /**
+   * Returns the sub-directories of <code>directory</code> sorted by name, or null if they are not
+   * loaded yet. They are then loaded in the background.
+   */
+  public ImmutableList<File> getChildren(File directory) {
+    Path path = directory.toPath();
+    ImmutableList<File> result = children.get(path);
+    if (result == null && !closed && loading.add(path)) {
+      LOADER.execute(() -> {
+        try {
+          children.put(path, load(path));
+        } catch (IOException e) {
+          children.put(path, ImmutableList.of());
+        } catch (InterruptedException e) {
+          loading.remove(path);
+          return;
+        }
+        if (!closed) {
+          onLoaded.accept(directory);
+        }
+      });
+    }
+    return result;
+  }
+
+  /**
+   * Returns false if <code>directory</code> is known to have no sub-directory to show. Answers
+   * from the loaded sub-directories, or else from the metadata of the directory without listing
+   * it.
+   */
+  public boolean hasChildren(File directory) {
+    Path path = directory.toPath();
+    ImmutableList<File> result = children.get(path);
+    if (result != null) {
+      return !result.isEmpty();
+    }
+    if (packageIndex == null) {
+      try {
+        Object links = Files.getAttribute(path, "unix:nlink", LinkOption.NOFOLLOW_LINKS);
+        if (links instanceof Integer && (Integer) links == 2) {
+          return false;
+        }
+      } catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+        // Not a POSIX file system, only the listing can tell.
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Forget the loaded sub-directories, e.g. to see the directories created since.
+   */
+  public void clear() {
+    children.clear();
+    loading.clear();
+  }
+
+  @Override
+  public void close() {
+    // The package index belongs to the Bazel instance.
+    closed = true;
+  }
+
+  // Lists the sub-directories of a directory to show.
+  ImmutableList<File> load(Path directory) throws IOException, InterruptedException {
+    List<File> result = new ArrayList<>();
+    if (packageIndex != null) {
+      if (!directory.startsWith(indexRoot)) {
+        return ImmutableList.of();
+      }
+      String path = indexRoot.relativize(directory).toString().replace(File.separatorChar, '/');
+      for (String name : packageIndex.getSubdirectories(path)) {
+        if (!isSkipped(name)
+            && packageIndex.hasPackagesUnder(path.isEmpty() ? name : path + "/" + name)) {
+          result.add(directory.resolve(name).toFile());
+        }
+      }
+      return ImmutableList.copyOf(result);
+    }
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+        p -> !isSkipped(p.getFileName().toString()) && Files.isDirectory(p))) {
+      for (Path p : stream) {
+        result.add(p.toFile());
+      }
+    }
+    result.sort(Comparator.comparing(File::getName));
+    return ImmutableList.copyOf(result);
+  }
+
+  private static boolean isSkipped(String name) {
+    return name.startsWith(".") || name.startsWith("bazel-");
+  }
+}
@@ -27,6 +27,8 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 
 /**
  * A parsed version of the JSON files returned by the application of the IDE build information
@@ -39,16 +41,33 @@ public final class IdeBuildInfo {
   /**
    * A structure containing the list of jar files generated by a target (interface, class and source
    * jars).
+   *
+   * <p>
+   * {@link Jars} objects are values: two objects describing the same files are equal. Instances are
+   * interned in a shared pool so that a jar reached through many targets (or many calls to the
+   * aspect) is represented by a single object.
    */
   public static final class Jars {
+    // Weak so that jars no longer referenced by any cached build information can be collected.
+    private static final Interner<Jars> POOL = Interners.newWeakInterner();
+
     private final String ijar; // interface_jar
     private final String jar; // jar
     private final String srcjar; // source_jar
 
-    Jars(JSONObject obj) {
+    private Jars(JSONObject obj) {
       this.ijar = obj.has("interface_jar") ? obj.getString("interface_jar") : null;
       this.jar = obj.getString("jar");
-      this.srcjar = obj.has("srcjar") ? obj.getString("srcjar") : null;
+      // The aspect reports the source jar as "source_jar", older versions used "srcjar".
+      this.srcjar = obj.has("source_jar") ? obj.getString("source_jar")
+          : (obj.has("srcjar") ? obj.getString("srcjar") : null);
+    }
+
+    /**
+     * Returns the canonical {@link Jars} object for the jars described by <code>obj</code>.
+     */
+    static Jars fromJson(JSONObject obj) {
+      return POOL.intern(new Jars(obj));
     }
 
     @Override
@@ -64,6 +83,19 @@ public final class IdeBuildInfo {
       return builder.append(")").toString();
     }
 
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Jars)) {
+        return false;
+      }
+      Jars other = (Jars) obj;
+      return Objects.equals(jar, other.jar) && Objects.equals(ijar, other.ijar)
+          && Objects.equals(srcjar, other.srcjar);
+    }
+
     @Override
     public int hashCode() {
       return Objects.hash(ijar, jar, srcjar);
@@ -73,6 +105,14 @@ public final class IdeBuildInfo {
       return ijar;
     }
 
+    /**
+     * Returns the jar to put on a compilation classpath: the interface jar if
+     * <code>useInterfaceJar</code> is true and the target has one, the class jar otherwise.
+     */
+    public String getCompileJar(boolean useInterfaceJar) {
+      return useInterfaceJar && ijar != null ? ijar : jar;
+    }
+
     public String getJar() {
       return jar;
     }
@@ -140,7 +180,7 @@ public final class IdeBuildInfo {
   private ImmutableList<Jars> jsonToJarArray(JSONArray array) {
     ImmutableList.Builder<Jars> builder = ImmutableList.builder();
     for (Object o : array) {
-      builder.add(new Jars((JSONObject) o));
+      builder.add(Jars.fromJson((JSONObject) o));
     }
     return builder.build();
   }
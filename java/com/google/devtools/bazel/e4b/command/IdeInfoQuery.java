@@ -0,0 +1,198 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.command;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Computes the IDE build information of a list of targets from the analysis phase only, without
+ * building anything, so that a classpath is available before the IDE build information aspect has
+ * built the jars.
+ *
+ * <p>
+ * It combines the output of two commands: <code>bazel query --output=xml</code> gives the kind,
+ * the build file, the sources and the dependencies of the targets and
+ * <code>bazel cquery --output=starlark</code> with the <code>e4b_cquery.bzl</code> formatter gives
+ * the jars of the Java targets. The jar paths are the ones the aspect reports, the jars themselves
+ * are missing until they are built. The formatter needs Bazel {@link #MIN_MAJOR_VERSION} or later
+ * (for <code>providers()</code> and <code>json.encode</code>).
+ */
+final class IdeInfoQuery {
+
+  /** Name of the cquery output formatter, next to the aspect. */
+  static final String FORMATTER = "e4b_cquery.bzl";
+
+  /** The first major version of Bazel supporting the formatter. */
+  static final int MIN_MAJOR_VERSION = 6;
+
+  // The attributes followed by the aspect, see e4b_aspect.bzl.
+  private static final ImmutableSet<String> DEPENDENCY_ATTRIBUTES =
+      ImmutableSet.of("deps", "runtime_deps", "exports");
+  private static final Pattern LINE_AND_COLUMN = Pattern.compile("(:[0-9]+)+$");
+  private static final Pattern RELEASE = Pattern.compile("^release ([0-9]+)\\.");
+
+  private IdeInfoQuery() {}
+
+  /**
+   * Returns true if the Bazel <code>release</code> (as given by <code>bazel info release</code>,
+   * e.g. "release 7.1.0") supports the formatter. Development versions are not supported.
+   */
+  static boolean isSupported(String release) {
+    if (release == null) {
+      return false;
+    }
+    Matcher matcher = RELEASE.matcher(release);
+    return matcher.find() && Integer.parseInt(matcher.group(1)) >= MIN_MAJOR_VERSION;
+  }
+
+  /** Returns the arguments of the query command for <code>targets</code>. */
+  static ImmutableList<String> getQueryArguments(Collection<String> targets) {
+    return ImmutableList.of("query", "--output=xml", "--noimplicit_deps",
+        "deps(set(" + String.join(" ", targets) + "))");
+  }
+
+  /**
+   * Returns the arguments of the cquery command for <code>targets</code> with the additional
+   * build <code>flags</code>, using the formatter in <code>aspectWorkspace</code>.
+   */
+  static ImmutableList<String> getCqueryArguments(Collection<String> targets, List<String> flags,
+      File aspectWorkspace) {
+    return ImmutableList.<String>builder().add("cquery").addAll(flags)
+        .add("--output=starlark", "--starlark:file=" + new File(aspectWorkspace, FORMATTER),
+            "deps(set(" + String.join(" ", targets) + "))")
+        .build();
+  }
+
+  /**
+   * Returns the IDE build information (keyed by label) of the Java targets present in both the
+   * output of the query command and the output of the cquery command.
+   *
+   * @throws IOException if the output of the query cannot be parsed.
+   */
+  static ImmutableMap<String, IdeBuildInfo> parse(String queryXml, List<String> cqueryLines,
+      File workspaceRoot) throws IOException {
+    Map<String, Element> rules = parseRules(queryXml);
+    ImmutableMap.Builder<String, IdeBuildInfo> infos = ImmutableMap.builder();
+    for (String line : cqueryLines) {
+      if (line.isEmpty()) {
+        continue;
+      }
+      JSONObject object;
+      try {
+        object = new JSONObject(line);
+      } catch (JSONException e) {
+        continue;
+      }
+      String label = object.optString("label", "");
+      Element rule = rules.remove(label);
+      if (rule != null) {
+        object.put("kind", rule.getAttribute("class"));
+        object.put("build_file_artifact_location",
+            getBuildFile(rule.getAttribute("location"), workspaceRoot));
+        object.put("dependencies", new JSONArray(getLabels(rule, DEPENDENCY_ATTRIBUTES)));
+        object.put("sources", new JSONArray(getSources(rule)));
+        if (!object.has("jars")) {
+          object.put("jars", new JSONArray());
+        }
+        if (!object.has("generated_jars")) {
+          object.put("generated_jars", new JSONArray());
+        }
+        infos.put(label, new IdeBuildInfo(object));
+      }
+    }
+    return infos.build();
+  }
+
+  private static Map<String, Element> parseRules(String xml) throws IOException {
+    NodeList nodes;
+    try {
+      nodes = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+          .parse(new InputSource(new StringReader(xml))).getElementsByTagName("rule");
+    } catch (ParserConfigurationException | SAXException e) {
+      throw new IOException("Unable to parse the output of bazel query", e);
+    }
+    Map<String, Element> rules = new HashMap<>();
+    for (int i = 0; i < nodes.getLength(); i++) {
+      Element rule = (Element) nodes.item(i);
+      rules.put(rule.getAttribute("name"), rule);
+    }
+    return rules;
+  }
+
+  // Returns the labels in the list attributes of rule named after one of the attributes.
+  private static ImmutableList<String> getLabels(Element rule, Collection<String> attributes) {
+    ImmutableList.Builder<String> labels = ImmutableList.builder();
+    for (Node n = rule.getFirstChild(); n != null; n = n.getNextSibling()) {
+      if (n instanceof Element && ((Element) n).getTagName().equals("list")
+          && attributes.contains(((Element) n).getAttribute("name"))) {
+        NodeList values = ((Element) n).getElementsByTagName("label");
+        for (int i = 0; i < values.getLength(); i++) {
+          labels.add(((Element) values.item(i)).getAttribute("value"));
+        }
+      }
+    }
+    return labels.build();
+  }
+
+  // The sources of the main repository, as paths relative to the workspace root like the aspect
+  // reports them.
+  private static ImmutableList<String> getSources(Element rule) {
+    ImmutableList.Builder<String> sources = ImmutableList.builder();
+    for (String label : getLabels(rule, ImmutableSet.of("srcs"))) {
+      if (label.startsWith("@//")) {
+        label = label.substring(1);
+      }
+      if (label.startsWith("//")) {
+        int colon = label.indexOf(':');
+        String pkg = colon < 0 ? label.substring(2) : label.substring(2, colon);
+        String name = colon < 0 ? label.substring(label.lastIndexOf('/') + 1)
+            : label.substring(colon + 1);
+        sources.add(pkg.isEmpty() ? name : pkg + "/" + name);
+      }
+    }
+    return sources.build();
+  }
+
+  // The location of a rule is the absolute path of its build file with the line and column.
+  private static String getBuildFile(String location, File workspaceRoot) {
+    String path = LINE_AND_COLUMN.matcher(location).replaceFirst("");
+    String root = workspaceRoot.getPath() + File.separator;
+    return path.startsWith(root) ? path.substring(root.length()) : path;
+  }
+}
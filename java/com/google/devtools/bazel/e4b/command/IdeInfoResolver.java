@@ -0,0 +1,369 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.command;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+
+/**
+ * Computes the IDE build information for all the Eclipse projects that use the same Bazel
+ * workspace at once.
+ *
+ * <p>
+ * Each project registers the list of targets it tracks and the flags it builds them with. The IDE
+ * build information is computed once for the union of the targets of all the registered projects
+ * that use the same flags and each project gets a projection of that result: the targets matching
+ * its target patterns and their transitive dependencies. Projects using different flags (e.g. a
+ * different <code>--config</code>) get separate results. There is one resolver per
+ * {@link BazelCommand.BazelInstance}.
+ *
+ * <p>
+ * Bazel runs without the lock of the resolver held, so that the last results stay available (e.g.
+ * to the UI thread) while new ones are computed. Concurrent requests for the same targets and flags
+ * share the same computation.
+ */
+public final class IdeInfoResolver {
+
+  /**
+   * The function computing the IDE build information for a list of targets and build flags,
+   * passing the partial results to <code>onShard</code> (if not null) as they are computed. If
+   * <code>analyzeFirst</code> is true, a partial result from the analysis phase only is passed
+   * first.
+   */
+  interface Loader {
+    Map<String, IdeBuildInfo> load(Collection<String> targets, List<String> flags,
+        Consumer<Map<String, IdeBuildInfo>> onShard, boolean analyzeFirst)
+        throws IOException, InterruptedException, BazelNotFoundException;
+  }
+
+  // The targets and flags registered by an owner.
+  private static final class Registration {
+    private final ImmutableList<String> targets;
+    private final ImmutableList<String> flags;
+
+    private Registration(List<String> targets, List<String> flags) {
+      this.targets = ImmutableList.copyOf(targets);
+      this.flags = ImmutableList.copyOf(flags);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Registration)) {
+        return false;
+      }
+      Registration other = (Registration) o;
+      return targets.equals(other.targets) && flags.equals(other.flags);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * targets.hashCode() + flags.hashCode();
+    }
+  }
+
+  // A projection, the result returned by the loader it was computed from and the generation of the
+  // target graph that result was requested at.
+  private static final class Projection {
+    private final Map<String, IdeBuildInfo> source;
+    private final ImmutableMap<String, IdeBuildInfo> infos;
+    private final long generation;
+
+    private Projection(Map<String, IdeBuildInfo> source, ImmutableMap<String, IdeBuildInfo> infos,
+        long generation) {
+      this.source = source;
+      this.infos = infos;
+      this.generation = generation;
+    }
+  }
+
+  // A computation of the loader in progress, shared by the requests for the same targets and flags.
+  private static final class Load {
+    private final long generation;
+    private final CompletableFuture<Map<String, IdeBuildInfo>> result = new CompletableFuture<>();
+    private final List<Consumer<Map<String, IdeBuildInfo>>> listeners =
+        new CopyOnWriteArrayList<>();
+
+    private Load(long generation) {
+      this.generation = generation;
+    }
+  }
+
+  private final Loader loader;
+  private final Map<Object, Registration> registrations = new LinkedHashMap<>();
+  private final Map<Object, Projection> projections = new HashMap<>();
+  // The loads in progress, keyed by their (sorted) targets and flags.
+  private final Map<Registration, Load> loads = new HashMap<>();
+  // Incremented by invalidate(), read without holding the lock of the resolver.
+  private volatile long generation = 0;
+
+  IdeInfoResolver(Loader loader) {
+    this.loader = loader;
+  }
+
+  /**
+   * Register (or update) the list of targets tracked by <code>owner</code>, built without any
+   * additional flags.
+   */
+  public void register(Object owner, List<String> ownerTargets) {
+    register(owner, ownerTargets, ImmutableList.of());
+  }
+
+  /**
+   * Register (or update) the list of targets tracked by <code>owner</code> and the build flags
+   * used to build them.
+   */
+  public synchronized void register(Object owner, List<String> ownerTargets,
+      List<String> ownerFlags) {
+    Registration registration = new Registration(ownerTargets, ownerFlags);
+    if (!registration.equals(registrations.get(owner))) {
+      registrations.put(owner, registration);
+      projections.remove(owner);
+    }
+  }
+
+  /**
+   * Unregister <code>owner</code>, e.g. a closed or deleted project: its targets are not computed
+   * anymore for the other owners.
+   */
+  public synchronized void unregister(Object owner) {
+    registrations.remove(owner);
+    projections.remove(owner);
+  }
+
+  /** Returns true if at least one owner is registered. */
+  synchronized boolean hasRegistrations() {
+    return !registrations.isEmpty();
+  }
+
+  /**
+   * Returns the IDE build information for the targets tracked by <code>owner</code> and their
+   * transitive dependencies. The key of the map is the label of the target.
+   *
+   * @throws BazelNotFoundException
+   */
+  public Map<String, IdeBuildInfo> getIdeInfo(Object owner)
+      throws IOException, InterruptedException, BazelNotFoundException {
+    return getIdeInfo(owner, null);
+  }
+
+  /**
+   * Returns the IDE build information for the targets tracked by <code>owner</code> and their
+   * transitive dependencies, like {@link #getIdeInfo(Object)}. If Bazel has to run, the targets of
+   * <code>owner</code> are analyzed first and, unless it is null, <code>onShard</code> receives
+   * the partial IDE build information for <code>owner</code> as it is computed. The quicker
+   * analysis-only information is only computed if nothing was returned for <code>owner</code>
+   * yet, since its previous information is good enough while Bazel runs otherwise.
+   *
+   * @throws BazelNotFoundException
+   */
+  public Map<String, IdeBuildInfo> getIdeInfo(Object owner,
+      Consumer<Map<String, IdeBuildInfo>> onShard)
+      throws IOException, InterruptedException, BazelNotFoundException {
+    while (true) {
+      Registration registration;
+      Projection projection;
+      ImmutableList<String> targets;
+      Registration key;
+      Load load;
+      boolean loading = false;
+      Consumer<Map<String, IdeBuildInfo>> listener = null;
+      synchronized (this) {
+        registration = registrations.get(owner);
+        if (registration == null) {
+          return ImmutableMap.of();
+        }
+        projection = projections.get(owner);
+        targets = getAllTargets(registration);
+        key = new Registration(ImmutableSortedSet.copyOf(targets).asList(), registration.flags);
+        load = loads.get(key);
+        if (load == null) {
+          load = new Load(generation);
+          loads.put(key, load);
+          loading = true;
+        }
+        if (onShard != null) {
+          Registration r = registration;
+          listener = partial -> onShard.accept(project(partial, r.targets));
+          load.listeners.add(listener);
+        }
+      }
+      Map<String, IdeBuildInfo> result;
+      try {
+        if (loading) {
+          result = load(key, load, targets, onShard != null && projection == null);
+        } else {
+          result = await(load);
+          if (result == null) {
+            // The thread running the load was interrupted, not this one: load again.
+            continue;
+          }
+        }
+      } finally {
+        if (listener != null) {
+          load.listeners.remove(listener);
+        }
+      }
+      ImmutableMap<String, IdeBuildInfo> infos =
+          projection != null && projection.source == result ? projection.infos
+              : project(result, registration.targets);
+      synchronized (this) {
+        Projection last = projections.get(owner);
+        if (registration.equals(registrations.get(owner))
+            && (last == null || last.generation <= load.generation)) {
+          projections.put(owner, new Projection(result, infos, load.generation));
+        }
+      }
+      return infos;
+    }
+  }
+
+  // Runs load in the calling thread, passing its partial results to the listeners of load. The
+  // loader caches its results per targets and flags so this only run Bazel when the union of
+  // targets changed or the cache was invalidated.
+  private Map<String, IdeBuildInfo> load(Registration key, Load load,
+      ImmutableList<String> targets, boolean analyzeFirst)
+      throws IOException, InterruptedException, BazelNotFoundException {
+    Map<String, IdeBuildInfo> result;
+    try {
+      result = loader.load(targets, key.flags, partial -> {
+        for (Consumer<Map<String, IdeBuildInfo>> l : load.listeners) {
+          l.accept(partial);
+        }
+      }, analyzeFirst);
+    } catch (IOException | InterruptedException | BazelNotFoundException | RuntimeException e) {
+      removeLoad(key, load);
+      load.result.completeExceptionally(e);
+      throw e;
+    }
+    // Removed first so that the requests following an invalidation do not get this result.
+    removeLoad(key, load);
+    load.result.complete(result);
+    return result;
+  }
+
+  private synchronized void removeLoad(Registration key, Load load) {
+    loads.remove(key, load);
+  }
+
+  // Waits for the load run by another request. Returns null if the thread running it was
+  // interrupted.
+  private static Map<String, IdeBuildInfo> await(Load load)
+      throws IOException, InterruptedException, BazelNotFoundException {
+    try {
+      return load.result.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof InterruptedException) {
+        return null;
+      } else if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof BazelNotFoundException) {
+        throw (BazelNotFoundException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  /**
+   * Returns the IDE build information last returned by {@link #getIdeInfo(Object)} for
+   * <code>owner</code>, without running Bazel. The result might be out of date and is null if the
+   * information was never computed.
+   */
+  public synchronized Map<String, IdeBuildInfo> getLastIdeInfo(Object owner) {
+    Projection projection = projections.get(owner);
+    return projection == null ? null : projection.infos;
+  }
+
+  /**
+   * Returns the IDE build information last returned by {@link #getIdeInfo(Object)} for
+   * <code>owner</code> like {@link #getLastIdeInfo(Object)}, but only if the target graph did not
+   * change since it was computed (see {@link #invalidate()}). Returns null otherwise.
+   */
+  public synchronized Map<String, IdeBuildInfo> getCurrentIdeInfo(Object owner) {
+    Projection projection = projections.get(owner);
+    return projection == null || projection.generation != generation ? null : projection.infos;
+  }
+
+  /**
+   * Record that the target graph changed (e.g. a BUILD file was edited): the IDE build information
+   * computed so far is only returned by {@link #getLastIdeInfo(Object)} until it is computed
+   * again. Does not wait for a running computation.
+   */
+  public void invalidate() {
+    generation++;
+  }
+
+  // The targets of all the owners using the flags of registration, its own targets first so that
+  // they are analyzed first.
+  private ImmutableList<String> getAllTargets(Registration registration) {
+    Set<String> all = new LinkedHashSet<>(registration.targets);
+    for (Registration r : registrations.values()) {
+      if (r.flags.equals(registration.flags)) {
+        all.addAll(r.targets);
+      }
+    }
+    return ImmutableList.copyOf(all);
+  }
+
+  /**
+   * Returns the subset of <code>infos</code> that is reachable from the targets matching one of the
+   * <code>patterns</code>.
+   */
+  static ImmutableMap<String, IdeBuildInfo> project(Map<String, IdeBuildInfo> infos,
+      List<String> patterns) {
+    ImmutableList.Builder<TargetPattern> builder = ImmutableList.builder();
+    for (String p : patterns) {
+      builder.add(TargetPattern.parse(p));
+    }
+    ImmutableList<TargetPattern> parsed = builder.build();
+    Deque<String> queue = new ArrayDeque<>();
+    for (String label : infos.keySet()) {
+      for (TargetPattern p : parsed) {
+        if (p.matches(label)) {
+          queue.add(label);
+          break;
+        }
+      }
+    }
+    Map<String, IdeBuildInfo> result = new LinkedHashMap<>();
+    while (!queue.isEmpty()) {
+      String label = queue.poll();
+      IdeBuildInfo info = infos.get(label);
+      if (info != null && !result.containsKey(label)) {
+        result.put(label, info);
+        queue.addAll(info.getDeps());
+      }
+    }
+    return ImmutableMap.copyOf(result);
+  }
+}
@@ -0,0 +1,96 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.command;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Tracks the use of keys (e.g. the workspaces on which Bazel runs) to find the ones that have not
+ * been used for a while. A key is in use from {@link #begin} to the matching {@link #end}, and is
+ * never idle while in use.
+ */
+final class IdleTracker<K> {
+
+  private static final class Usage {
+    private long lastUse;
+    private int running = 0;
+
+    private Usage(long lastUse) {
+      this.lastUse = lastUse;
+    }
+  }
+
+  private final LongSupplier clock;
+  private final Map<K, Usage> usages = new HashMap<>();
+
+  IdleTracker(LongSupplier clock) {
+    this.clock = clock;
+  }
+
+  /** Record a use of <code>key</code>. */
+  synchronized void touch(K key) {
+    getUsage(key).lastUse = clock.getAsLong();
+  }
+
+  /** Record the start of a use of <code>key</code>, to be ended by {@link #end}. */
+  synchronized void begin(K key) {
+    Usage usage = getUsage(key);
+    usage.lastUse = clock.getAsLong();
+    usage.running++;
+  }
+
+  /** Record the end of a use of <code>key</code> started by {@link #begin}. */
+  synchronized void end(K key) {
+    Usage usage = getUsage(key);
+    usage.lastUse = clock.getAsLong();
+    usage.running = Math.max(0, usage.running - 1);
+  }
+
+  /** Forget <code>key</code> until its next use. */
+  synchronized void remove(K key) {
+    usages.remove(key);
+  }
+
+  /**
+   * Returns the keys that are not in use and were last used at least <code>idleMillis</code>
+   * milliseconds ago, or an empty list if <code>idleMillis</code> is not positive.
+   */
+  synchronized ImmutableList<K> getIdle(long idleMillis) {
+    if (idleMillis <= 0) {
+      return ImmutableList.of();
+    }
+    long now = clock.getAsLong();
+    ImmutableList.Builder<K> builder = ImmutableList.builder();
+    for (Map.Entry<K, Usage> e : usages.entrySet()) {
+      if (e.getValue().running == 0 && now - e.getValue().lastUse >= idleMillis) {
+        builder.add(e.getKey());
+      }
+    }
+    return builder.build();
+  }
+
+  private Usage getUsage(K key) {
+    Usage usage = usages.get(key);
+    if (usage == null) {
+      usage = new Usage(clock.getAsLong());
+      usages.put(key, usage);
+    }
+    return usage;
+  }
+}
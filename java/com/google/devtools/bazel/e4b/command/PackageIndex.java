@@ -0,0 +1,409 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.command;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * An in-memory index of the packages (directories containing a BUILD or BUILD.bazel file) of a
+ * workspace, for the completion and the expansion of target patterns without running Bazel.
+ *
+ * <p>
+ * The workspace is crawled in parallel in the background the first time the index is used,
+ * skipping the directories listed in <code>.bazelignore</code>, the Bazel convenience symlinks and
+ * the version control metadata. The index is then kept up to date by watching the directories of
+ * the workspace. If the directories cannot all be watched (e.g. the limit of inotify watches is
+ * reached, or the file system is only watched by polling, like on macOS), the workspace is crawled
+ * again when the index is used after {@link #REFRESH_INTERVAL_MILLIS}. A crawl builds a new index
+ * that replaces the previous one once complete, so the index is never seen partially built.
+ *
+ * <p>
+ * Paths are relative to the workspace root, separated by '/', the root being the empty string.
+ */
+final class PackageIndex implements AutoCloseable {
+
+  static final long REFRESH_INTERVAL_MILLIS = 30000;
+
+  private static final ImmutableSet<String> BUILD_FILE_NAMES =
+      ImmutableSet.of("BUILD", "BUILD.bazel");
+  private static final ImmutableSet<String> SKIPPED_DIRECTORIES =
+      ImmutableSet.of(".git", ".hg", ".svn");
+  private static final ForkJoinPool CRAWLER = new ForkJoinPool();
+  // The watch service of the JDK where there is no native one: it would stat every watched
+  // directory every few seconds.
+  private static final String POLLING_WATCH_SERVICE = "sun.nio.fs.PollingWatchService";
+
+  // The packages and the sub-directories of each indexed directory.
+  private static final class Snapshot {
+    private final NavigableSet<String> packages = new ConcurrentSkipListSet<>();
+    private final Map<String, Set<String>> directories = new ConcurrentHashMap<>();
+  }
+
+  private final Path workspaceRoot;
+  private volatile Snapshot index = new Snapshot();
+  // The snapshot being built by the running crawl, which the events are also applied to.
+  private volatile Snapshot building = null;
+  private volatile ImmutableSet<String> ignored = ImmutableSet.of();
+
+  private WatchService watcher;
+  private final Map<WatchKey, String> watchKeys = new ConcurrentHashMap<>();
+  private volatile boolean watching = false;
+  private boolean closed = false;
+  private Future<?> firstCrawl;
+  private volatile Future<?> crawl;
+  private volatile long crawlTime;
+
+  /**
+   * Create the index of the workspace <code>workspaceRoot</code>. The workspace is crawled and
+   * watched from the first use of the index.
+   */
+  PackageIndex(Path workspaceRoot) {
+    this.workspaceRoot = workspaceRoot;
+  }
+
+  /** Returns true if the directory <code>path</code> is a package. */
+  boolean isPackage(String path) throws InterruptedException {
+    await();
+    return index.packages.contains(path);
+  }
+
+  /**
+   * Returns the names of the sub-directories of the directory <code>path</code>, in lexicographic
+   * order, or an empty list if it is not an indexed directory.
+   */
+  ImmutableList<String> getSubdirectories(String path) throws InterruptedException {
+    await();
+    Set<String> children = index.directories.get(path);
+    return children == null ? ImmutableList.of() : ImmutableList.sortedCopyOf(children);
+  }
+
+  /**
+   * Returns the packages under the directory <code>path</code>, including <code>path</code>
+   * itself, in lexicographic order (the packages matched by <code>//path/...</code>).
+   */
+  ImmutableList<String> getPackagesUnder(String path) throws InterruptedException {
+    await();
+    NavigableSet<String> packages = index.packages;
+    if (path.isEmpty()) {
+      return ImmutableList.copyOf(packages);
+    }
+    ImmutableList.Builder<String> builder = ImmutableList.builder();
+    if (packages.contains(path)) {
+      builder.add(path);
+    }
+    // '0' is the character following '/'.
+    builder.addAll(packages.subSet(path + "/", true, path + "0", false));
+    return builder.build();
+  }
+
+  /**
+   * Returns true if there is a package under the directory <code>path</code>, including
+   * <code>path</code> itself.
+   */
+  boolean hasPackagesUnder(String path) throws InterruptedException {
+    await();
+    NavigableSet<String> packages = index.packages;
+    if (path.isEmpty()) {
+      return !packages.isEmpty();
+    }
+    return packages.contains(path)
+        || !packages.subSet(path + "/", true, path + "0", false).isEmpty();
+  }
+
+  @Override
+  public synchronized void close() {
+    closed = true;
+    stopWatching();
+  }
+
+  /**
+   * Release the index and stop watching the workspace, e.g. because the workspace is idle. The
+   * workspace is crawled and watched again on the next use of the index.
+   */
+  synchronized void release() {
+    stopWatching();
+    watchKeys.clear();
+    index = new Snapshot();
+    building = null;
+    firstCrawl = null;
+  }
+
+  private synchronized void stopWatching() {
+    watching = false;
+    if (watcher != null) {
+      try {
+        watcher.close();
+      } catch (IOException e) {
+        // Nothing to do.
+      }
+      watcher = null;
+    }
+  }
+
+  // Start watching and crawling the workspace, unless already started.
+  private synchronized Future<?> start() {
+    if (firstCrawl != null) {
+      return firstCrawl;
+    }
+    if (!closed) {
+      try {
+        watcher = workspaceRoot.getFileSystem().newWatchService();
+        if (watcher.getClass().getName().equals(POLLING_WATCH_SERVICE)) {
+          watcher.close();
+          watcher = null;
+        }
+      } catch (IOException | UnsupportedOperationException e) {
+        // Fall back to crawling periodically.
+      }
+      watching = watcher != null;
+      if (watching) {
+        WatchService service = watcher;
+        Thread thread =
+            new Thread(() -> processEvents(service), "Bazel package index " + workspaceRoot);
+        thread.setDaemon(true);
+        thread.start();
+      }
+    }
+    firstCrawl = recrawl();
+    return firstCrawl;
+  }
+
+  private synchronized Future<?> recrawl() {
+    crawl = CRAWLER.submit(this::crawlAll);
+    return crawl;
+  }
+
+  // Wait for the first crawl, starting a new one if the index is not watched and is too old. The
+  // later crawls run in the background, the previous index being used until they complete.
+  private void await() throws InterruptedException {
+    Future<?> first = start();
+    if (!watching && crawl.isDone()
+        && System.currentTimeMillis() - crawlTime > REFRESH_INTERVAL_MILLIS) {
+      synchronized (this) {
+        if (crawl.isDone()) {
+          recrawl();
+        }
+      }
+    }
+    try {
+      first.get();
+    } catch (ExecutionException e) {
+      // The crawl is best effort, use what was indexed.
+    }
+  }
+
+  private void crawlAll() {
+    crawlTime = System.currentTimeMillis();
+    ignored = readBazelIgnore();
+    Snapshot snapshot = new Snapshot();
+    building = snapshot;
+    CRAWLER.invoke(new Crawl(snapshot, ""));
+    index = snapshot;
+    if (building == snapshot) {
+      building = null;
+    }
+  }
+
+  // The snapshots to update on a change of the workspace.
+  private List<Snapshot> getSnapshots() {
+    Snapshot current = index;
+    Snapshot next = building;
+    return next == null || next == current ? ImmutableList.of(current)
+        : ImmutableList.of(current, next);
+  }
+
+  // Indexes a directory and, in parallel, its sub-directories.
+  private final class Crawl extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final Snapshot snapshot;
+    private final String path;
+
+    Crawl(Snapshot snapshot, String path) {
+      this.snapshot = snapshot;
+      this.path = path;
+    }
+
+    @Override
+    protected void compute() {
+      Path directory = resolve(path);
+      watch(directory, path);
+      Set<String> children = ConcurrentHashMap.newKeySet();
+      snapshot.directories.put(path, children);
+      List<Crawl> tasks = new ArrayList<>();
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+        for (Path child : stream) {
+          String name = child.getFileName().toString();
+          BasicFileAttributes attributes = Files.readAttributes(child,
+              BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+          if (attributes.isDirectory()) {
+            String childPath = path.isEmpty() ? name : path + "/" + name;
+            if (!isSkipped(childPath, name)) {
+              children.add(name);
+              tasks.add(new Crawl(snapshot, childPath));
+            }
+          } else if (BUILD_FILE_NAMES.contains(name)) {
+            snapshot.packages.add(path);
+          }
+        }
+      } catch (IOException e) {
+        // The directory was deleted or cannot be read, index what was found.
+      }
+      invokeAll(tasks);
+    }
+  }
+
+  private boolean isSkipped(String path, String name) {
+    return SKIPPED_DIRECTORIES.contains(name) || ignored.contains(path)
+        || (path.equals(name) && name.startsWith("bazel-"));
+  }
+
+  private ImmutableSet<String> readBazelIgnore() {
+    Path file = workspaceRoot.resolve(".bazelignore");
+    if (!Files.isRegularFile(file)) {
+      return ImmutableSet.of();
+    }
+    ImmutableSet.Builder<String> builder = ImmutableSet.builder();
+    try {
+      for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+        String entry = line.trim();
+        while (entry.endsWith("/")) {
+          entry = entry.substring(0, entry.length() - 1);
+        }
+        if (!entry.isEmpty() && !entry.startsWith("#")) {
+          builder.add(entry);
+        }
+      }
+    } catch (IOException e) {
+      // Index everything.
+    }
+    return builder.build();
+  }
+
+  private Path resolve(String path) {
+    return path.isEmpty() ? workspaceRoot : workspaceRoot.resolve(path);
+  }
+
+  private void watch(Path directory, String path) {
+    WatchService service = watcher;
+    if (!watching || service == null) {
+      return;
+    }
+    try {
+      watchKeys.put(directory.register(service, ENTRY_CREATE, ENTRY_DELETE), path);
+    } catch (IOException | ClosedWatchServiceException e) {
+      // Too many directories to watch, crawl periodically instead.
+      close();
+    }
+  }
+
+  private void processEvents(WatchService service) {
+    while (watching && watcher == service) {
+      WatchKey key;
+      try {
+        key = service.take();
+      } catch (InterruptedException | ClosedWatchServiceException e) {
+        return;
+      }
+      String path = watchKeys.get(key);
+      for (WatchEvent<?> event : key.pollEvents()) {
+        if (event.kind() == OVERFLOW) {
+          recrawl();
+        } else if (path != null) {
+          onEvent(path, event.kind(), event.context().toString());
+        }
+      }
+      if (!key.reset()) {
+        watchKeys.remove(key);
+      }
+    }
+  }
+
+  private void onEvent(String path, WatchEvent.Kind<?> kind, String name) {
+    String childPath = path.isEmpty() ? name : path + "/" + name;
+    if (path.isEmpty() && name.equals(".bazelignore")) {
+      recrawl();
+      return;
+    }
+    for (Snapshot snapshot : getSnapshots()) {
+      if (BUILD_FILE_NAMES.contains(name)) {
+        if (kind == ENTRY_CREATE || hasBuildFile(path)) {
+          snapshot.packages.add(path);
+        } else {
+          snapshot.packages.remove(path);
+        }
+      } else if (kind == ENTRY_CREATE) {
+        Set<String> children = snapshot.directories.get(path);
+        if (children != null && Files.isDirectory(resolve(childPath), LinkOption.NOFOLLOW_LINKS)
+            && !isSkipped(childPath, name)) {
+          children.add(name);
+          CRAWLER.submit(new Crawl(snapshot, childPath));
+        }
+      } else if (kind == ENTRY_DELETE) {
+        Set<String> children = snapshot.directories.get(path);
+        if (children != null && children.remove(name)) {
+          removeTree(snapshot, childPath);
+        }
+      }
+    }
+  }
+
+  private boolean hasBuildFile(String path) {
+    for (String name : BUILD_FILE_NAMES) {
+      if (Files.isRegularFile(resolve(path).resolve(name))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void removeTree(Snapshot snapshot, String path) {
+    Set<String> children = snapshot.directories.remove(path);
+    snapshot.packages.remove(path);
+    if (children != null) {
+      for (String child : children) {
+        removeTree(snapshot, path + "/" + child);
+      }
+    }
+  }
+}
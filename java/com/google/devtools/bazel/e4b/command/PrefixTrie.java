@@ -0,0 +1,78 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.command;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A set of strings supporting the lookup of all the strings starting with a given prefix in time
+ * proportional to the length of the prefix and the number of results.
+ */
+final class PrefixTrie {
+
+  private static final class Node {
+    // Sorted so that the lookup returns the strings in lexicographic order.
+    private final Map<Character, Node> children = new TreeMap<>();
+    private boolean terminal = false;
+  }
+
+  private final Node root = new Node();
+  private int size = 0;
+
+  /** Add <code>s</code> to the set. */
+  void add(String s) {
+    Node node = root;
+    for (int i = 0; i < s.length(); i++) {
+      node = node.children.computeIfAbsent(s.charAt(i), c -> new Node());
+    }
+    if (!node.terminal) {
+      node.terminal = true;
+      size++;
+    }
+  }
+
+  /** Returns the number of strings of the set. */
+  int size() {
+    return size;
+  }
+
+  /** Returns the strings of the set that start with <code>prefix</code>, in lexicographic order. */
+  ImmutableList<String> getWithPrefix(String prefix) {
+    Node node = root;
+    for (int i = 0; i < prefix.length() && node != null; i++) {
+      node = node.children.get(prefix.charAt(i));
+    }
+    ImmutableList.Builder<String> builder = ImmutableList.builder();
+    if (node != null) {
+      collect(node, new StringBuilder(prefix), builder);
+    }
+    return builder.build();
+  }
+
+  private static void collect(Node node, StringBuilder current,
+      ImmutableList.Builder<String> builder) {
+    if (node.terminal) {
+      builder.add(current.toString());
+    }
+    for (Map.Entry<Character, Node> child : node.children.entrySet()) {
+      current.append(child.getKey().charValue());
+      collect(child.getValue(), current, builder);
+      current.setLength(current.length() - 1);
+    }
+  }
+}
@@ -0,0 +1,213 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.command;
+
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A streaming parser for the progress lines that Bazel prints on its standard error, e.g.
+ * {@code Analyzing: 3 targets (12 packages loaded)} or {@code [1,234 / 5,678] Compiling Foo.java}.
+ *
+ * <p>
+ * Each line passed to {@link #accept(String)} that changes the progress of the command produces a
+ * new {@link Progress} snapshot for the consumer. Besides the phase and the number of actions, the
+ * snapshot gives the action throughput and the critical path, which tell a slow analysis from a
+ * slow execution.
+ */
+public final class ProgressParser {
+
+  /** The phase of a Bazel command. */
+  public static enum Phase {
+    LOADING, ANALYSIS, EXECUTION, DONE
+  }
+
+  /** A snapshot of the progress of a Bazel command. */
+  public static final class Progress {
+    private final Phase phase;
+    private final String message;
+    private final int targets;
+    private final int actionsDone;
+    private final int actionsTotal;
+    private final double actionsPerSecond;
+    private final double criticalPathSeconds;
+
+    private Progress(Phase phase, String message, int targets, int actionsDone, int actionsTotal,
+        double actionsPerSecond, double criticalPathSeconds) {
+      this.phase = phase;
+      this.message = message;
+      this.targets = targets;
+      this.actionsDone = actionsDone;
+      this.actionsTotal = actionsTotal;
+      this.actionsPerSecond = actionsPerSecond;
+      this.criticalPathSeconds = criticalPathSeconds;
+    }
+
+    /** Returns the current phase of the command. */
+    public Phase getPhase() {
+      return phase;
+    }
+
+    /** Returns the last progress message printed by Bazel, without the action counts. */
+    public String getMessage() {
+      return message;
+    }
+
+    /** Returns the number of targets being analyzed, or 0 if unknown. */
+    public int getTargets() {
+      return targets;
+    }
+
+    /** Returns the number of actions done in the execution phase. */
+    public int getActionsDone() {
+      return actionsDone;
+    }
+
+    /**
+     * Returns the number of actions known so far in the execution phase. That number grows during
+     * the execution phase.
+     */
+    public int getActionsTotal() {
+      return actionsTotal;
+    }
+
+    /** Returns the recent number of actions completed per second, or 0 if unknown. */
+    public double getActionsPerSecond() {
+      return actionsPerSecond;
+    }
+
+    /** Returns the duration of the critical path of the build, or 0 until Bazel reports it. */
+    public double getCriticalPathSeconds() {
+      return criticalPathSeconds;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder builder = new StringBuilder();
+      if (phase == Phase.EXECUTION) {
+        builder.append('[').append(actionsDone).append(" / ").append(actionsTotal).append("] ");
+      }
+      builder.append(message);
+      if (phase == Phase.EXECUTION && actionsPerSecond > 0) {
+        builder.append(String.format(" (%.1f actions/s)", actionsPerSecond));
+      }
+      if (criticalPathSeconds > 0) {
+        builder.append(String.format(" (critical path: %.2fs)", criticalPathSeconds));
+      }
+      return builder.toString();
+    }
+  }
+
+  private static final Pattern ANSI_ESCAPE = Pattern.compile("\u001B\\[[;\\d]*[A-Za-z]");
+  private static final Pattern ACTIONS =
+      Pattern.compile("^\\[([0-9,]+) / ([0-9,]+)\\]\\s*(.*)$");
+  private static final Pattern LOADING = Pattern.compile("^Loading:\\s*(.*)$");
+  private static final Pattern ANALYZING =
+      Pattern.compile("^Analy[sz]ing:\\s*([0-9,]+) targets?\\s*(.*)$");
+  private static final Pattern ANALYZED =
+      Pattern.compile("^INFO: Analy[sz]ed ([0-9,]+) targets?.*$");
+  private static final Pattern CRITICAL_PATH = Pattern.compile("Critical Path: ([0-9.]+)s");
+  private static final Pattern COMPLETED =
+      Pattern.compile("^INFO: Build completed.*$|^FAILED: Build did NOT complete.*$");
+
+  // Smoothing factor of the throughput, weighting the most recent rate.
+  private static final double SMOOTHING = 0.3;
+
+  private final Consumer<Progress> consumer;
+  private final LongSupplier clock;
+
+  private Phase phase = Phase.LOADING;
+  private String message = "";
+  private int targets = 0;
+  private int actionsDone = 0;
+  private int actionsTotal = 0;
+  private double actionsPerSecond = 0;
+  private double criticalPathSeconds = 0;
+  // Time and number of actions done of the last throughput sample.
+  private long sampleTime = -1;
+  private int sampleActions = 0;
+
+  /**
+   * Create a parser passing the progress to <code>consumer</code>.
+   */
+  public ProgressParser(Consumer<Progress> consumer) {
+    this(consumer, System::currentTimeMillis);
+  }
+
+  /**
+   * Create a parser passing the progress to <code>consumer</code> and using <code>clock</code>
+   * (in milliseconds) to compute the throughput.
+   */
+  ProgressParser(Consumer<Progress> consumer, LongSupplier clock) {
+    this.consumer = consumer;
+    this.clock = clock;
+  }
+
+  /**
+   * Parse the next line of the standard error of a Bazel command.
+   */
+  public void accept(String line) {
+    // Keep only the last update of lines rewritten with carriage returns.
+    String text = ANSI_ESCAPE.matcher(line.substring(line.lastIndexOf('\r') + 1)).replaceAll("")
+        .trim();
+    Matcher m;
+    if ((m = ACTIONS.matcher(text)).matches()) {
+      updateActions(parseInt(m.group(1)), parseInt(m.group(2)));
+      phase = Phase.EXECUTION;
+      message = m.group(3);
+    } else if ((m = ANALYZING.matcher(text)).matches()) {
+      phase = Phase.ANALYSIS;
+      targets = parseInt(m.group(1));
+      message = "Analyzing " + targets + (targets == 1 ? " target " : " targets ") + m.group(2);
+    } else if ((m = ANALYZED.matcher(text)).matches()) {
+      phase = Phase.EXECUTION;
+      targets = parseInt(m.group(1));
+      message = text.substring(6);
+    } else if ((m = LOADING.matcher(text)).matches()) {
+      phase = Phase.LOADING;
+      message = "Loading: " + m.group(1);
+    } else if ((m = CRITICAL_PATH.matcher(text)).find()) {
+      criticalPathSeconds = Double.parseDouble(m.group(1));
+    } else if (COMPLETED.matcher(text).matches()) {
+      phase = Phase.DONE;
+      message = text.startsWith("INFO: ") ? text.substring(6) : text;
+    } else {
+      return;
+    }
+    consumer.accept(new Progress(phase, message.trim(), targets, actionsDone, actionsTotal,
+        actionsPerSecond, criticalPathSeconds));
+  }
+
+  private void updateActions(int done, int total) {
+    long now = clock.getAsLong();
+    if (sampleTime >= 0 && now > sampleTime && done >= sampleActions) {
+      double rate = (done - sampleActions) * 1000.0 / (now - sampleTime);
+      actionsPerSecond =
+          actionsPerSecond == 0 ? rate : SMOOTHING * rate + (1 - SMOOTHING) * actionsPerSecond;
+    }
+    if (sampleTime < 0 || now > sampleTime) {
+      sampleTime = now;
+      sampleActions = done;
+    }
+    actionsDone = done;
+    actionsTotal = total;
+  }
+
+  private static int parseInt(String s) {
+    return Integer.parseInt(s.replace(",", ""));
+  }
+}
@@ -21,6 +21,7 @@ import java.io.UnsupportedEncodingException;
 import java.nio.charset.StandardCharsets;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 import com.google.common.base.Preconditions;
@@ -34,6 +35,7 @@ public class SelectOutputStream extends OutputStream {
 
   private OutputStream output;
   private Function<String, String> selector;
+  private Consumer<String> listener;
   private boolean closed = false;
   private List<String> lines = new LinkedList<>();
   private ByteArrayOutputStream stream = new ByteArrayOutputStream();
@@ -51,9 +53,20 @@ public class SelectOutputStream extends OutputStream {
    * considered as unselected.
    */
   public SelectOutputStream(OutputStream output, Function<String, String> selector) {
+    this(output, selector, null);
+  }
+
+  /**
+   * Create a SelectOutputStream as {@link #SelectOutputStream(OutputStream, Function)} does, also
+   * passing each line, selected or not, to <code>listener</code> as soon as it is complete.
+   * <code>listener</code> can be null.
+   */
+  public SelectOutputStream(OutputStream output, Function<String, String> selector,
+      Consumer<String> listener) {
     super();
     this.output = output;
     this.selector = selector;
+    this.listener = listener;
   }
 
   @Override
@@ -69,8 +82,12 @@ public class SelectOutputStream extends OutputStream {
 
   private void select(boolean appendNewLine) throws UnsupportedEncodingException, IOException {
     String line = null;
+    String content = stream.toString(StandardCharsets.UTF_8.name());
+    if (listener != null && (appendNewLine || !content.isEmpty())) {
+      listener.accept(content);
+    }
     if (selector != null) {
-      line = selector.apply(stream.toString(StandardCharsets.UTF_8.name()));
+      line = selector.apply(content);
     }
 
     if (line != null) {
@@ -0,0 +1,147 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.command;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * An index of the targets of the packages of a workspace for the completion of target patterns.
+ *
+ * <p>
+ * The targets of a package are loaded on the first completion in that package and kept in a
+ * {@link PrefixTrie} until the BUILD file of the package changes, so that the following completions
+ * do not run Bazel. The packages of external repositories have no BUILD file to watch and are kept
+ * for {@link #EXTERNAL_TTL_MILLIS}. Failed loads are not kept.
+ */
+final class TargetCompletionIndex {
+
+  /** How long the targets of a package of an external repository are kept. */
+  static final long EXTERNAL_TTL_MILLIS = 60000;
+
+  /** The function listing the names of the targets of a package. */
+  interface Loader {
+    /** Returns null if the targets could not be loaded, e.g. because Bazel failed. */
+    Collection<String> load(String packageName)
+        throws IOException, InterruptedException, BazelNotFoundException;
+  }
+
+  // The targets of a package and the state of its BUILD file (if any) when they were loaded.
+  private static final class Entry {
+    private final long lastModified;
+    private final long length;
+    private final long loadTime;
+    private final PrefixTrie targets = new PrefixTrie();
+
+    private Entry(File buildFile, long loadTime) {
+      this.lastModified = buildFile == null ? 0 : buildFile.lastModified();
+      this.length = buildFile == null ? 0 : buildFile.length();
+      this.loadTime = loadTime;
+    }
+
+    private boolean isUpToDate(File buildFile, long now) {
+      if (buildFile == null) {
+        return now - loadTime < EXTERNAL_TTL_MILLIS;
+      }
+      return buildFile.lastModified() == lastModified && buildFile.length() == length;
+    }
+  }
+
+  private final File workspaceRoot;
+  private final Loader loader;
+  private final LongSupplier clock;
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+  TargetCompletionIndex(File workspaceRoot, Loader loader) {
+    this(workspaceRoot, loader, System::currentTimeMillis);
+  }
+
+  /**
+   * Create an index using <code>clock</code> (in milliseconds) to expire the packages of external
+   * repositories.
+   */
+  TargetCompletionIndex(File workspaceRoot, Loader loader, LongSupplier clock) {
+    this.workspaceRoot = workspaceRoot;
+    this.loader = loader;
+    this.clock = clock;
+  }
+
+  /**
+   * Returns the names of the targets of the package <code>packageName</code> (e.g.
+   * <code>//foo/bar</code>) that start with <code>prefix</code>.
+   *
+   * @throws BazelNotFoundException
+   */
+  ImmutableList<String> complete(String packageName, String prefix)
+      throws IOException, InterruptedException, BazelNotFoundException {
+    // Not a package of this workspace if there is no BUILD file, e.g. an external repository.
+    File buildFile = getBuildFile(packageName);
+    String key = buildFile == null ? packageName : normalize(packageName);
+    long now = clock.getAsLong();
+    Entry entry = entries.get(key);
+    if (entry == null || !entry.isUpToDate(buildFile, now)) {
+      entry = new Entry(buildFile, now);
+      Collection<String> names = loader.load(packageName);
+      if (names == null) {
+        entries.remove(key);
+        return ImmutableList.of();
+      }
+      for (String name : names) {
+        entry.targets.add(name);
+      }
+      entries.put(key, entry);
+    }
+    return entry.targets.getWithPrefix(prefix);
+  }
+
+  /**
+   * Forget the targets of all the packages.
+   */
+  void clear() {
+    entries.clear();
+  }
+
+  // The same package can be written //foo, @//foo or foo.
+  private static String normalize(String packageName) {
+    String s = packageName.startsWith("@//") ? packageName.substring(1) : packageName;
+    return s.startsWith("//") ? s.substring(2) : s;
+  }
+
+  /**
+   * Returns the BUILD file of the package <code>packageName</code> in the workspace, or null if
+   * it is not a package of the workspace.
+   */
+  File getBuildFile(String packageName) {
+    if (packageName.startsWith("@") && !packageName.startsWith("@//")) {
+      return null;
+    }
+    String path = normalize(packageName);
+    File directory = path.isEmpty() ? workspaceRoot : new File(workspaceRoot, path);
+    // BUILD.bazel takes precedence over BUILD.
+    for (String name : new String[] {"BUILD.bazel", "BUILD"}) {
+      File file = new File(directory, name);
+      if (file.isFile()) {
+        return file;
+      }
+    }
+    return null;
+  }
+}
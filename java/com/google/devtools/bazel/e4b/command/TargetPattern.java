@@ -0,0 +1,141 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.command;
+
+/**
+ * A parsed target pattern of the main repository, as accepted by <code>bazel build</code>, e.g.
+ * {@code //foo:bar}, {@code //foo}, {@code //foo:all}, {@code //foo:*} or {@code //foo/...}.
+ * Patterns can be matched against the labels reported by Bazel without calling Bazel.
+ */
+public final class TargetPattern {
+
+  private final String packageName;
+  private final String targetName; // null for all targets in the package
+  private final boolean recursive;
+
+  private TargetPattern(String packageName, String targetName, boolean recursive) {
+    this.packageName = packageName;
+    this.targetName = targetName;
+    this.recursive = recursive;
+  }
+
+  /**
+   * Parse <code>pattern</code>. Relative patterns (e.g. {@code foo/...}) are considered relative to
+   * the workspace root.
+   */
+  public static TargetPattern parse(String pattern) {
+    String p = stripRepository(pattern.trim());
+    if (p.startsWith("//")) {
+      p = p.substring(2);
+    }
+    String target = null;
+    int colon = p.indexOf(':');
+    if (colon >= 0) {
+      target = p.substring(colon + 1);
+      p = p.substring(0, colon);
+      if (target.equals("all") || target.equals("*") || target.equals("all-targets")) {
+        target = null;
+      }
+    }
+    boolean recursive = false;
+    if (p.equals("...")) {
+      recursive = true;
+      p = "";
+    } else if (p.endsWith("/...")) {
+      recursive = true;
+      p = p.substring(0, p.length() - 4);
+    } else if (colon < 0) {
+      // //foo is a short-hand for //foo:foo
+      target = p.substring(p.lastIndexOf('/') + 1);
+    }
+    return new TargetPattern(p, target, recursive);
+  }
+
+  /**
+   * Returns the package of this pattern (e.g. {@code foo/bar} for {@code //foo/bar:baz}). For
+   * recursive pattern this is the directory under which packages are matched.
+   */
+  public String getPackage() {
+    return packageName;
+  }
+
+  /**
+   * Returns the name of the target designated by this pattern, or null if the pattern designates
+   * several targets.
+   */
+  public String getTargetName() {
+    return targetName;
+  }
+
+  /**
+   * Returns true if this pattern matches packages recursively (e.g. {@code //foo/...}).
+   */
+  public boolean isRecursive() {
+    return recursive;
+  }
+
+  /**
+   * Returns true if this pattern designates only one target.
+   */
+  public boolean isSingleTarget() {
+    return !recursive && targetName != null;
+  }
+
+  /**
+   * Returns true if the package <code>pkg</code> (e.g. {@code foo/bar}) is matched by this pattern.
+   */
+  public boolean matchesPackage(String pkg) {
+    if (recursive) {
+      return packageName.isEmpty() || pkg.equals(packageName)
+          || pkg.startsWith(packageName + "/");
+    }
+    return pkg.equals(packageName);
+  }
+
+  /**
+   * Returns true if <code>label</code> (e.g. {@code //foo:bar}) is matched by this pattern.
+   */
+  public boolean matches(String label) {
+    String l = stripRepository(label);
+    if (!l.startsWith("//")) {
+      return false;
+    }
+    int colon = l.indexOf(':');
+    String pkg = colon < 0 ? l.substring(2) : l.substring(2, colon);
+    String name = colon < 0 ? pkg.substring(pkg.lastIndexOf('/') + 1) : l.substring(colon + 1);
+    return matchesPackage(pkg) && (targetName == null || targetName.equals(name));
+  }
+
+  /**
+   * Returns the canonical form of this pattern (e.g. {@code //foo:bar} or {@code //foo/...}).
+   */
+  @Override
+  public String toString() {
+    if (recursive) {
+      return packageName.isEmpty() ? "//..." : "//" + packageName + "/...";
+    }
+    return "//" + packageName + ":" + (targetName == null ? "all" : targetName);
+  }
+
+  // Labels of the main repository might be printed as @//foo:bar or @@//foo:bar by Bazel.
+  private static String stripRepository(String label) {
+    if (label.startsWith("@@//")) {
+      return label.substring(2);
+    } else if (label.startsWith("@//")) {
+      return label.substring(1);
+    }
+    return label;
+  }
+}
@@ -0,0 +1,299 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.command;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * Expands target patterns (e.g. {@code //foo/...}, {@code //foo:all} or {@code //foo:*}) into
+ * labels like <code>bazel query</code> would, using the {@link PackageIndex} and the
+ * {@link BuildFileScanner} instead of the Bazel server.
+ *
+ * <p>
+ * The packages whose BUILD file the scanner cannot fully understand (e.g. because they use macros)
+ * and the patterns of external repositories are expanded by the fallback, which runs Bazel. The
+ * same information gives the target names for completion and the rules owning a source file.
+ */
+final class TargetPatternExpander {
+
+  /**
+   * The function expanding a target pattern, or a union of target patterns (e.g.
+   * {@code //foo:all + //bar:all}), with Bazel.
+   */
+  interface Fallback {
+    List<String> expand(String pattern)
+        throws IOException, InterruptedException, BazelNotFoundException;
+  }
+
+  /** The maximal number of packages expanded by a single run of the fallback. */
+  static final int FALLBACK_BATCH_SIZE = 50;
+
+  private final File workspaceRoot;
+  private final PackageIndex packageIndex;
+  private final BuildFileScanner scanner;
+  private final Fallback fallback;
+
+  TargetPatternExpander(File workspaceRoot, PackageIndex packageIndex, BuildFileScanner scanner,
+      Fallback fallback) {
+    this.workspaceRoot = workspaceRoot;
+    this.packageIndex = packageIndex;
+    this.scanner = scanner;
+    this.fallback = fallback;
+  }
+
+  /**
+   * Returns the labels of the targets matched by <code>pattern</code>.
+   *
+   * @throws BazelNotFoundException
+   */
+  ImmutableList<String> expand(String pattern)
+      throws IOException, InterruptedException, BazelNotFoundException {
+    Set<String> labels = new LinkedHashSet<>();
+    expand(pattern, labels::addAll);
+    return ImmutableList.copyOf(labels);
+  }
+
+  /**
+   * Expands <code>pattern</code> like {@link #expand(String)}, passing the labels to
+   * <code>consumer</code> as they are found: first the labels of each package understood locally,
+   * then the labels of the other packages, expanded by the fallback in batches of
+   * {@link #FALLBACK_BATCH_SIZE} packages.
+   *
+   * @throws BazelNotFoundException
+   */
+  void expand(String pattern, Consumer<List<String>> consumer)
+      throws IOException, InterruptedException, BazelNotFoundException {
+    String p = pattern.trim();
+    if ((p.startsWith("@") && !p.startsWith("@//")) || p.startsWith("-")) {
+      consumer.accept(fallback.expand(pattern));
+      return;
+    }
+    TargetPattern parsed = TargetPattern.parse(p);
+    boolean allTargets = p.endsWith(":*") || p.endsWith(":all-targets");
+    List<String> packages;
+    if (parsed.isRecursive()) {
+      packages = packageIndex.getPackagesUnder(parsed.getPackage());
+    } else if (packageIndex.isPackage(parsed.getPackage())) {
+      packages = ImmutableList.of(parsed.getPackage());
+    } else {
+      return;
+    }
+    List<String> fallbackPatterns = new ArrayList<>();
+    for (String pkg : packages) {
+      String prefix = "//" + pkg + ":";
+      if (parsed.isSingleTarget()) {
+        BuildFileScanner.BuildFile buildFile = scan(pkg);
+        if (buildFile != null && (buildFile.getRule(parsed.getTargetName()) != null
+            || buildFile.getExportedFiles().contains(parsed.getTargetName()))) {
+          consumer.accept(ImmutableList.of(prefix + parsed.getTargetName()));
+        } else {
+          // Might be a file or a target created by a macro.
+          fallbackPatterns.add(prefix + parsed.getTargetName());
+        }
+        continue;
+      }
+      List<String> names = getTargetNames(pkg, allTargets);
+      if (names == null) {
+        fallbackPatterns.add(prefix + (allTargets ? "*" : "all"));
+      } else if (!names.isEmpty()) {
+        ImmutableList.Builder<String> labels = ImmutableList.builder();
+        for (String name : names) {
+          labels.add(prefix + name);
+        }
+        consumer.accept(labels.build());
+      }
+    }
+    // A single query of several packages costs about as much as a query of one package.
+    for (List<String> batch : Lists.partition(fallbackPatterns, FALLBACK_BATCH_SIZE)) {
+      consumer.accept(fallback.expand(String.join(" + ", batch)));
+    }
+  }
+
+  /**
+   * Returns <code>patterns</code> with the recursive patterns of the main repository (e.g.
+   * {@code //foo/...}) replaced by one pattern per package they match (e.g. {@code //foo:all} and
+   * {@code //foo/bar:all}), so that they can be split in shards. Like the recursive patterns, the
+   * package patterns do not match the targets tagged <code>manual</code>. The patterns are returned
+   * unchanged if one of them is negative (e.g. {@code -//foo:bar}), since it could exclude targets
+   * of any shard.
+   */
+  ImmutableList<String> splitPackages(List<String> patterns) throws InterruptedException {
+    Set<String> result = new LinkedHashSet<>();
+    for (String pattern : patterns) {
+      if (pattern.trim().startsWith("-")) {
+        return ImmutableList.copyOf(patterns);
+      }
+    }
+    for (String pattern : patterns) {
+      String p = pattern.trim();
+      if (p.startsWith("@") && !p.startsWith("@//")) {
+        result.add(pattern);
+        continue;
+      }
+      TargetPattern parsed = TargetPattern.parse(p);
+      List<String> packages =
+          parsed.isRecursive() ? packageIndex.getPackagesUnder(parsed.getPackage())
+              : ImmutableList.of();
+      if (packages.isEmpty()) {
+        // Let Bazel report the errors of the patterns matching nothing.
+        result.add(pattern);
+        continue;
+      }
+      String suffix = p.endsWith(":*") || p.endsWith(":all-targets") ? ":*" : ":all";
+      for (String pkg : packages) {
+        result.add("//" + pkg + suffix);
+      }
+    }
+    return ImmutableList.copyOf(result);
+  }
+
+  /**
+   * Returns the names of the rules of the package <code>pkg</code>, and of its files if
+   * <code>allTargets</code> is true, or null if they cannot be known without running Bazel.
+   */
+  ImmutableList<String> getTargetNames(String pkg, boolean allTargets) throws IOException {
+    BuildFileScanner.BuildFile buildFile = scan(pkg);
+    if (buildFile == null || !buildFile.isComplete()
+        || (allTargets && !hasKnownFiles(buildFile))) {
+      return null;
+    }
+    Set<String> names = new LinkedHashSet<>();
+    for (BuildFileScanner.Rule rule : buildFile.getRules()) {
+      names.add(rule.getName());
+    }
+    if (allTargets) {
+      names.add(getBuildFileName(pkg));
+      names.addAll(buildFile.getExportedFiles());
+      boolean hasGlobs = false;
+      for (BuildFileScanner.Rule rule : buildFile.getRules()) {
+        for (String src : rule.getSrcs()) {
+          if (!src.startsWith(":") && !src.startsWith("//") && !src.startsWith("@")) {
+            names.add(src);
+          }
+        }
+        hasGlobs |= !rule.getGlobs().isEmpty();
+      }
+      if (hasGlobs) {
+        for (String file : listFiles(pkg)) {
+          for (BuildFileScanner.Rule rule : buildFile.getRules()) {
+            if (rule.hasSource(file)) {
+              names.add(file);
+              break;
+            }
+          }
+        }
+      }
+    }
+    return ImmutableList.copyOf(names);
+  }
+
+  /**
+   * Returns the labels of the rules that have the file <code>path</code> (relative to the
+   * workspace root) in their sources, according to the BUILD file of the package of the file.
+   * Returns an empty list if the package of the file cannot be read without running Bazel.
+   */
+  ImmutableList<String> getOwners(String path) throws InterruptedException {
+    String pkg = path;
+    do {
+      int slash = pkg.lastIndexOf('/');
+      pkg = slash < 0 ? "" : pkg.substring(0, slash);
+    } while (!pkg.isEmpty() && !packageIndex.isPackage(pkg));
+    if (!packageIndex.isPackage(pkg)) {
+      return ImmutableList.of();
+    }
+    BuildFileScanner.BuildFile buildFile = scan(pkg);
+    if (buildFile == null) {
+      return ImmutableList.of();
+    }
+    String file = pkg.isEmpty() ? path : path.substring(pkg.length() + 1);
+    ImmutableList.Builder<String> owners = ImmutableList.builder();
+    for (BuildFileScanner.Rule rule : buildFile.getRules()) {
+      if (rule.hasSource(file)) {
+        owners.add("//" + pkg + ":" + rule.getName());
+      }
+    }
+    return owners.build();
+  }
+
+  // The files of a package (relative to the package), excluding the sub-packages.
+  private ImmutableList<String> listFiles(String pkg) throws IOException {
+    Path root = getDirectory(pkg).toPath();
+    ImmutableList.Builder<String> files = ImmutableList.builder();
+    Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+        if (!dir.equals(root) && (Files.isRegularFile(dir.resolve("BUILD"))
+            || Files.isRegularFile(dir.resolve("BUILD.bazel")))) {
+          return FileVisitResult.SKIP_SUBTREE;
+        }
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+        files.add(root.relativize(file).toString().replace(File.separatorChar, '/'));
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFileFailed(Path file, IOException e) {
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    return files.build();
+  }
+
+  // The file targets of a package are known if all the sources are literals or globs.
+  private static boolean hasKnownFiles(BuildFileScanner.BuildFile buildFile) {
+    for (BuildFileScanner.Rule rule : buildFile.getRules()) {
+      if (!rule.isSrcsKnown()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private BuildFileScanner.BuildFile scan(String pkg) {
+    try {
+      return scanner.scan(new File(getDirectory(pkg), getBuildFileName(pkg)));
+    } catch (IOException e) {
+      // Deleted since it was indexed, let Bazel tell.
+      return null;
+    }
+  }
+
+  private File getDirectory(String pkg) {
+    return pkg.isEmpty() ? workspaceRoot : new File(workspaceRoot, pkg);
+  }
+
+  // BUILD.bazel takes precedence over BUILD.
+  private String getBuildFileName(String pkg) {
+    return new File(getDirectory(pkg), "BUILD.bazel").isFile() ? "BUILD.bazel" : "BUILD";
+  }
+}
@@ -0,0 +1,52 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.command;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Splits a list of target patterns into shards to run the IDE build information aspect on, so that
+ * the result of the first shards is available before the whole list is analyzed.
+ *
+ * <p>
+ * The order of the targets is kept, so the targets the user is looking at should come first. The
+ * first shard is small and each following shard is twice as large as the previous one: the first
+ * results come quickly while the number of Bazel invocations only grows with the logarithm of the
+ * number of targets. Bazel keeps the analysis and the outputs of the previous shards, so the
+ * dependencies shared between shards are only analyzed and built once.
+ */
+final class TargetShards {
+
+  private TargetShards() {}
+
+  /**
+   * Returns the shards of <code>targets</code>, the first one having at most
+   * <code>firstShardSize</code> targets.
+   */
+  static ImmutableList<ImmutableList<String>> split(List<String> targets, int firstShardSize) {
+    ImmutableList.Builder<ImmutableList<String>> shards = ImmutableList.builder();
+    int size = Math.max(1, firstShardSize);
+    int start = 0;
+    while (start < targets.size()) {
+      int end = (int) Math.min(targets.size(), (long) start + size);
+      shards.add(ImmutableList.copyOf(targets.subList(start, end)));
+      start = end;
+      size = size > Integer.MAX_VALUE / 2 ? Integer.MAX_VALUE : size * 2;
+    }
+    return shards.build();
+  }
+}
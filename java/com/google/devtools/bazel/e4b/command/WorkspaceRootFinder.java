@@ -0,0 +1,117 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.command;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Finds the root of the Bazel workspace enclosing a directory without running Bazel.
+ *
+ * <p>
+ * The root is the closest enclosing directory that contains one of the files marking the root of a
+ * workspace ({@code MODULE.bazel}, {@code WORKSPACE.bazel} or {@code WORKSPACE}). The candidate
+ * found for each directory is cached, and is only checked again if its marker file disappears.
+ * Bazel is asked to confirm each candidate (e.g. to resolve symbolic links the same way), the
+ * answer being cached as well. Concurrent lookups of a candidate not confirmed yet all ask Bazel,
+ * the confirmer is expected to share a single run of Bazel between them.
+ */
+final class WorkspaceRootFinder {
+
+  static final ImmutableList<String> MARKER_FILES =
+      ImmutableList.of("MODULE.bazel", "WORKSPACE.bazel", "WORKSPACE");
+
+  /** The function asking Bazel for the workspace root of a directory. */
+  interface Confirmer {
+    /** Returns the root of the workspace of <code>directory</code>, or null if there is none. */
+    File getWorkspaceRoot(File directory)
+        throws IOException, InterruptedException, BazelNotFoundException;
+  }
+
+  private final Confirmer confirmer;
+  // The candidate root of each directory looked up.
+  private final Map<File, File> candidates = new HashMap<>();
+  // The root confirmed by Bazel for each candidate.
+  private final Map<File, File> confirmed = new HashMap<>();
+
+  WorkspaceRootFinder(Confirmer confirmer) {
+    this.confirmer = confirmer;
+  }
+
+  /**
+   * Returns the root of the workspace enclosing <code>directory</code>, or null if it is not in a
+   * workspace. Bazel runs without holding the lock of the finder, so that a slow Bazel server in
+   * one workspace does not delay the lookups in the other workspaces.
+   *
+   * @throws BazelNotFoundException
+   */
+  File find(File directory) throws IOException, InterruptedException, BazelNotFoundException {
+    File dir = directory.getAbsoluteFile();
+    File candidate;
+    File root;
+    synchronized (this) {
+      candidate = candidates.get(dir);
+      if (candidate == null || !isWorkspaceRoot(candidate)) {
+        if (candidate != null) {
+          // The workspace was removed, forget what was found under it.
+          candidates.values().removeIf(candidate::equals);
+          confirmed.remove(candidate);
+        }
+        candidate = findCandidate(dir);
+        if (candidate == null) {
+          return null;
+        }
+        candidates.put(dir, candidate);
+      }
+      root = confirmed.get(candidate);
+    }
+    if (root == null) {
+      root = confirmer.getWorkspaceRoot(candidate);
+      if (root == null) {
+        return null;
+      }
+      synchronized (this) {
+        confirmed.put(candidate, root);
+      }
+    }
+    return root;
+  }
+
+  /**
+   * Returns the closest directory enclosing <code>directory</code> (or <code>directory</code>
+   * itself) containing a workspace marker file, or null.
+   */
+  static File findCandidate(File directory) {
+    for (File dir = directory.getAbsoluteFile(); dir != null; dir = dir.getParentFile()) {
+      if (isWorkspaceRoot(dir)) {
+        return dir;
+      }
+    }
+    return null;
+  }
+
+  private static boolean isWorkspaceRoot(File directory) {
+    for (String name : MARKER_FILES) {
+      if (new File(directory, name).isFile()) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -22,8 +22,10 @@ import org.eclipse.jface.preference.IPreferenceStore;
 import com.google.devtools.bazel.e4b.Activator;
 
 /**
- * Initialize the preferences of Bazel. The only preferences stored for now is the path to the Bazel
- * binary, which is expected to be in /usr/local/bin/bazel by default.
+ * Initialize the preferences of Bazel: the path to the Bazel binary, which is expected to be in
+ * /usr/local/bin/bazel by default, whether to build in the background and whether to record build
+ * reports (both off by default), and after how many idle minutes the caches of a workspace are
+ * released (60 by default) and its Bazel server is shut down (never by default).
  */
 public class BazelPreferenceInitializer extends AbstractPreferenceInitializer {
 
@@ -41,6 +43,10 @@ public class BazelPreferenceInitializer extends AbstractPreferenceInitializer {
   public void initializeDefaultPreferences() {
     IPreferenceStore store = Activator.getDefault().getPreferenceStore();
     store.setDefault("BAZEL_PATH", which("bazel", "/usr/local/bin/bazel"));
+    store.setDefault("BACKGROUND_BUILD", false);
+    store.setDefault("BUILD_REPORT", false);
+    store.setDefault("IDLE_EVICTION_MINUTES", 60);
+    store.setDefault("SERVER_SHUTDOWN_MINUTES", 0);
   }
 
 }
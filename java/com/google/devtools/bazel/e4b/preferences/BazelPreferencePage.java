@@ -16,15 +16,18 @@ package com.google.devtools.bazel.e4b.preferences;
 
 import com.google.devtools.bazel.e4b.Activator;
 import com.google.devtools.bazel.e4b.command.BazelNotFoundException;
+import org.eclipse.jface.preference.BooleanFieldEditor;
 import org.eclipse.jface.preference.FieldEditorPreferencePage;
 import org.eclipse.jface.preference.FileFieldEditor;
+import org.eclipse.jface.preference.IntegerFieldEditor;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.ui.IWorkbench;
 import org.eclipse.ui.IWorkbenchPreferencePage;
 
 /**
- * Page to configure the e4b plugin. The only configuration parameter is the path to the Bazel
- * binary so this page provide a file field to specify it.
+ * Page to configure the e4b plugin: the path to the Bazel binary, whether Bazel builds run in the
+ * background instead of inside Eclipse's build, whether build reports are recorded and when the
+ * resources of idle workspaces are released.
  */
 public class BazelPreferencePage extends FieldEditorPreferencePage
     implements
@@ -54,6 +57,17 @@ public class BazelPreferencePage extends FieldEditorPreferencePage
 
   public void createFieldEditors() {
     addField(new BazelBinaryFieldEditor(getFieldEditorParent()));
+    addField(new BooleanFieldEditor("BACKGROUND_BUILD",
+        "Run Bazel builds in the &background, without locking the workspace",
+        getFieldEditorParent()));
+    addField(new BooleanFieldEditor("BUILD_REPORT",
+        "Record the duration of each target in a build &report", getFieldEditorParent()));
+    addField(new IntegerFieldEditor("IDLE_EVICTION_MINUTES",
+        "Release the caches of a workspace idle for (minutes, 0 for never)",
+        getFieldEditorParent()));
+    addField(new IntegerFieldEditor("SERVER_SHUTDOWN_MINUTES",
+        "Shut down the Bazel server of a workspace idle for (minutes, 0 for never)",
+        getFieldEditorParent()));
   }
 
   @Override
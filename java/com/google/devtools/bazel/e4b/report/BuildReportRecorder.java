@@ -0,0 +1,136 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.report;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import com.google.devtools.bazel.e4b.Activator;
+import com.google.devtools.bazel.e4b.command.BazelCommand.BazelInstance;
+import com.google.devtools.bazel.e4b.command.BuildHistory;
+import com.google.devtools.bazel.e4b.command.BuildListener;
+import com.google.devtools.bazel.e4b.command.BuildReport;
+
+/**
+ * A {@link BuildListener} recording the reports of the builds into a history file per Bazel
+ * workspace and keeping the last report to show it in the {@link BuildReportView}.
+ */
+public class BuildReportRecorder implements BuildListener {
+
+  private static final int MAX_BUILDS = 100;
+
+  /** A build report with the durations of its targets in the previous builds. */
+  public static final class Entry {
+    private final File workspaceRoot;
+    private final BuildReport report;
+    private final ImmutableMap<String, Long> baseline;
+
+    private Entry(File workspaceRoot, BuildReport report, ImmutableMap<String, Long> baseline) {
+      this.workspaceRoot = workspaceRoot;
+      this.report = report;
+      this.baseline = baseline;
+    }
+
+    /** Returns the root of the workspace that was built. */
+    public File getWorkspaceRoot() {
+      return workspaceRoot;
+    }
+
+    /** Returns the report of the build. */
+    public BuildReport getReport() {
+      return report;
+    }
+
+    /** Returns the median duration of the targets in the previous builds, by label. */
+    public ImmutableMap<String, Long> getBaseline() {
+      return baseline;
+    }
+  }
+
+  private final File historyDirectory;
+  // The history of each workspace, shared by its builds so that its updates are serialized.
+  private final Map<File, BuildHistory> histories = new ConcurrentHashMap<>();
+  private final List<Consumer<Entry>> listeners = new CopyOnWriteArrayList<>();
+  private volatile Entry last = null;
+
+  /**
+   * Create a recorder storing the history of each workspace in <code>historyDirectory</code>.
+   */
+  public BuildReportRecorder(File historyDirectory) {
+    this.historyDirectory = historyDirectory;
+  }
+
+  @Override
+  public void buildStarted(BazelInstance instance, List<String> targets) {}
+
+  @Override
+  public void buildErrorLine(BazelInstance instance, String line) {}
+
+  @Override
+  public void buildFinished(BazelInstance instance, int exitCode, boolean cancelled) {}
+
+  @Override
+  public void buildReported(BazelInstance instance, BuildReport report) {
+    File workspaceRoot = instance.getWorkspaceRoot();
+    File file = new File(historyDirectory,
+        Hashing.sha256().hashString(workspaceRoot.getAbsolutePath(), StandardCharsets.UTF_8)
+            + ".json");
+    BuildHistory history = histories.computeIfAbsent(file, f -> new BuildHistory(f, MAX_BUILDS));
+    ImmutableMap<String, Long> baseline = ImmutableMap.of();
+    try {
+      synchronized (history) {
+        // Compare to the builds before this one.
+        baseline = history.getBaseline();
+        history.record(report);
+      }
+    } catch (IOException e) {
+      Activator.error("Failed to update the build history of " + workspaceRoot, e);
+    }
+    Entry entry = new Entry(workspaceRoot, report, baseline);
+    last = entry;
+    for (Consumer<Entry> listener : listeners) {
+      listener.accept(entry);
+    }
+  }
+
+  /**
+   * Returns the last build report recorded, or null.
+   */
+  public Entry getLastEntry() {
+    return last;
+  }
+
+  /**
+   * Add a listener called with each new build report.
+   */
+  public void addListener(Consumer<Entry> listener) {
+    listeners.add(listener);
+  }
+
+  /**
+   * Remove a listener added with {@link #addListener(Consumer)}.
+   */
+  public void removeListener(Consumer<Entry> listener) {
+    listeners.remove(listener);
+  }
+}
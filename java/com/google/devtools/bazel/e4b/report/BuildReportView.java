@@ -0,0 +1,237 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.report;
+
+import java.util.function.Consumer;
+
+import org.eclipse.jface.viewers.ArrayContentProvider;
+import org.eclipse.jface.viewers.ITableColorProvider;
+import org.eclipse.jface.viewers.ITableLabelProvider;
+import org.eclipse.jface.viewers.LabelProvider;
+import org.eclipse.jface.viewers.TableViewer;
+import org.eclipse.jface.viewers.Viewer;
+import org.eclipse.jface.viewers.ViewerComparator;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.graphics.Color;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.layout.GridData;
+import org.eclipse.swt.layout.GridLayout;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Table;
+import org.eclipse.swt.widgets.TableColumn;
+import org.eclipse.ui.part.ViewPart;
+
+import com.google.devtools.bazel.e4b.Activator;
+import com.google.devtools.bazel.e4b.command.BuildReport;
+import com.google.devtools.bazel.e4b.command.BuildReport.TargetRecord;
+
+/**
+ * A view showing the slowest targets of the last Bazel build, compared to their median duration in
+ * the previous builds. Targets that got notably slower are shown in red. Columns can be sorted by
+ * clicking on their header.
+ */
+public class BuildReportView extends ViewPart {
+
+  private static final String[] COLUMNS =
+      {"Target", "Duration (s)", "Median (s)", "Change", "Executed actions"};
+  private static final int[] WIDTHS = {400, 100, 100, 80, 120};
+
+  // A target is considered slower if it is 50% and a second slower than its median.
+  private static final double REGRESSION_RATIO = 1.5;
+  private static final long REGRESSION_MIN_MS = 1000;
+
+  private Label summary;
+  private TableViewer viewer;
+  private BuildReportRecorder.Entry entry = null;
+  private final Consumer<BuildReportRecorder.Entry> listener =
+      e -> Display.getDefault().asyncExec(() -> show(e));
+
+  private class ReportLabelProvider extends LabelProvider
+      implements
+        ITableLabelProvider,
+        ITableColorProvider {
+
+    @Override
+    public Image getColumnImage(Object element, int columnIndex) {
+      return null;
+    }
+
+    @Override
+    public String getColumnText(Object element, int columnIndex) {
+      TargetRecord target = (TargetRecord) element;
+      Long median = getMedian(target);
+      switch (columnIndex) {
+        case 0:
+          return target.getLabel();
+        case 1:
+          return formatSeconds(target.getDurationMillis());
+        case 2:
+          return median == null ? "" : formatSeconds(median);
+        case 3:
+          return median == null || median == 0 ? ""
+              : String.format("%+.0f%%", 100.0 * (target.getDurationMillis() - median) / median);
+        case 4:
+          return Integer.toString(target.getActionsExecuted());
+        default:
+          return "";
+      }
+    }
+
+    @Override
+    public Color getForeground(Object element, int columnIndex) {
+      return isRegression((TargetRecord) element)
+          ? Display.getDefault().getSystemColor(SWT.COLOR_RED) : null;
+    }
+
+    @Override
+    public Color getBackground(Object element, int columnIndex) {
+      return null;
+    }
+  }
+
+  private class ReportComparator extends ViewerComparator {
+    private int column = 1;
+    private boolean descending = true;
+
+    void setColumn(int column) {
+      if (this.column == column) {
+        descending = !descending;
+      } else {
+        this.column = column;
+        descending = column != 0;
+      }
+    }
+
+    @Override
+    public int compare(Viewer viewer, Object e1, Object e2) {
+      int result = compareColumn((TargetRecord) e1, (TargetRecord) e2);
+      return descending ? -result : result;
+    }
+
+    private int compareColumn(TargetRecord t1, TargetRecord t2) {
+      switch (column) {
+        case 0:
+          return t1.getLabel().compareTo(t2.getLabel());
+        case 2:
+          return Long.compare(getOrZero(getMedian(t1)), getOrZero(getMedian(t2)));
+        case 3:
+          return Double.compare(getChange(t1), getChange(t2));
+        case 4:
+          return Integer.compare(t1.getActionsExecuted(), t2.getActionsExecuted());
+        case 1:
+        default:
+          return Long.compare(t1.getDurationMillis(), t2.getDurationMillis());
+      }
+    }
+  }
+
+  @Override
+  public void createPartControl(Composite parent) {
+    parent.setLayout(new GridLayout(1, false));
+    summary = new Label(parent, SWT.NONE);
+    summary.setLayoutData(new GridData(SWT.FILL, SWT.TOP, true, false));
+    viewer = new TableViewer(parent, SWT.FULL_SELECTION | SWT.BORDER | SWT.V_SCROLL);
+    Table table = viewer.getTable();
+    table.setLayoutData(new GridData(SWT.FILL, SWT.FILL, true, true));
+    table.setHeaderVisible(true);
+    table.setLinesVisible(true);
+    ReportComparator comparator = new ReportComparator();
+    for (int i = 0; i < COLUMNS.length; i++) {
+      final int index = i;
+      TableColumn column = new TableColumn(table, i == 0 ? SWT.LEFT : SWT.RIGHT);
+      column.setText(COLUMNS[i]);
+      column.setWidth(WIDTHS[i]);
+      column.addListener(SWT.Selection, e -> {
+        comparator.setColumn(index);
+        table.setSortColumn(column);
+        table.setSortDirection(comparator.descending ? SWT.DOWN : SWT.UP);
+        viewer.refresh();
+      });
+    }
+    table.setSortColumn(table.getColumn(1));
+    table.setSortDirection(SWT.DOWN);
+    viewer.setContentProvider(ArrayContentProvider.getInstance());
+    viewer.setLabelProvider(new ReportLabelProvider());
+    viewer.setComparator(comparator);
+
+    BuildReportRecorder recorder = Activator.getDefault().getBuildReportRecorder();
+    recorder.addListener(listener);
+    show(recorder.getLastEntry());
+  }
+
+  private void show(BuildReportRecorder.Entry entry) {
+    if (viewer == null || viewer.getTable().isDisposed()) {
+      return;
+    }
+    this.entry = entry;
+    if (entry == null) {
+      summary.setText("No build report yet. Enable build reports in the Bazel preferences.");
+      viewer.setInput(new Object[0]);
+      return;
+    }
+    BuildReport report = entry.getReport();
+    StringBuilder text = new StringBuilder();
+    text.append(entry.getWorkspaceRoot()).append(": ")
+        .append(report.isSuccess() ? "build succeeded" : "build failed");
+    if (report.getEndMillis() > report.getStartMillis() && report.getStartMillis() > 0) {
+      text.append(" in ").append(formatSeconds(report.getEndMillis() - report.getStartMillis()))
+          .append("s");
+    }
+    if (report.getActionCacheHits() >= 0) {
+      text.append(", action cache hits: ").append(report.getActionCacheHits())
+          .append(", misses: ").append(report.getActionCacheMisses());
+    }
+    summary.setText(text.toString());
+    summary.getParent().layout();
+    viewer.setInput(report.getTargets().toArray());
+  }
+
+  private Long getMedian(TargetRecord target) {
+    return entry == null ? null : entry.getBaseline().get(target.getLabel());
+  }
+
+  private double getChange(TargetRecord target) {
+    Long median = getMedian(target);
+    return median == null || median == 0 ? 0
+        : (double) (target.getDurationMillis() - median) / median;
+  }
+
+  private boolean isRegression(TargetRecord target) {
+    Long median = getMedian(target);
+    return median != null && target.getDurationMillis() > median * REGRESSION_RATIO
+        && target.getDurationMillis() - median > REGRESSION_MIN_MS;
+  }
+
+  private static long getOrZero(Long value) {
+    return value == null ? 0 : value;
+  }
+
+  private static String formatSeconds(long millis) {
+    return String.format("%.1f", millis / 1000.0);
+  }
+
+  @Override
+  public void setFocus() {
+    viewer.getControl().setFocus();
+  }
+
+  @Override
+  public void dispose() {
+    Activator.getDefault().getBuildReportRecorder().removeListener(listener);
+    super.dispose();
+  }
+}
@@ -14,14 +14,19 @@
 
 package com.google.devtools.bazel.e4b.wizard;
 
-import java.io.IOException;
 import java.util.List;
 
+import org.eclipse.jface.bindings.keys.KeyStroke;
 import org.eclipse.jface.fieldassist.ContentProposal;
+import org.eclipse.jface.fieldassist.ContentProposalAdapter;
 import org.eclipse.jface.fieldassist.IContentProposal;
 import org.eclipse.jface.fieldassist.IContentProposalProvider;
+import org.eclipse.jface.fieldassist.TextContentAdapter;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.widgets.Text;
 
 import com.google.devtools.bazel.e4b.Activator;
+import com.google.devtools.bazel.e4b.command.AsyncCompleter;
 import com.google.devtools.bazel.e4b.command.BazelCommand.BazelInstance;
 import com.google.devtools.bazel.e4b.command.BazelNotFoundException;
 
@@ -29,42 +34,91 @@ import com.google.devtools.bazel.e4b.command.BazelNotFoundException;
  * A {@link IContentProposalProvider} to provide completion for Bazel. Use the
  * {@link #setBazelInstance(BazelInstance)} method to provide with the {@link BazelInstance}
  * interface to Bazel.
+ *
+ * <p>
+ * The completions are computed in the background by an {@link AsyncCompleter}: while Bazel runs,
+ * the popup shows a placeholder and it is refreshed when the completions arrive, so that typing
+ * never waits for Bazel.
  */
 public class BazelTargetCompletionContentProposalProvider implements IContentProposalProvider {
 
-  private BazelInstance bazel = null;
+  // Exposes the refresh of the popup once the completions are computed.
+  private static final class Adapter extends ContentProposalAdapter {
+    Adapter(Text text, IContentProposalProvider provider, KeyStroke keyStroke) {
+      super(text, new TextContentAdapter(), provider, keyStroke, null);
+    }
+
+    void refresh() {
+      if (isProposalPopupOpen()) {
+        closeProposalPopup();
+        openProposalPopup();
+      }
+    }
+  }
+
+  private final Text text;
+  private final Adapter adapter;
+  private AsyncCompleter completer = null;
+
+  /**
+   * Create a provider completing the content of <code>text</code> on Ctrl+Space.
+   */
+  public BazelTargetCompletionContentProposalProvider(Text text) {
+    this.text = text;
+    this.adapter = new Adapter(text, this, KeyStroke.getInstance(SWT.CTRL, ' '));
+    adapter.setProposalAcceptanceStyle(ContentProposalAdapter.PROPOSAL_REPLACE);
+    text.addDisposeListener(e -> setBazelInstance(null));
+  }
 
   @Override
   public IContentProposal[] getProposals(String contents, int position) {
-    if (bazel == null) {
+    AsyncCompleter completer = this.completer;
+    if (completer == null) {
       return null;
     }
-    try {
-      List<String> completions = bazel.complete(contents.substring(0, position));
-      if (completions != null) {
-        IContentProposal[] result = new IContentProposal[completions.size()];
-        int i = 0;
-        for (String s : completions) {
-          result[i] = new ContentProposal(s);
-          i++;
-        }
-        return result;
-      }
-    } catch (IOException e) {
-      Activator.error("Failed to run Bazel to get completion information", e);
-    } catch (InterruptedException e) {
-      Activator.error("Bazel was interrupted", e);
-    } catch (BazelNotFoundException e) {
-      Activator.error("Bazel not found: " + e.getMessage());
+    String prefix = contents.substring(0, position);
+    List<String> completions = completer.request(prefix, result -> onCompletions(prefix));
+    if (completions == null) {
+      // Accepting the placeholder leaves the text unchanged.
+      return new IContentProposal[] {new ContentProposal(prefix, "Searching\u2026", null)};
+    }
+    IContentProposal[] result = new IContentProposal[completions.size()];
+    int i = 0;
+    for (String s : completions) {
+      result[i] = new ContentProposal(s);
+      i++;
     }
-    return null;
+    return result;
+  }
+
+  // Called from the completion thread: the proposals are requested again from the UI thread, and
+  // are then filtered from the computed completions.
+  private void onCompletions(String prefix) {
+    if (text.isDisposed()) {
+      return;
+    }
+    text.getDisplay().asyncExec(() -> {
+      if (!text.isDisposed()
+          && text.getText().substring(0, text.getCaretPosition()).equals(prefix)) {
+        adapter.refresh();
+      }
+    });
   }
 
   /**
    * Set the {@link BazelInstance} to use to query for completion targets.
    */
   public void setBazelInstance(BazelInstance bazel) {
-    this.bazel = bazel;
+    if (completer != null) {
+      completer.cancel();
+    }
+    completer = bazel == null ? null : new AsyncCompleter(bazel::complete, e -> {
+      if (e instanceof BazelNotFoundException) {
+        Activator.error("Bazel not found: " + e.getMessage());
+      } else {
+        Activator.error("Failed to run Bazel to get completion information", e);
+      }
+    });
   }
 
 }
@@ -45,9 +45,15 @@ public class BazelWizard extends Wizard implements IWorkbenchWizard {
 
   @Override
   public boolean performFinish() {
-    BazelProjectSupport.createProject(page1.getProjectName(), page1.getLocationURI(),
-        page2.getWorkspaceRoot(), page2.getDirectories(), page2.getTargets(),
-        page2.getJavaLanguageVersion());
+    if (page2.createProjectPerDirectory()) {
+      BazelProjectSupport.createProjects(page1.getProjectName(), page2.getWorkspaceRoot(),
+          page2.getDirectories(), page2.getTargets(), page2.getJavaLanguageVersion(),
+          page2.useInterfaceJars());
+    } else {
+      BazelProjectSupport.createProject(page1.getProjectName(), page1.getLocationURI(),
+          page2.getWorkspaceRoot(), page2.getDirectories(), page2.getTargets(),
+          page2.getJavaLanguageVersion(), page2.useInterfaceJars());
+    }
     return true;
   }
 
@@ -26,24 +26,43 @@ import org.eclipse.swt.graphics.Image;
 import org.eclipse.swt.widgets.Composite;
 
 import com.google.common.collect.ImmutableList;
+import com.google.devtools.bazel.e4b.command.BazelCommand.BazelInstance;
+import com.google.devtools.bazel.e4b.command.DirectoryTree;
 
 /**
  * A tree content provider that enable selecting a list of sub-directories of a directory root (the
  * Bazel workspace root).
+ *
+ * <p>
+ * The sub-directories are loaded lazily in the background by a {@link DirectoryTree}: a directory
+ * being loaded shows no children and is refreshed once its children are known, so that expanding a
+ * large workspace never blocks the UI thread.
  */
 public class DirectoryTreeContentProvider implements ITreeContentProvider {
 
   private File root;
+  private boolean packagesOnly = false;
+  // The instance of the workspace, whose packages are shown if packagesOnly is true.
+  private BazelInstance instance = null;
+  private DirectoryTree tree = null;
+  private Viewer viewer = null;
 
   public DirectoryTreeContentProvider(File root) {
-    this.root = root;
+    setRoot(root);
   }
 
   @Override
-  public void dispose() {}
+  public void dispose() {
+    if (tree != null) {
+      tree.close();
+      tree = null;
+    }
+  }
 
   @Override
-  public void inputChanged(Viewer viewer, Object oldInput, Object newInput) {}
+  public void inputChanged(Viewer viewer, Object oldInput, Object newInput) {
+    this.viewer = viewer;
+  }
 
   @Override
   public Object[] getElements(Object inputElement) {
@@ -56,8 +75,8 @@ public class DirectoryTreeContentProvider implements ITreeContentProvider {
 
   @Override
   public Object[] getChildren(Object parentElement) {
-    return ((File) parentElement).listFiles((f) -> (f.isDirectory() && !f.getName().startsWith(".")
-        && !f.getName().startsWith("bazel-")));
+    ImmutableList<File> children = tree == null ? null : tree.getChildren((File) parentElement);
+    return children == null ? new Object[] {} : children.toArray();
   }
 
   @Override
@@ -71,8 +90,7 @@ public class DirectoryTreeContentProvider implements ITreeContentProvider {
 
   @Override
   public boolean hasChildren(Object element) {
-    Object[] childrens = getChildren(element);
-    return (childrens != null) && (childrens.length > 0);
+    return tree != null && tree.hasChildren((File) element);
   }
 
   public File getRoot() {
@@ -81,8 +99,62 @@ public class DirectoryTreeContentProvider implements ITreeContentProvider {
 
   public void setRoot(File root) {
     this.root = root;
+    resetTree();
   }
 
+  /**
+   * Only show the directories that contain Bazel packages if <code>packagesOnly</code> is true.
+   */
+  public void setPackagesOnly(boolean packagesOnly) {
+    if (this.packagesOnly != packagesOnly) {
+      this.packagesOnly = packagesOnly;
+      resetTree();
+    }
+  }
+
+  /**
+   * Set the Bazel instance of the workspace, used to know the directories containing packages.
+   * Until it is set, all the directories are shown.
+   */
+  public void setBazelInstance(BazelInstance instance) {
+    if (this.instance != instance) {
+      this.instance = instance;
+      if (packagesOnly) {
+        resetTree();
+      }
+    }
+  }
+
+  private void resetTree() {
+    dispose();
+    if (root != null) {
+      tree = packagesOnly && instance != null ? new DirectoryTree(root, instance, this::onLoaded)
+          : new DirectoryTree(root, this::onLoaded);
+    }
+  }
+
+  // Called from the loading thread.
+  private void onLoaded(File directory) {
+    Viewer viewer = this.viewer;
+    if (viewer == null || viewer.getControl().isDisposed()) {
+      return;
+    }
+    viewer.getControl().getDisplay().asyncExec(() -> {
+      if (viewer.getControl().isDisposed() || viewer.getContentProvider() != this) {
+        return;
+      }
+      if (viewer instanceof CheckboxTreeViewer) {
+        CheckboxTreeViewer tv = (CheckboxTreeViewer) viewer;
+        tv.refresh(directory);
+        // The sub-directories of a selected directory are selected too.
+        if (tv.getChecked(directory) && !tv.getGrayed(directory)) {
+          tv.setSubtreeChecked(directory, true);
+        }
+      } else {
+        viewer.refresh();
+      }
+    });
+  }
 
   /**
    * Create a tree view that use a FileTreeContentProvider for its content. The created tree view
@@ -186,6 +258,25 @@ public class DirectoryTreeContentProvider implements ITreeContentProvider {
     }
   }
 
+  /**
+   * Set the Bazel instance of the workspace shown in <code>tv</code>.
+   */
+  static void setBazelInstance(CheckboxTreeViewer tv, BazelInstance instance) {
+    DirectoryTreeContentProvider provider = (DirectoryTreeContentProvider) tv.getContentProvider();
+    provider.setBazelInstance(instance);
+    tv.refresh();
+  }
+
+  /**
+   * Only show the directories containing Bazel packages in <code>tv</code> if
+   * <code>packagesOnly</code> is true.
+   */
+  static void setPackagesOnly(CheckboxTreeViewer tv, boolean packagesOnly) {
+    DirectoryTreeContentProvider provider = (DirectoryTreeContentProvider) tv.getContentProvider();
+    provider.setPackagesOnly(packagesOnly);
+    tv.refresh();
+  }
+
   /**
    * Returns the list of path selected in <code>tv</code>. It returns the list of checked path
    * without the children of the checked path. Each path is returned as a string giving the relative
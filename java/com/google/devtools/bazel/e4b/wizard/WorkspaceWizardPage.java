@@ -16,12 +16,15 @@ package com.google.devtools.bazel.e4b.wizard;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.function.Consumer;
 
-import org.eclipse.jface.bindings.keys.KeyStroke;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jface.dialogs.MessageDialog;
-import org.eclipse.jface.fieldassist.ContentProposalAdapter;
-import org.eclipse.jface.fieldassist.TextContentAdapter;
 import org.eclipse.jface.viewers.CheckboxTreeViewer;
 import org.eclipse.jface.wizard.WizardPage;
 import org.eclipse.swt.SWT;
@@ -42,6 +45,7 @@ import org.eclipse.swt.widgets.Text;
 
 import com.google.common.collect.ImmutableList;
 import com.google.devtools.bazel.e4b.Activator;
+import com.google.devtools.bazel.e4b.command.BazelCommand.BazelInstance;
 import com.google.devtools.bazel.e4b.command.BazelNotFoundException;
 
 /**
@@ -50,6 +54,8 @@ import com.google.devtools.bazel.e4b.command.BazelNotFoundException;
  */
 public class WorkspaceWizardPage extends WizardPage {
 
+  private static final long DISCOVERY_DELAY_MILLIS = 300;
+
   private Label workspaceRoot;
   private List targets;
   private Text target;
@@ -60,6 +66,17 @@ public class WorkspaceWizardPage extends WizardPage {
   private Button workspaceRootButton;
   private DirectoryDialog dialog;
   private BazelTargetCompletionContentProposalProvider completionProvider;
+  private Button useInterfaceJarsButton;
+  private Button projectPerDirectoryButton;
+  private Button packagesOnlyButton;
+  private List foundTargets;
+  private Button addFoundTargetsButton;
+
+  // The Bazel instance of the selected workspace, once loaded.
+  private BazelInstance bazel = null;
+  // Only the last started jobs update the page.
+  private Job loadJob = null;
+  private TargetDiscoveryJob discoveryJob = null;
 
   protected WorkspaceWizardPage() {
     super("Import Bazel project");
@@ -87,6 +104,20 @@ public class WorkspaceWizardPage extends WizardPage {
     return workspaceRoot.getText();
   }
 
+  /**
+   * Returns true if the user asked to use interface jars for the dependencies of the project.
+   */
+  boolean useInterfaceJars() {
+    return useInterfaceJarsButton.getSelection();
+  }
+
+  /**
+   * Returns true if the user asked to create one project per selected directory.
+   */
+  boolean createProjectPerDirectory() {
+    return projectPerDirectoryButton.getSelection();
+  }
+
   /**
    * Returns the language version for the new project.
    */
@@ -107,7 +138,26 @@ public class WorkspaceWizardPage extends WizardPage {
     addLabel("Directories: ", 1, 5);
     directories = DirectoryTreeContentProvider.createTreeView(container);
     setControlGridData(directories.getTree(), 2, 5, true);
-    directories.addCheckStateListener(e -> updateControls());
+    directories.addCheckStateListener(e -> {
+      updateControls();
+      discoverTargets();
+    });
+
+    new Label(container, SWT.NONE).setText("Found targets:");
+    foundTargets = new List(container, SWT.MULTI | SWT.BORDER | SWT.V_SCROLL);
+    setControlGridData(foundTargets, 1, 1, true);
+    addFoundTargetsButton = createButton("+", e -> addFoundTargets());
+    foundTargets.addSelectionListener(new SelectionAdapter() {
+      @Override
+      public void widgetSelected(SelectionEvent e) {
+        updateControls();
+      }
+
+      @Override
+      public void widgetDefaultSelected(SelectionEvent e) {
+        addFoundTargets();
+      }
+    });
 
     new Label(container, SWT.NONE).setText("Targets:");
     createTargetTextField();
@@ -120,6 +170,21 @@ public class WorkspaceWizardPage extends WizardPage {
     targets.addSelectionListener(createSelectionListener(
         e -> removeTargetButton.setEnabled(targets.getSelectionCount() > 0)));
 
+    useInterfaceJarsButton = new Button(container, SWT.CHECK);
+    useInterfaceJarsButton.setText("Use interface jars for dependencies (faster indexing)");
+    setControlGridData(useInterfaceJarsButton, 3, 1, false);
+    projectPerDirectoryButton = new Button(container, SWT.CHECK);
+    projectPerDirectoryButton
+        .setText("Create one project per directory (dependencies become project references)");
+    setControlGridData(projectPerDirectoryButton, 3, 1, false);
+    projectPerDirectoryButton.addSelectionListener(createSelectionListener(e -> updateControls()));
+    packagesOnlyButton = new Button(container, SWT.CHECK);
+    packagesOnlyButton.setText("Only show the directories containing Bazel packages");
+    setControlGridData(packagesOnlyButton, 3, 1, false);
+    packagesOnlyButton.addSelectionListener(createSelectionListener(
+        e -> DirectoryTreeContentProvider.setPackagesOnly(directories,
+            packagesOnlyButton.getSelection())));
+
     setControl(container);
     updateControls();
   }
@@ -167,18 +232,7 @@ public class WorkspaceWizardPage extends WizardPage {
         if (wr != null) {
           workspaceRoot.setText(wr);
           DirectoryTreeContentProvider.setFileTreeRoot(directories, new File(wr));
-          try {
-            completionProvider.setBazelInstance(
-                Activator.getDefault().getCommand().getInstance(new File(getWorkspaceRoot())));
-          } catch (IOException e1) {
-            MessageDialog.openError(getShell(), "Error",
-                getWorkspaceRoot() + " does not seems to be a Bazel workspace");
-          } catch (InterruptedException e1) {
-            Activator.error("Bazel was interrupted", e1);
-          } catch (BazelNotFoundException e1) {
-            MessageDialog.openError(getShell(), "Error", "Cannot found Bazel: " + e1.getMessage());
-          }
-
+          loadInstance(new File(wr));
         }
         updateControls();
       }
@@ -208,30 +262,22 @@ public class WorkspaceWizardPage extends WizardPage {
     boolean enabled = !workspaceRoot.getText().isEmpty();
     directories.getTree().setEnabled(enabled);
     targets.setEnabled(enabled);
+    useInterfaceJarsButton.setEnabled(enabled);
+    projectPerDirectoryButton.setEnabled(enabled);
+    packagesOnlyButton.setEnabled(enabled);
     target.setEnabled(enabled);
     addTargetButton.setEnabled(enabled && !target.getText().isEmpty());
+    foundTargets.setEnabled(enabled);
+    addFoundTargetsButton.setEnabled(enabled && foundTargets.getSelectionCount() > 0);
     removeTargetButton.setEnabled(enabled && targets.getSelectionCount() > 0);
-    setPageComplete(
-        enabled && (directories.getCheckedElements().length > 0) && (targets.getItemCount() > 0));
+    // In project per directory mode, the targets default to all the targets of each directory.
+    setPageComplete(enabled && (directories.getCheckedElements().length > 0)
+        && (targets.getItemCount() > 0 || projectPerDirectoryButton.getSelection()));
   }
 
-  private void setAutoCompletion() {
-    try {
-      ContentProposalAdapter adapter = null;
-      completionProvider = new BazelTargetCompletionContentProposalProvider();
-      KeyStroke ks = KeyStroke.getInstance("Ctrl+Space");
-      adapter = new ContentProposalAdapter(target, new TextContentAdapter(), completionProvider, ks,
-          null);
-      adapter.setProposalAcceptanceStyle(ContentProposalAdapter.PROPOSAL_REPLACE);
-    } catch (Exception e) {
-      e.printStackTrace();
-    }
-  }
-
-
   private void createTargetTextField() {
     target = new Text(container, SWT.BORDER);
-    setAutoCompletion();
+    completionProvider = new BazelTargetCompletionContentProposalProvider(target);
     target.addKeyListener(new KeyAdapter() {
       @Override
       public void keyReleased(KeyEvent ke) {
@@ -246,7 +292,6 @@ public class WorkspaceWizardPage extends WizardPage {
   private void addTarget() {
     targets.add(target.getText());
     target.setText("");
-    setAutoCompletion();
     updateControls();
   }
 
@@ -254,4 +299,182 @@ public class WorkspaceWizardPage extends WizardPage {
     targets.remove(targets.getSelectionIndices());
     updateControls();
   }
+
+  private void addFoundTargets() {
+    for (String label : foundTargets.getSelection()) {
+      if (targets.indexOf(label) < 0) {
+        targets.add(label);
+      }
+    }
+    foundTargets.deselectAll();
+    updateControls();
+  }
+
+  // Running Bazel takes seconds (or more if the server needs to start), so the instance is loaded
+  // in the background.
+  private void loadInstance(File root) {
+    bazel = null;
+    completionProvider.setBazelInstance(null);
+    DirectoryTreeContentProvider.setBazelInstance(directories, null);
+    discoverTargets();
+    Job job = new Job("Loading Bazel workspace " + root) {
+      @Override
+      protected IStatus run(IProgressMonitor monitor) {
+        try {
+          BazelInstance instance = Activator.getDefault().getCommand().getInstance(root);
+          asyncExec(() -> {
+            if (loadJob == this) {
+              bazel = instance;
+              completionProvider.setBazelInstance(instance);
+              DirectoryTreeContentProvider.setBazelInstance(directories, instance);
+              discoverTargets();
+            }
+          });
+        } catch (IOException e) {
+          // A newer workspace root superseded this one, the error does not matter anymore.
+          asyncExec(() -> {
+            if (loadJob == this) {
+              MessageDialog.openError(getShell(), "Error",
+                  root + " does not seems to be a Bazel workspace");
+            }
+          });
+        } catch (InterruptedException e) {
+          Activator.error("Bazel was interrupted", e);
+        } catch (BazelNotFoundException e) {
+          asyncExec(() -> {
+            if (loadJob == this) {
+              MessageDialog.openError(getShell(), "Error",
+                  "Cannot found Bazel: " + e.getMessage());
+            }
+          });
+        }
+        return Status.OK_STATUS;
+      }
+    };
+    loadJob = job;
+    job.setSystem(true);
+    job.schedule();
+  }
+
+  // Lists the targets of the checked directories in the background, replacing the found targets.
+  private void discoverTargets() {
+    if (discoveryJob != null) {
+      discoveryJob.cancel();
+      discoveryJob = null;
+    }
+    foundTargets.removeAll();
+    ImmutableList<String> paths = getDirectories();
+    if (bazel == null || paths.isEmpty()) {
+      return;
+    }
+    File[] roots = new File[paths.size()];
+    for (int i = 0; i < roots.length; i++) {
+      roots[i] = new File(getWorkspaceRoot(), paths.get(i));
+    }
+    discoveryJob = new TargetDiscoveryJob(bazel, roots);
+    // Checking several directories in a row only starts one discovery.
+    discoveryJob.schedule(DISCOVERY_DELAY_MILLIS);
+  }
+
+  private void asyncExec(Runnable runnable) {
+    if (!container.isDisposed()) {
+      container.getDisplay().asyncExec(() -> {
+        if (!container.isDisposed()) {
+          runnable.run();
+        }
+      });
+    }
+  }
+
+  /**
+   * Lists the targets under some directories, adding them to the found targets as they are found.
+   * The targets are added in batches, at most one batch per event loop iteration, so that the
+   * wizard stays responsive on large workspaces. Canceling the job interrupts its thread, which
+   * kills the running Bazel query.
+   */
+  private final class TargetDiscoveryJob extends Job {
+    private final BazelInstance instance;
+    private final File[] roots;
+    private final java.util.List<String> found = new ArrayList<>();
+    private boolean flushScheduled = false;
+    // The thread running the job, if running, guarded by this.
+    private Thread thread = null;
+
+    TargetDiscoveryJob(BazelInstance instance, File[] roots) {
+      super("Listing Bazel targets");
+      this.instance = instance;
+      this.roots = roots;
+      setSystem(true);
+    }
+
+    @Override
+    protected IStatus run(IProgressMonitor monitor) {
+      synchronized (this) {
+        thread = Thread.currentThread();
+      }
+      try {
+        if (monitor.isCanceled()) {
+          return Status.CANCEL_STATUS;
+        }
+        instance.listTargets(labels -> {
+          if (monitor.isCanceled()) {
+            throw new OperationCanceledException();
+          }
+          add(labels);
+        }, roots);
+      } catch (OperationCanceledException e) {
+        return Status.CANCEL_STATUS;
+      } catch (InterruptedException e) {
+        if (monitor.isCanceled()) {
+          return Status.CANCEL_STATUS;
+        }
+        Activator.error("Failed to list the targets of " + instance.getWorkspaceRoot(), e);
+      } catch (IOException e) {
+        Activator.error("Failed to list the targets of " + instance.getWorkspaceRoot(), e);
+      } catch (BazelNotFoundException e) {
+        Activator.error("Bazel not found: " + e.getMessage());
+      } finally {
+        synchronized (this) {
+          thread = null;
+          // Do not leave the interruption of a late cancel to the next job of this worker thread.
+          Thread.interrupted();
+        }
+      }
+      return Status.OK_STATUS;
+    }
+
+    @Override
+    protected void canceling() {
+      synchronized (this) {
+        if (thread != null) {
+          thread.interrupt();
+        }
+      }
+    }
+
+    private synchronized void add(java.util.List<String> labels) {
+      found.addAll(labels);
+      if (!flushScheduled) {
+        flushScheduled = true;
+        asyncExec(this::flush);
+      }
+    }
+
+    private void flush() {
+      String[] labels;
+      synchronized (this) {
+        labels = found.toArray(new String[0]);
+        found.clear();
+        flushScheduled = false;
+      }
+      if (discoveryJob != this) {
+        return;
+      }
+      foundTargets.setRedraw(false);
+      for (String label : labels) {
+        foundTargets.add(label);
+      }
+      foundTargets.setRedraw(true);
+    }
+  }
 }
@@ -0,0 +1,76 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.command;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+/** @{link AffectedTargets}Test */
+public class AffectedTargetsTest {
+
+  private static IdeBuildInfo info(String label, String source, String... deps) {
+    JSONObject object = new JSONObject();
+    object.put("build_file_artifact_location", "BUILD");
+    object.put("kind", "java_library");
+    object.put("label", label);
+    object.put("dependencies", new JSONArray(ImmutableList.copyOf(deps)));
+    object.put("sources", new JSONArray(ImmutableList.of(source)));
+    object.put("generated_jars", new JSONArray());
+    object.put("jars", new JSONArray());
+    return new IdeBuildInfo(object);
+  }
+
+  // bin -> lib -> base, other -> base, unrelated
+  private static final ImmutableMap<String, IdeBuildInfo> INFOS = ImmutableMap.of(
+      "//app:bin", info("//app:bin", "app/Main.java", "//lib:lib"),
+      "//lib:lib", info("//lib:lib", "lib/Lib.java", "//base:base"),
+      "//base:base", info("//base:base", "base/Base.java"),
+      "//other:other", info("//other:other", "other/Other.java", "//base:base"),
+      "//unrelated:unrelated", info("//unrelated:unrelated", "unrelated/Unrelated.java"));
+
+  @Test
+  public void testLeafChange() {
+    assertThat(AffectedTargets.compute(INFOS, ImmutableList.of("app/Main.java")))
+        .containsExactly("//app:bin");
+  }
+
+  @Test
+  public void testReverseDependencies() {
+    assertThat(AffectedTargets.compute(INFOS, ImmutableList.of("lib/Lib.java")))
+        .containsExactly("//lib:lib", "//app:bin");
+    assertThat(AffectedTargets.compute(INFOS, ImmutableList.of("base/Base.java")))
+        .containsExactly("//base:base", "//lib:lib", "//app:bin", "//other:other");
+  }
+
+  @Test
+  public void testUnknownFile() {
+    assertThat(AffectedTargets.compute(INFOS, ImmutableList.of("app/Main.java", "app/BUILD")))
+        .isNull();
+  }
+
+  @Test
+  public void testFallbackOwners() {
+    assertThat(AffectedTargets.compute(INFOS, ImmutableList.of("lib/New.java"),
+        file -> file.startsWith("lib/") ? ImmutableList.of("//lib:lib") : ImmutableList.of()))
+        .containsExactly("//lib:lib", "//app:bin");
+    assertThat(AffectedTargets.compute(INFOS, ImmutableList.of("app/BUILD"),
+        file -> ImmutableList.of())).isNull();
+  }
+}
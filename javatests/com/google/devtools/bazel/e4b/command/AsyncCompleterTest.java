@@ -0,0 +1,151 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.command;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** @{link AsyncCompleter}Test */
+public class AsyncCompleterTest {
+
+  private static final ImmutableMap<String, ImmutableList<String>> COMPLETIONS =
+      ImmutableMap.<String, ImmutableList<String>>builder()
+          .put("", ImmutableList.of("//"))
+          .put("/", ImmutableList.of("//"))
+          .put("//f", ImmutableList.of("//foo/", "//foo:", "//foobar/", "//fuzz/"))
+          .put("//fu", ImmutableList.of("//fuzz/"))
+          .put("//foo/", ImmutableList.of("//foo/bar/", "//foo/bar:"))
+          .put("//foo:", ImmutableList.of("//foo:lib", "//foo:lib_test", "//foo:main"))
+          .put("//foo:m", ImmutableList.of("//foo:main"))
+          .build();
+
+  private final List<String> requests = new LinkedList<>();
+  private final List<Exception> errors = new LinkedList<>();
+  private final BlockingQueue<ImmutableList<String>> results = new ArrayBlockingQueue<>(10);
+  private ScheduledExecutorService executor;
+
+  @Before
+  public void setup() {
+    executor = new ScheduledThreadPoolExecutor(1);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  private AsyncCompleter createCompleter(AsyncCompleter.Completer completer, long delayMillis) {
+    return new AsyncCompleter(prefix -> {
+      synchronized (requests) {
+        requests.add(prefix);
+      }
+      return completer.complete(prefix);
+    }, errors::add, executor, delayMillis);
+  }
+
+  private static List<String> complete(String prefix) {
+    return COMPLETIONS.getOrDefault(prefix, ImmutableList.of());
+  }
+
+  private ImmutableList<String> next() throws InterruptedException {
+    return results.poll(10, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void testRefinement() throws InterruptedException {
+    AsyncCompleter completer = createCompleter(AsyncCompleterTest::complete, 0);
+    assertThat(completer.request("//f", results::add)).isNull();
+    assertThat(next()).containsExactly("//foo/", "//foo:", "//foobar/", "//fuzz/");
+    // Filtered from the last result.
+    assertThat(completer.request("//foo", results::add)).containsExactly("//foo/", "//foo:",
+        "//foobar/");
+    // A new package or the start of the target name needs a new computation.
+    assertThat(completer.request("//foo/", results::add)).isNull();
+    assertThat(next()).containsExactly("//foo/bar/", "//foo/bar:");
+    assertThat(completer.request("//foo:", results::add)).isNull();
+    assertThat(next()).containsExactly("//foo:lib", "//foo:lib_test", "//foo:main");
+    assertThat(completer.request("//foo:lib", results::add)).containsExactly("//foo:lib",
+        "//foo:lib_test");
+    assertThat(requests).containsExactly("//f", "//foo/", "//foo:").inOrder();
+  }
+
+  @Test
+  public void testSamePrefix() throws InterruptedException {
+    AsyncCompleter completer = createCompleter(AsyncCompleterTest::complete, 0);
+    assertThat(completer.request("", results::add)).isNull();
+    assertThat(next()).containsExactly("//");
+    // Reopening the proposals of an empty field must not compute them again.
+    assertThat(completer.request("", results::add)).containsExactly("//");
+    assertThat(completer.request("/", results::add)).isNull();
+    assertThat(next()).containsExactly("//");
+    assertThat(completer.request("/", results::add)).containsExactly("//");
+    assertThat(requests).containsExactly("", "/").inOrder();
+  }
+
+  @Test
+  public void testDebounce() throws InterruptedException {
+    AsyncCompleter completer = createCompleter(AsyncCompleterTest::complete, 200);
+    completer.request("//", results::add);
+    completer.request("//f", results::add);
+    completer.request("//fu", results::add);
+    assertThat(next()).containsExactly("//fuzz/");
+    assertThat(requests).containsExactly("//fu");
+    assertThat(results).isEmpty();
+  }
+
+  @Test
+  public void testLatestWins() throws InterruptedException {
+    CountDownLatch started = new CountDownLatch(1);
+    AsyncCompleter completer = createCompleter(prefix -> {
+      if (prefix.equals("//slow")) {
+        started.countDown();
+        Thread.sleep(60000);
+      }
+      return complete(prefix);
+    }, 0);
+    completer.request("//slow", results::add);
+    assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+    // Interrupts the slow computation.
+    completer.request("//foo:m", results::add);
+    assertThat(next()).containsExactly("//foo:main");
+    assertThat(results).isEmpty();
+  }
+
+  @Test
+  public void testErrors() throws InterruptedException {
+    AsyncCompleter completer = createCompleter(prefix -> {
+      throw new IOException("failed");
+    }, 0);
+    completer.request("//", results::add);
+    executor.shutdown();
+    assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+    assertThat(errors).hasSize(1);
+    assertThat(results).isEmpty();
+  }
+}
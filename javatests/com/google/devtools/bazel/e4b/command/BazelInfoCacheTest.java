@@ -0,0 +1,215 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.command;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** @{link BazelInfoCache}Test */
+public class BazelInfoCacheTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final List<File> runs = new LinkedList<>();
+  private File workspace;
+  private File bazel;
+  private File cacheDirectory;
+  private File userRc;
+
+  private static void write(File file, String content) throws IOException {
+    Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Before
+  public void setup() throws IOException {
+    workspace = folder.newFolder("workspace");
+    bazel = folder.newFile("bazel");
+    cacheDirectory = new File(folder.getRoot(), "cache");
+    userRc = new File(folder.getRoot(), "bazelrc");
+  }
+
+  private BazelInfoCache createCache() {
+    BazelInfoCache cache = new BazelInfoCache(directory -> {
+      runs.add(directory);
+      return ImmutableList.of("bazel-bin: /output/bin", "execution_root: /output/execroot/ws",
+          "output_base: /output", "release: release 7.1.0", "workspace: " + directory.getPath(),
+          "character-encoding: file.encoding = UTF-8, defaultCharset = UTF-8");
+    }, ImmutableList.of(userRc));
+    cache.setDirectory(cacheDirectory);
+    return cache;
+  }
+
+  @Test
+  public void testParse() throws IOException, InterruptedException, BazelNotFoundException {
+    BazelInfo info = createCache().get(workspace, bazel);
+    assertThat(info.getWorkspace()).isEqualTo(workspace);
+    assertThat(info.getExecutionRoot()).isEqualTo(new File("/output/execroot/ws"));
+    assertThat(info.getOutputBase()).isEqualTo(new File("/output"));
+    assertThat(info.getBazelBin()).isEqualTo(new File("/output/bin"));
+    assertThat(info.getRelease()).isEqualTo("release 7.1.0");
+    assertThat(info.get("character-encoding"))
+        .isEqualTo("file.encoding = UTF-8, defaultCharset = UTF-8");
+    assertThat(info.get("unknown")).isNull();
+  }
+
+  @Test
+  public void testPersisted() throws IOException, InterruptedException, BazelNotFoundException {
+    BazelInfoCache cache = createCache();
+    BazelInfo info = cache.get(workspace, bazel);
+    assertThat(cache.get(workspace, bazel)).isSameAs(info);
+    // A new session reads the persisted snapshot.
+    assertThat(createCache().get(workspace, bazel).getValues()).isEqualTo(info.getValues());
+    assertThat(runs).containsExactly(workspace);
+  }
+
+  @Test
+  public void testFingerprint() throws IOException, InterruptedException, BazelNotFoundException {
+    BazelInfoCache cache = createCache();
+    cache.get(workspace, bazel);
+    write(new File(workspace, ".bazelrc"), "startup --host_jvm_args=-Xmx4g");
+    cache.get(workspace, bazel);
+    write(userRc, "build --compilation_mode=opt");
+    cache.get(workspace, bazel);
+    write(new File(workspace, ".bazelversion"), "7.1.0");
+    cache.get(workspace, bazel);
+    write(bazel, "a new binary");
+    cache.get(workspace, bazel);
+    assertThat(runs).hasSize(5);
+    // Unchanged.
+    cache.get(workspace, bazel);
+    createCache().get(workspace, bazel);
+    assertThat(runs).hasSize(5);
+  }
+
+  @Test
+  public void testFingerprintImports()
+      throws IOException, InterruptedException, BazelNotFoundException {
+    BazelInfoCache cache = createCache();
+    write(new File(workspace, ".bazelrc"), "try-import %workspace%/user.bazelrc");
+    write(userRc, "import " + new File(folder.getRoot(), "shared.rc").getPath());
+    cache.get(workspace, bazel);
+    write(new File(workspace, "user.bazelrc"), "build --config=remote\nimport nested.rc");
+    cache.get(workspace, bazel);
+    write(new File(workspace, "nested.rc"), "build:remote --remote_cache=grpc://cache");
+    cache.get(workspace, bazel);
+    write(new File(folder.getRoot(), "shared.rc"), "import " + userRc.getPath());
+    cache.get(workspace, bazel);
+    new File(workspace, "tools").mkdirs();
+    write(new File(workspace, "tools/bazel"), "#!/bin/sh");
+    cache.get(workspace, bazel);
+    assertThat(runs).hasSize(5);
+    cache.get(workspace, bazel);
+    assertThat(runs).hasSize(5);
+  }
+
+  @Test
+  public void testFingerprintEnvironment()
+      throws IOException, InterruptedException, BazelNotFoundException {
+    createCache(ImmutableMap.of()).get(workspace, bazel);
+    // Not read by Bazel.
+    createCache(ImmutableMap.of("HOME", "/home")).get(workspace, bazel);
+    assertThat(runs).hasSize(1);
+    createCache(ImmutableMap.of("USE_BAZEL_VERSION", "7.1.0")).get(workspace, bazel);
+    assertThat(runs).hasSize(2);
+  }
+
+  private BazelInfoCache createCache(ImmutableMap<String, String> environment) {
+    BazelInfoCache cache = new BazelInfoCache(directory -> {
+      runs.add(directory);
+      return ImmutableList.of("workspace: " + directory.getPath());
+    }, ImmutableList.of(userRc), environment);
+    cache.setDirectory(cacheDirectory);
+    return cache;
+  }
+
+  @Test
+  public void testNotAWorkspace() throws IOException, InterruptedException, BazelNotFoundException {
+    BazelInfoCache cache = new BazelInfoCache(directory -> {
+      runs.add(directory);
+      return ImmutableList.of();
+    }, ImmutableList.of(userRc));
+    cache.setDirectory(cacheDirectory);
+    assertThat(cache.get(workspace, bazel)).isNull();
+    assertThat(cache.get(workspace, bazel)).isNull();
+    // Not cached, Bazel might have failed for another reason.
+    assertThat(runs).hasSize(2);
+  }
+
+  @Test
+  public void testSameWorkspace() throws IOException, InterruptedException, BazelNotFoundException {
+    File link = new File(folder.getRoot(), "link");
+    Files.createSymbolicLink(link.toPath(), workspace.toPath());
+    BazelInfoCache cache = createCache();
+    cache.get(link, bazel);
+    cache.get(workspace, bazel);
+    assertThat(runs).containsExactly(link);
+
+    // The workspace reported by Bazel for a directory shares its snapshot.
+    File sub = new File(workspace, "sub");
+    sub.mkdirs();
+    List<File> rootRuns = new LinkedList<>();
+    cache = new BazelInfoCache(directory -> {
+      rootRuns.add(directory);
+      return ImmutableList.of("workspace: " + workspace.getPath());
+    }, ImmutableList.of(userRc));
+    cache.get(sub, bazel);
+    cache.get(workspace, bazel);
+    assertThat(rootRuns).containsExactly(sub);
+  }
+
+  @Test
+  public void testConcurrentWorkspaces() throws Exception {
+    File other = folder.newFolder("other");
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    BazelInfoCache cache = new BazelInfoCache(directory -> {
+      if (directory.equals(workspace)) {
+        // A cold Bazel server.
+        started.countDown();
+        release.await();
+      }
+      return ImmutableList.of("workspace: " + directory.getPath());
+    }, ImmutableList.of(userRc));
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<BazelInfo> slow = executor.submit(() -> cache.get(workspace, bazel));
+      assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+      assertThat(cache.get(other, bazel).getWorkspace()).isEqualTo(other);
+      release.countDown();
+      assertThat(slow.get(10, TimeUnit.SECONDS).getWorkspace()).isEqualTo(workspace);
+    } finally {
+      release.countDown();
+      executor.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,191 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.command;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+
+/** @{link BuildCoordinator}Test */
+public class BuildCoordinatorTest {
+
+  private final List<List<String>> builds = Collections.synchronizedList(new LinkedList<>());
+  private final CountDownLatch started = new CountDownLatch(1);
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  private void waitForPendingTargets(BuildCoordinator coordinator, int count)
+      throws InterruptedException {
+    while (coordinator.getPendingTargets().size() < count) {
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  public void testPendingRequestsAreMerged() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    BuildCoordinator coordinator = new BuildCoordinator((targets, extraArgs, onStart) -> {
+      builds.add(targets);
+      started.countDown();
+      release.await();
+      return 0;
+    });
+    Future<Integer> first = executor.submit(() -> coordinator.build(ImmutableList.of("//a"),
+        ImmutableList.of()));
+    started.await();
+    Future<Integer> second = executor.submit(() -> coordinator.build(ImmutableList.of("//b"),
+        ImmutableList.of()));
+    Future<Integer> third = executor.submit(() -> coordinator.build(ImmutableList.of("//c"),
+        ImmutableList.of()));
+    waitForPendingTargets(coordinator, 2);
+    release.countDown();
+    assertThat(first.get(10, TimeUnit.SECONDS)).isEqualTo(0);
+    assertThat(second.get(10, TimeUnit.SECONDS)).isEqualTo(0);
+    assertThat(third.get(10, TimeUnit.SECONDS)).isEqualTo(0);
+    assertThat(builds).hasSize(2);
+    assertThat(builds.get(0)).containsExactly("//a");
+    assertThat(builds.get(1)).containsExactly("//b", "//c");
+  }
+
+  @Test
+  public void testOverlappingRequestSupersedesRunningBuild() throws Exception {
+    BuildCoordinator coordinator = new BuildCoordinator((targets, extraArgs, onStart) -> {
+      builds.add(targets);
+      if (builds.size() > 1) {
+        return 0;
+      }
+      // The first build never finishes unless it is cancelled.
+      Command command = Command.builder(null).setConsoleName(null).addArguments("sleep", "60")
+          .build();
+      onStart.accept(command);
+      started.countDown();
+      return command.run();
+    });
+    Future<Integer> first = executor.submit(() -> coordinator.build(ImmutableList.of("//a", "//b"),
+        ImmutableList.of()));
+    started.await();
+    Future<Integer> second = executor.submit(() -> coordinator.build(ImmutableList.of("//b", "//c"),
+        ImmutableList.of()));
+    // Both requests get the result of the build that superseded the first one.
+    assertThat(second.get(10, TimeUnit.SECONDS)).isEqualTo(0);
+    assertThat(first.get(10, TimeUnit.SECONDS)).isEqualTo(0);
+    assertThat(builds).hasSize(2);
+    assertThat(builds.get(1)).containsExactly("//a", "//b", "//c");
+  }
+
+  @Test
+  public void testRequestsWithDifferentArgumentsAreNotMerged() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    BuildCoordinator coordinator = new BuildCoordinator((targets, extraArgs, onStart) -> {
+      builds.add(ImmutableList.<String>builder().addAll(extraArgs).addAll(targets).build());
+      started.countDown();
+      release.await();
+      return extraArgs.size();
+    });
+    Future<Integer> first = executor.submit(() -> coordinator.build(ImmutableList.of("//a"),
+        ImmutableList.of()));
+    started.await();
+    Future<Integer> second = executor.submit(() -> coordinator.build(ImmutableList.of("//a"),
+        ImmutableList.of("-c", "opt")));
+    waitForPendingTargets(coordinator, 1);
+    release.countDown();
+    assertThat(first.get(10, TimeUnit.SECONDS)).isEqualTo(0);
+    assertThat(second.get(10, TimeUnit.SECONDS)).isEqualTo(2);
+    assertThat(builds).hasSize(2);
+  }
+
+  @Test
+  public void testInterruptionIsNotPassedToOtherRequests() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger runs = new AtomicInteger();
+    BuildCoordinator coordinator = new BuildCoordinator((targets, extraArgs, onStart) -> {
+      builds.add(targets);
+      started.countDown();
+      release.await();
+      if (runs.incrementAndGet() == 2) {
+        // The thread running the second build is interrupted.
+        throw new InterruptedException();
+      }
+      return 0;
+    });
+    Future<Integer> first = executor.submit(() -> coordinator.build(ImmutableList.of("//a"),
+        ImmutableList.of()));
+    started.await();
+    Future<Integer> second = executor.submit(() -> coordinator.build(ImmutableList.of("//b"),
+        ImmutableList.of()));
+    Future<Integer> third = executor.submit(() -> coordinator.build(ImmutableList.of("//c"),
+        ImmutableList.of()));
+    waitForPendingTargets(coordinator, 2);
+    release.countDown();
+    assertThat(first.get(10, TimeUnit.SECONDS)).isEqualTo(0);
+    int interrupted = 0;
+    for (Future<Integer> f : ImmutableList.of(second, third)) {
+      try {
+        assertThat(f.get(10, TimeUnit.SECONDS)).isEqualTo(0);
+      } catch (ExecutionException e) {
+        assertThat(e.getCause()).isInstanceOf(InterruptedException.class);
+        interrupted++;
+      }
+    }
+    assertThat(interrupted).isEqualTo(1);
+    assertThat(builds).hasSize(3);
+    assertThat(builds.get(2)).containsExactly("//b", "//c");
+  }
+
+  @Test
+  public void testBatchWithoutRequestsIsDropped() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    BuildCoordinator coordinator = new BuildCoordinator((targets, extraArgs, onStart) -> {
+      builds.add(targets);
+      started.countDown();
+      release.await();
+      return 0;
+    });
+    Future<Integer> first = executor.submit(() -> coordinator.build(ImmutableList.of("//a"),
+        ImmutableList.of()));
+    started.await();
+    // The only request of the pending build is canceled while it waits.
+    Future<Integer> second = executor.submit(() -> coordinator.build(ImmutableList.of("//b"),
+        ImmutableList.of()));
+    waitForPendingTargets(coordinator, 1);
+    second.cancel(true);
+    while (!coordinator.getPendingTargets().isEmpty()) {
+      Thread.sleep(10);
+    }
+    Future<Integer> third = executor.submit(() -> coordinator.build(ImmutableList.of("//c"),
+        ImmutableList.of()));
+    waitForPendingTargets(coordinator, 1);
+    release.countDown();
+    assertThat(first.get(10, TimeUnit.SECONDS)).isEqualTo(0);
+    assertThat(third.get(10, TimeUnit.SECONDS)).isEqualTo(0);
+    assertThat(builds).containsExactly(ImmutableList.of("//a"), ImmutableList.of("//c")).inOrder();
+  }
+}
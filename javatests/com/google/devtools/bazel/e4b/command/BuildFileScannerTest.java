@@ -0,0 +1,108 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.command;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.devtools.bazel.e4b.command.BuildFileScanner.BuildFile;
+import com.google.devtools.bazel.e4b.command.BuildFileScanner.Rule;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** @{link BuildFileScanner}Test */
+public class BuildFileScannerTest {
+
+  @org.junit.Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static BuildFile scan(String... lines) {
+    return BuildFileScanner.scan(String.join("\n", lines));
+  }
+
+  @Test
+  public void testRules() {
+    BuildFile file = scan(
+        "# A comment with java_library(name = 'commented')",
+        "package(default_visibility = ['//visibility:public'])",
+        "load(\"@rules_java//java:defs.bzl\", \"java_library\")",
+        "",
+        "java_library(",
+        "    name = \"lib\",",
+        "    srcs = [",
+        "        'A.java',",
+        "        \"B.java\",  # trailing comment",
+        "    ] + glob(['gen/*.java'], exclude = ['gen/Old.java']),",
+        "    deps = [':dep'],",
+        ")",
+        "",
+        "DEPS = [':lib']",
+        "java_test(name = 'lib_test', srcs = ['''T.java'''], deps = DEPS)",
+        "exports_files(['data.txt'])");
+    assertThat(file.isComplete()).isTrue();
+    assertThat(file.getRules()).hasSize(2);
+    Rule lib = file.getRule("lib");
+    assertThat(lib.getKind()).isEqualTo("java_library");
+    assertThat(lib.getSrcs()).containsExactly("A.java", "B.java").inOrder();
+    assertThat(lib.getGlobs()).containsExactly("gen/*.java");
+    assertThat(lib.isSrcsKnown()).isTrue();
+    assertThat(file.getRule("lib_test").getSrcs()).containsExactly("T.java");
+    assertThat(file.getExportedFiles()).containsExactly("data.txt");
+    assertThat(file.getRule("commented")).isNull();
+  }
+
+  @Test
+  public void testIncomplete() {
+    assertThat(scan("load(':macros.bzl', 'my_macro')", "my_macro(name = 'x')").isComplete())
+        .isFalse();
+    assertThat(scan("[java_library(name = n) for n in ['a', 'b']]").isComplete()).isFalse();
+    assertThat(scan("java_library(name = NAME)").isComplete()).isFalse();
+    assertThat(scan("def f():", "  java_library(name = 'a')").isComplete()).isFalse();
+    BuildFile select = scan("java_library(name = 'a', srcs = select({'//c': ['A.java']}))");
+    assertThat(select.isComplete()).isTrue();
+    assertThat(select.getRule("a").isSrcsKnown()).isFalse();
+  }
+
+  @Test
+  public void testGlobs() {
+    Rule rule = scan("java_library(name = 'a', srcs = ['Main.java'] + glob(",
+        "    ['**/*.java', 'data/?.txt'], exclude = ['**/*Test.java']))").getRule("a");
+    assertThat(rule.getExcludes()).containsExactly("**/*Test.java");
+    assertThat(rule.hasSource("Main.java")).isTrue();
+    assertThat(rule.hasSource("A.java")).isTrue();
+    assertThat(rule.hasSource("sub/dir/B.java")).isTrue();
+    assertThat(rule.hasSource("sub/BTest.java")).isFalse();
+    assertThat(rule.hasSource("data/a.txt")).isTrue();
+    assertThat(rule.hasSource("data/ab.txt")).isFalse();
+    assertThat(rule.hasSource("A.javax")).isFalse();
+  }
+
+  @Test
+  public void testCachedByDigest() throws IOException {
+    File file = folder.newFile("BUILD");
+    Files.write(file.toPath(), "java_library(name = 'a')".getBytes(StandardCharsets.UTF_8));
+    BuildFileScanner scanner = new BuildFileScanner();
+    BuildFile first = scanner.scan(file);
+    assertThat(scanner.scan(file)).isSameAs(first);
+    // Same content, new modification time.
+    file.setLastModified(file.lastModified() + 2000);
+    assertThat(scanner.scan(file)).isSameAs(first);
+    Files.write(file.toPath(), "java_library(name = 'b')".getBytes(StandardCharsets.UTF_8));
+    assertThat(scanner.scan(file).getRule("b")).isNotNull();
+  }
+}
@@ -0,0 +1,92 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.command;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableMap;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** @{link BuildReport}Test, also covering {@link BuildHistory} */
+public class BuildReportTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static String action(String label, String start, String end) {
+    return "{\"id\":{\"actionCompleted\":{\"primaryOutput\":\"bazel-out/" + label.hashCode()
+        + "\",\"label\":\"" + label + "\"}},\"action\":{\"success\":true,\"type\":\"Javac\","
+        + "\"startTime\":\"" + start + "\",\"endTime\":\"" + end + "\"}}";
+  }
+
+  private static final String EVENTS = Joiner.on("\n").join(
+      "{\"id\":{\"started\":{}},\"started\":{\"startTimeMillis\":\"1500000000000\"}}",
+      action("//foo:a", "2017-07-14T02:40:01Z", "2017-07-14T02:40:03Z"),
+      action("//foo:a", "2017-07-14T02:40:02Z", "2017-07-14T02:40:05.500Z"),
+      action("//bar:b", "2017-07-14T02:40:05Z", "2017-07-14T02:40:06Z"),
+      "{\"id\":{\"targetCompleted\":{\"label\":\"//foo:a\"}},\"completed\":{\"success\":true}}",
+      "{\"id\":{\"targetCompleted\":{\"label\":\"//bar:b\"}},\"completed\":{\"success\":true}}",
+      "{\"id\":{\"targetCompleted\":{\"label\":\"//baz:c\"}},\"completed\":{\"success\":true}}",
+      "{\"id\":{\"buildMetrics\":{}},\"buildMetrics\":{\"actionSummary\":{"
+          + "\"actionCacheStatistics\":{\"hits\":\"7\",\"misses\":\"3\"}}}}",
+      "{\"id\":{\"buildFinished\":{}},\"finished\":{\"overallSuccess\":true,"
+          + "\"finishTimeMillis\":\"1500000010000\"}}",
+      // A truncated event is ignored.
+      "{\"id\":{\"progress\":");
+
+  @Test
+  public void testParse() throws IOException {
+    BuildReport report = BuildReport.parse(new StringReader(EVENTS));
+    assertThat(report.isSuccess()).isTrue();
+    assertThat(report.getEndMillis() - report.getStartMillis()).isEqualTo(10000L);
+    assertThat(report.getActionCacheHits()).isEqualTo(7L);
+    assertThat(report.getActionCacheMisses()).isEqualTo(3L);
+    assertThat(report.getTargets()).hasSize(3);
+    // Slowest first
+    BuildReport.TargetRecord a = report.getTargets().get(0);
+    assertThat(a.getLabel()).isEqualTo("//foo:a");
+    assertThat(a.getDurationMillis()).isEqualTo(4500L);
+    assertThat(a.getActionMillis()).isEqualTo(5500L);
+    assertThat(a.getActionsExecuted()).isEqualTo(2);
+    assertThat(report.getTargets().get(1).getLabel()).isEqualTo("//bar:b");
+    // Fully cached.
+    assertThat(report.getTargets().get(2).getDurationMillis()).isEqualTo(0L);
+  }
+
+  @Test
+  public void testHistory() throws IOException {
+    File file = new File(folder.getRoot(), "history/workspace.json");
+    BuildHistory history = new BuildHistory(file, 3);
+    assertThat(history.getBaseline()).isEmpty();
+    BuildReport report = BuildReport.parse(new StringReader(EVENTS));
+    for (int i = 0; i < 5; i++) {
+      history.record(report);
+    }
+    assertThat(history.getBaseline())
+        .isEqualTo(ImmutableMap.of("//foo:a", 4500L, "//bar:b", 1000L));
+    // Only the last builds are kept.
+    assertThat(Files.readAllLines(file.toPath())).hasSize(3);
+    // No temporary file is left next to the history.
+    assertThat(Arrays.asList(file.getParentFile().list())).containsExactly("workspace.json");
+  }
+}
@@ -0,0 +1,113 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.command;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.devtools.bazel.e4b.command.DiagnosticParser.Diagnostic;
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** @{link DiagnosticParser}Test */
+public class DiagnosticParserTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File workspaceRoot;
+  private File execRoot;
+  private File source;
+  private final List<Diagnostic> diagnostics = new LinkedList<>();
+  private DiagnosticParser parser;
+
+  @Before
+  public void setup() throws IOException {
+    workspaceRoot = folder.newFolder("workspace");
+    execRoot = folder.newFolder("execroot");
+    new File(workspaceRoot, "java/foo").mkdirs();
+    source = new File(workspaceRoot, "java/foo/Bar.java");
+    source.createNewFile();
+    parser = new DiagnosticParser(workspaceRoot, execRoot, diagnostics::add);
+  }
+
+  private void parse(String... lines) {
+    for (String line : lines) {
+      parser.accept(line);
+    }
+  }
+
+  @Test
+  public void testJavacDiagnostic() {
+    parse("java/foo/Bar.java:3: error: cannot find symbol",
+        "    Baz b;",
+        "    ^",
+        "  symbol:   class Baz");
+    // The diagnostic might continue until the next non-indented line.
+    assertThat(diagnostics).isEmpty();
+    parse("1 error");
+    assertThat(diagnostics).hasSize(1);
+    Diagnostic d = diagnostics.get(0);
+    assertThat(d.getFile()).isEqualTo(source);
+    assertThat(d.getLine()).isEqualTo(3);
+    assertThat(d.getColumn()).isEqualTo(5);
+    assertThat(d.getSeverity()).isEqualTo(Diagnostic.Severity.ERROR);
+    assertThat(d.getMessage()).isEqualTo("cannot find symbol\nsymbol:   class Baz");
+  }
+
+  @Test
+  public void testConsecutiveJavacDiagnostics() {
+    parse("java/foo/Bar.java:3: warning: [deprecation] Foo in foo has been deprecated",
+        "java/foo/Bar.java:4: error: ';' expected",
+        "    int a",
+        "         ^");
+    parser.flush();
+    assertThat(diagnostics).hasSize(2);
+    assertThat(diagnostics.get(0).getSeverity()).isEqualTo(Diagnostic.Severity.WARNING);
+    assertThat(diagnostics.get(0).getColumn()).isEqualTo(0);
+    assertThat(diagnostics.get(1).getLine()).isEqualTo(4);
+    assertThat(diagnostics.get(1).getColumn()).isEqualTo(10);
+  }
+
+  @Test
+  public void testBazelDiagnostic() {
+    String build = new File(workspaceRoot, "java/foo/BUILD").getPath();
+    parse("INFO: Analysed 2 targets (0 packages loaded).",
+        "\u001B[31m\u001B[1mERROR: \u001B[0m" + build + ":12:1: no such target '//java/baz:baz'");
+    assertThat(diagnostics).hasSize(1);
+    Diagnostic d = diagnostics.get(0);
+    assertThat(d.getFile()).isEqualTo(new File(build));
+    assertThat(d.getLine()).isEqualTo(12);
+    assertThat(d.getColumn()).isEqualTo(1);
+    assertThat(d.getMessage()).isEqualTo("no such target '//java/baz:baz'");
+  }
+
+  @Test
+  public void testExecRootPaths() {
+    parse(new File(execRoot, "java/foo/Bar.java").getPath() + ":1: error: oops", "x", "^",
+        "bazel-out/k8-fastbuild/genfiles/Gen.java:2: error: generated");
+    parser.flush();
+    assertThat(diagnostics).hasSize(2);
+    // Mapped back to the workspace when the file exists in the workspace.
+    assertThat(diagnostics.get(0).getFile()).isEqualTo(source);
+    assertThat(diagnostics.get(1).getFile())
+        .isEqualTo(new File(execRoot, "bazel-out/k8-fastbuild/genfiles/Gen.java"));
+  }
+}
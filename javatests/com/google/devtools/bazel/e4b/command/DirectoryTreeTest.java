@@ -0,0 +1,101 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.command;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** @{link DirectoryTree}Test */
+public class DirectoryTreeTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final BlockingQueue<File> loaded = new ArrayBlockingQueue<>(10);
+  private File root;
+
+  private File create(String path) throws IOException {
+    File file = new File(root, path);
+    file.getParentFile().mkdirs();
+    file.createNewFile();
+    return file;
+  }
+
+  @Before
+  public void setup() throws IOException {
+    root = folder.getRoot();
+    create("WORKSPACE");
+    create("java/foo/BUILD");
+    create("java/foo/Foo.java");
+    create("java/docs/README");
+    create("third_party/empty/.keep");
+    create(".git/config");
+    new File(root, "bazel-out").mkdir();
+  }
+
+  private File getChildren(DirectoryTree tree, File directory) throws InterruptedException {
+    assertThat(tree.getChildren(directory)).isNull();
+    return loaded.poll(10, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void testChildren() throws InterruptedException {
+    try (DirectoryTree tree = new DirectoryTree(root, loaded::add)) {
+      assertThat(getChildren(tree, root)).isEqualTo(root);
+      assertThat(tree.getChildren(root))
+          .containsExactly(new File(root, "java"), new File(root, "third_party")).inOrder();
+      File java = new File(root, "java");
+      assertThat(getChildren(tree, java)).isEqualTo(java);
+      assertThat(tree.getChildren(java))
+          .containsExactly(new File(java, "docs"), new File(java, "foo")).inOrder();
+      File foo = new File(java, "foo");
+      assertThat(getChildren(tree, foo)).isEqualTo(foo);
+      assertThat(tree.getChildren(foo)).isEmpty();
+      assertThat(tree.hasChildren(java)).isTrue();
+      assertThat(tree.hasChildren(foo)).isFalse();
+    }
+  }
+
+  @Test
+  public void testPackagesOnly() throws InterruptedException {
+    try (PackageIndex index = new PackageIndex(root.toPath());
+        DirectoryTree tree = new DirectoryTree(root, root.toPath(), index, loaded::add)) {
+      assertThat(getChildren(tree, root)).isEqualTo(root);
+      assertThat(tree.getChildren(root)).containsExactly(new File(root, "java"));
+      File java = new File(root, "java");
+      assertThat(getChildren(tree, java)).isEqualTo(java);
+      assertThat(tree.getChildren(java)).containsExactly(new File(java, "foo"));
+    }
+  }
+
+  @Test
+  public void testPackagesOnlyInSubdirectory() throws InterruptedException {
+    File java = new File(root, "java");
+    try (PackageIndex index = new PackageIndex(root.toPath());
+        DirectoryTree tree = new DirectoryTree(java, root.toPath(), index, loaded::add)) {
+      assertThat(getChildren(tree, java)).isEqualTo(java);
+      assertThat(tree.getChildren(java)).containsExactly(new File(java, "foo"));
+    }
+  }
+}
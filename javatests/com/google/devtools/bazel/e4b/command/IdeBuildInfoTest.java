@@ -0,0 +1,100 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.command;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.bazel.e4b.command.IdeBuildInfo.Jars;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** @{link IdeBuildInfo}Test */
+public class IdeBuildInfoTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  // Write a JSON file as produced by the aspect for a java target named //pkg:<name>.
+  private String writeInfo(String name, String jar, String... deps) throws IOException {
+    StringBuilder depsList = new StringBuilder();
+    for (String dep : deps) {
+      if (depsList.length() > 0) {
+        depsList.append(", ");
+      }
+      depsList.append("\"//pkg:").append(dep).append("\"");
+    }
+    String content = "{\n"
+        + "  \"build_file_artifact_location\": \"pkg/BUILD\",\n"
+        + "  \"kind\": \"java_library\",\n"
+        + "  \"label\": \"//pkg:" + name + "\",\n"
+        + "  \"dependencies\": [" + depsList + "],\n"
+        + "  \"sources\": [\"pkg/" + name + ".java\"],\n"
+        + "  \"generated_jars\": [],\n"
+        + "  \"jars\": [{\"jar\": \"" + jar + "\", \"interface_jar\": \"" + jar + "-ijar\"}]\n"
+        + "}\n";
+    File file = new File(folder.getRoot(), name + ".e4b-build.json");
+    Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    return file.getAbsolutePath();
+  }
+
+  @Test
+  public void testJarsValueSemantics() throws IOException, InterruptedException {
+    ImmutableMap<String, IdeBuildInfo> first =
+        IdeBuildInfo.getInfo(ImmutableList.of(writeInfo("a", "third_party/guava.jar")));
+    ImmutableMap<String, IdeBuildInfo> second =
+        IdeBuildInfo.getInfo(ImmutableList.of(writeInfo("b", "third_party/guava.jar")));
+    Jars a = first.get("//pkg:a").getJars().get(0);
+    Jars b = second.get("//pkg:b").getJars().get(0);
+    assertThat(a).isEqualTo(b);
+    assertThat(a.hashCode()).isEqualTo(b.hashCode());
+    assertThat(a).isSameAs(b);
+  }
+
+  @Test
+  public void testDiamondDependencyGraph() throws IOException, InterruptedException {
+    // top -> left -> bottom, top -> right -> bottom, with bottom a third-party jar. Analyzing each
+    // side of the diamond separately should still produce a single jar object for bottom.
+    String bottom = writeInfo("bottom", "third_party/bottom.jar");
+    String left = writeInfo("left", "bazel-out/bin/pkg/libleft.jar", "bottom");
+    String right = writeInfo("right", "bazel-out/bin/pkg/libright.jar", "bottom");
+    String top = writeInfo("top", "bazel-out/bin/pkg/libtop.jar", "left", "right");
+
+    ImmutableMap<String, IdeBuildInfo> leftInfos =
+        IdeBuildInfo.getInfo(ImmutableList.of(top, left, bottom));
+    ImmutableMap<String, IdeBuildInfo> rightInfos =
+        IdeBuildInfo.getInfo(ImmutableList.of(top, right, bottom));
+
+    Set<Jars> jars = new HashSet<>();
+    for (IdeBuildInfo info : leftInfos.values()) {
+      jars.addAll(info.getJars());
+    }
+    for (IdeBuildInfo info : rightInfos.values()) {
+      jars.addAll(info.getJars());
+    }
+    assertThat(jars).hasSize(4);
+    assertThat(leftInfos.get("//pkg:bottom").getJars().get(0))
+        .isSameAs(rightInfos.get("//pkg:bottom").getJars().get(0));
+    assertThat(leftInfos.get("//pkg:top").getDeps()).containsExactly("//pkg:left", "//pkg:right");
+  }
+}
@@ -0,0 +1,96 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.command;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.File;
+import java.io.IOException;
+import org.junit.Test;
+
+/** @{link IdeInfoQuery}Test */
+public class IdeInfoQueryTest {
+
+  private static final File WORKSPACE = new File("/workspace");
+
+  private static final String QUERY = String.join("\n",
+      "<?xml version=\"1.1\" encoding=\"UTF-8\" standalone=\"no\"?>",
+      "<query version=\"2\">",
+      "    <rule class=\"java_library\" location=\"/workspace/foo/BUILD:1:13\" name=\"//foo:a\">",
+      "        <string name=\"name\" value=\"a\"/>",
+      "        <list name=\"srcs\">",
+      "            <label value=\"//foo:A.java\"/>",
+      "            <label value=\"//foo:sub/B.java\"/>",
+      "        </list>",
+      "        <list name=\"deps\">",
+      "            <label value=\"//bar:b\"/>",
+      "        </list>",
+      "        <list name=\"plugins\">",
+      "            <label value=\"//bar:plugin\"/>",
+      "        </list>",
+      "        <rule-input name=\"//bar:b\"/>",
+      "    </rule>",
+      "    <source-file location=\"/workspace/foo/A.java:1:1\" name=\"//foo:A.java\"/>",
+      "    <rule class=\"java_import\" location=\"/workspace/bar/BUILD:3:12\" name=\"//bar:b\">",
+      "        <list name=\"jars\">",
+      "            <label value=\"//bar:b.jar\"/>",
+      "        </list>",
+      "    </rule>",
+      "    <rule class=\"genrule\" location=\"/workspace/bar/BUILD:9:8\" name=\"//bar:gen\"/>",
+      "</query>");
+
+  @Test
+  public void testParse() throws IOException {
+    ImmutableMap<String, IdeBuildInfo> infos = IdeInfoQuery.parse(QUERY, ImmutableList.of(
+        "{\"label\": \"//foo:a\", \"jars\": [{\"jar\": \"bazel-out/bin/foo/liba.jar\","
+            + " \"interface_jar\": \"bazel-out/bin/foo/liba-hjar.jar\"}], \"generated_jars\": []}",
+        "",
+        "{\"label\": \"//bar:b\", \"jars\": [{\"jar\": \"bar/b.jar\"}], \"generated_jars\": []}",
+        "{\"label\": \"//not:queried\", \"jars\": [], \"generated_jars\": []}"), WORKSPACE);
+    assertThat(infos.keySet()).containsExactly("//foo:a", "//bar:b");
+    IdeBuildInfo a = infos.get("//foo:a");
+    assertThat(a.getKind()).isEqualTo("java_library");
+    assertThat(a.getLocation()).isEqualTo("foo/BUILD");
+    assertThat(a.getSources()).containsExactly("foo/A.java", "foo/sub/B.java");
+    // Only the dependency attributes followed by the aspect.
+    assertThat(a.getDeps()).containsExactly("//bar:b");
+    assertThat(a.getJars()).hasSize(1);
+    assertThat(a.getJars().get(0).getCompileJar(true)).isEqualTo("bazel-out/bin/foo/liba-hjar.jar");
+    assertThat(infos.get("//bar:b").getDeps()).isEmpty();
+  }
+
+  @Test
+  public void testSupportedReleases() {
+    assertThat(IdeInfoQuery.isSupported("release 6.0.0")).isTrue();
+    assertThat(IdeInfoQuery.isSupported("release 7.1.0")).isTrue();
+    assertThat(IdeInfoQuery.isSupported("release 10.0.0-pre.20250101.1")).isTrue();
+    assertThat(IdeInfoQuery.isSupported("release 5.4.1")).isFalse();
+    assertThat(IdeInfoQuery.isSupported("development version")).isFalse();
+    assertThat(IdeInfoQuery.isSupported(null)).isFalse();
+  }
+
+  @Test
+  public void testArguments() {
+    assertThat(IdeInfoQuery.getQueryArguments(ImmutableList.of("//foo/...", "//bar:b")))
+        .contains("deps(set(//foo/... //bar:b))");
+    assertThat(IdeInfoQuery.getCqueryArguments(ImmutableList.of("//foo/..."),
+        ImmutableList.of("--config=opt"), new File("/aspect")))
+        .containsExactly("cquery", "--config=opt", "--output=starlark",
+            "--starlark:file=/aspect/e4b_cquery.bzl", "deps(set(//foo/...))")
+        .inOrder();
+  }
+}
@@ -0,0 +1,220 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.command;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+/** @{link IdeInfoResolver}Test */
+public class IdeInfoResolverTest {
+
+  private static IdeBuildInfo info(String label, String... deps) {
+    JSONObject object = new JSONObject();
+    object.put("build_file_artifact_location", "BUILD");
+    object.put("kind", "java_library");
+    object.put("label", label);
+    object.put("dependencies", new JSONArray(ImmutableList.copyOf(deps)));
+    object.put("sources", new JSONArray());
+    object.put("generated_jars", new JSONArray());
+    object.put("jars", new JSONArray());
+    return new IdeBuildInfo(object);
+  }
+
+  // a -> c, b -> c, d: a and b share their dependency c.
+  private static final ImmutableMap<String, IdeBuildInfo> INFOS = ImmutableMap.of(
+      "//foo:a", info("//foo:a", "//baz:c"),
+      "//bar:b", info("//bar:b", "//baz:c"),
+      "//baz:c", info("//baz:c"),
+      "//qux/d:d", info("//qux/d:d"));
+
+  private final List<Collection<String>> loads = new LinkedList<>();
+  private final List<List<String>> loadFlags = new LinkedList<>();
+  private final List<Boolean> loadAnalyzeFirst = new LinkedList<>();
+  private IdeInfoResolver resolver;
+
+  @Before
+  public void setup() {
+    resolver = new IdeInfoResolver((targets, flags, onShard, analyzeFirst) -> {
+      loads.add(targets);
+      loadFlags.add(flags);
+      loadAnalyzeFirst.add(analyzeFirst);
+      if (onShard != null) {
+        onShard.accept(INFOS);
+      }
+      return INFOS;
+    });
+  }
+
+  @Test
+  public void testUnionIsComputedForAllProjects()
+      throws IOException, InterruptedException, BazelNotFoundException {
+    resolver.register("p1", ImmutableList.of("//foo:a"));
+    resolver.register("p2", ImmutableList.of("//bar/..."));
+    Map<String, IdeBuildInfo> p1 = resolver.getIdeInfo("p1");
+    Map<String, IdeBuildInfo> p2 = resolver.getIdeInfo("p2");
+    assertThat(loads).hasSize(2);
+    assertThat(loads.get(0)).containsExactly("//bar/...", "//foo:a");
+    assertThat(loads.get(1)).containsExactly("//bar/...", "//foo:a");
+    assertThat(p1.keySet()).containsExactly("//foo:a", "//baz:c");
+    assertThat(p2.keySet()).containsExactly("//bar:b", "//baz:c");
+    assertThat(p1.get("//baz:c")).isSameAs(p2.get("//baz:c"));
+    // Projections are cached as long as the underlying result does not change.
+    assertThat(resolver.getIdeInfo("p1")).isSameAs(p1);
+  }
+
+  @Test
+  public void testFlagsAreComputedSeparately()
+      throws IOException, InterruptedException, BazelNotFoundException {
+    resolver.register("p1", ImmutableList.of("//foo:a"));
+    resolver.register("p2", ImmutableList.of("//bar/..."), ImmutableList.of("--config=opt"));
+    resolver.getIdeInfo("p1");
+    resolver.getIdeInfo("p2");
+    assertThat(loads).hasSize(2);
+    assertThat(loads.get(0)).containsExactly("//foo:a");
+    assertThat(loadFlags.get(0)).isEmpty();
+    assertThat(loads.get(1)).containsExactly("//bar/...");
+    assertThat(loadFlags.get(1)).containsExactly("--config=opt");
+  }
+
+  @Test
+  public void testOwnerTargetsFirst()
+      throws IOException, InterruptedException, BazelNotFoundException {
+    List<Map<String, IdeBuildInfo>> partials = new LinkedList<>();
+    resolver.register("p1", ImmutableList.of("//foo:a"));
+    resolver.register("p2", ImmutableList.of("//bar/..."));
+    resolver.getIdeInfo("p2", partials::add);
+    assertThat(loads.get(0)).containsExactly("//bar/...", "//foo:a").inOrder();
+    // Partial results are projected on the targets of the owner.
+    assertThat(partials).hasSize(1);
+    assertThat(partials.get(0).keySet()).containsExactly("//bar:b", "//baz:c");
+  }
+
+  @Test
+  public void testProjection() {
+    assertThat(IdeInfoResolver.project(INFOS, ImmutableList.of("//qux/...")).keySet())
+        .containsExactly("//qux/d:d");
+    assertThat(IdeInfoResolver.project(INFOS, ImmutableList.of("//qux/d")).keySet())
+        .containsExactly("//qux/d:d");
+    assertThat(IdeInfoResolver.project(INFOS, ImmutableList.of("//foo:all", "@//bar:b")).keySet())
+        .containsExactly("//foo:a", "//bar:b", "//baz:c");
+    assertThat(IdeInfoResolver.project(INFOS, ImmutableList.of("//...")).keySet())
+        .containsExactly("//foo:a", "//bar:b", "//baz:c", "//qux/d:d");
+  }
+
+  @Test
+  public void testUnregister() throws IOException, InterruptedException, BazelNotFoundException {
+    resolver.register("p1", ImmutableList.of("//foo:a"));
+    resolver.register("p2", ImmutableList.of("//bar/..."));
+    resolver.getIdeInfo("p1");
+    resolver.unregister("p2");
+    resolver.getIdeInfo("p1");
+    assertThat(loads.get(1)).containsExactly("//foo:a");
+    assertThat(resolver.getIdeInfo("p2")).isEmpty();
+    assertThat(resolver.getLastIdeInfo("p2")).isNull();
+    assertThat(resolver.hasRegistrations()).isTrue();
+    resolver.unregister("p1");
+    assertThat(resolver.hasRegistrations()).isFalse();
+  }
+
+  @Test
+  public void testInvalidate() throws IOException, InterruptedException, BazelNotFoundException {
+    resolver.register("p1", ImmutableList.of("//foo:a"));
+    Map<String, IdeBuildInfo> p1 = resolver.getIdeInfo("p1");
+    assertThat(resolver.getCurrentIdeInfo("p1")).isSameAs(p1);
+    resolver.invalidate();
+    assertThat(resolver.getCurrentIdeInfo("p1")).isNull();
+    // Still available to show something until it is computed again.
+    assertThat(resolver.getLastIdeInfo("p1")).isSameAs(p1);
+    assertThat(resolver.getIdeInfo("p1")).isSameAs(p1);
+    assertThat(resolver.getCurrentIdeInfo("p1")).isSameAs(p1);
+  }
+
+  @Test
+  public void testAnalyzeFirstOnlyUntilPublished()
+      throws IOException, InterruptedException, BazelNotFoundException {
+    resolver.register("p1", ImmutableList.of("//foo:a"));
+    resolver.getIdeInfo("p1", partial -> {});
+    resolver.invalidate();
+    resolver.getIdeInfo("p1", partial -> {});
+    assertThat(loadAnalyzeFirst).containsExactly(true, false).inOrder();
+  }
+
+  @Test
+  public void testUnknownOwner() throws IOException, InterruptedException, BazelNotFoundException {
+    assertThat(resolver.getIdeInfo("unknown")).isEmpty();
+    assertThat(loads).isEmpty();
+  }
+
+  @Test
+  public void testLoadRunsWithoutLock() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    IdeInfoResolver blocking = new IdeInfoResolver((targets, flags, onShard, analyzeFirst) -> {
+      loads.add(targets);
+      started.countDown();
+      release.await();
+      return INFOS;
+    });
+    blocking.register("p1", ImmutableList.of("//foo:a"));
+    blocking.register("p2", ImmutableList.of("//bar/..."));
+    ExecutorService executor = Executors.newCachedThreadPool();
+    try {
+      Future<Map<String, IdeBuildInfo>> p1 = executor.submit(() -> blocking.getIdeInfo("p1"));
+      started.await();
+      // The last results and the registrations are available while the loader runs.
+      assertThat(blocking.getLastIdeInfo("p1")).isNull();
+      blocking.register("p3", ImmutableList.of("//qux/..."), ImmutableList.of("--config=opt"));
+      blocking.unregister("p3");
+      // The same union of targets shares the running load.
+      AtomicReference<Map<String, IdeBuildInfo>> p2 = new AtomicReference<>();
+      Thread waiter = new Thread(() -> {
+        try {
+          p2.set(blocking.getIdeInfo("p2"));
+        } catch (Exception e) {
+          throw new IllegalStateException(e);
+        }
+      });
+      waiter.start();
+      while (waiter.getState() != Thread.State.WAITING) {
+        Thread.sleep(10);
+      }
+      release.countDown();
+      waiter.join(10000);
+      assertThat(p1.get(10, TimeUnit.SECONDS).keySet()).containsExactly("//foo:a", "//baz:c");
+      assertThat(p2.get().keySet()).containsExactly("//bar:b", "//baz:c");
+      assertThat(loads).hasSize(1);
+      assertThat(blocking.getLastIdeInfo("p2").keySet()).containsExactly("//bar:b", "//baz:c");
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
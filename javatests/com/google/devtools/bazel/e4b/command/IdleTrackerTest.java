@@ -0,0 +1,59 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.command;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+/** @{link IdleTracker}Test */
+public class IdleTrackerTest {
+
+  private long now = 1000;
+  private final IdleTracker<String> tracker = new IdleTracker<>(() -> now);
+
+  @Test
+  public void testIdle() {
+    tracker.touch("a");
+    now += 100;
+    tracker.touch("b");
+    now += 100;
+    assertThat(tracker.getIdle(200)).containsExactly("a");
+    assertThat(tracker.getIdle(100)).containsExactly("a", "b");
+    tracker.touch("a");
+    assertThat(tracker.getIdle(100)).containsExactly("b");
+    tracker.remove("b");
+    assertThat(tracker.getIdle(100)).isEmpty();
+    now += 1000;
+    assertThat(tracker.getIdle(100)).containsExactly("a");
+    // Disabled.
+    assertThat(tracker.getIdle(0)).isEmpty();
+  }
+
+  @Test
+  public void testInUse() {
+    tracker.begin("a");
+    tracker.begin("a");
+    now += 1000;
+    assertThat(tracker.getIdle(100)).isEmpty();
+    tracker.end("a");
+    now += 1000;
+    assertThat(tracker.getIdle(100)).isEmpty();
+    tracker.end("a");
+    assertThat(tracker.getIdle(100)).isEmpty();
+    now += 100;
+    assertThat(tracker.getIdle(100)).containsExactly("a");
+  }
+}
@@ -0,0 +1,111 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.command;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** @{link PackageIndex}Test */
+public class PackageIndexTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private PackageIndex index;
+
+  private void touch(String path) throws IOException {
+    File file = new File(folder.getRoot(), path);
+    file.getParentFile().mkdirs();
+    file.createNewFile();
+  }
+
+  @Before
+  public void setup() throws IOException {
+    touch("WORKSPACE");
+    touch("BUILD");
+    touch("foo/BUILD");
+    touch("foo/bar/BUILD.bazel");
+    touch("foo/baz/Baz.java");
+    touch("foo2/BUILD");
+    touch("ignored/BUILD");
+    touch("bazel-out/BUILD");
+    touch(".git/BUILD");
+    Files.write(new File(folder.getRoot(), ".bazelignore").toPath(),
+        "# comment\nignored/\n".getBytes(StandardCharsets.UTF_8));
+    index = new PackageIndex(folder.getRoot().toPath());
+  }
+
+  @After
+  public void tearDown() {
+    index.close();
+  }
+
+  @Test
+  public void testPackages() throws InterruptedException {
+    assertThat(index.isPackage("")).isTrue();
+    assertThat(index.isPackage("foo/bar")).isTrue();
+    assertThat(index.isPackage("foo/baz")).isFalse();
+    assertThat(index.getPackagesUnder("foo")).containsExactly("foo", "foo/bar").inOrder();
+    assertThat(index.getPackagesUnder("")).containsExactly("", "foo", "foo/bar", "foo2");
+    assertThat(index.getPackagesUnder("ignored")).isEmpty();
+  }
+
+  @Test
+  public void testSubdirectories() throws InterruptedException {
+    assertThat(index.getSubdirectories("")).containsExactly("foo", "foo2").inOrder();
+    assertThat(index.getSubdirectories("foo")).containsExactly("bar", "baz").inOrder();
+    assertThat(index.getSubdirectories("unknown")).isEmpty();
+  }
+
+  @Test
+  public void testUpdates() throws IOException, InterruptedException {
+    assertThat(index.isPackage("qux")).isFalse();
+    touch("qux/BUILD");
+    new File(folder.getRoot(), "foo/bar/BUILD.bazel").delete();
+    for (int i = 0; i < 100 && (!index.isPackage("qux") || index.isPackage("foo/bar")); i++) {
+      Thread.sleep(100);
+    }
+    assertThat(index.isPackage("qux")).isTrue();
+    assertThat(index.isPackage("foo/bar")).isFalse();
+  }
+
+  @Test
+  public void testCrawledOnFirstUse() throws IOException, InterruptedException {
+    // Not crawled before being used.
+    touch("lazy/BUILD");
+    assertThat(index.isPackage("lazy")).isTrue();
+    index.close();
+    // Still usable once closed, without watching the workspace.
+    assertThat(index.getPackagesUnder("foo")).containsExactly("foo", "foo/bar").inOrder();
+  }
+
+  @Test
+  public void testCrawledAgainAfterRelease() throws IOException, InterruptedException {
+    assertThat(index.isPackage("foo")).isTrue();
+    index.release();
+    touch("released/BUILD");
+    assertThat(index.isPackage("released")).isTrue();
+    assertThat(index.getPackagesUnder("foo")).containsExactly("foo", "foo/bar").inOrder();
+  }
+}
@@ -0,0 +1,37 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.command;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+/** @{link PrefixTrie}Test */
+public class PrefixTrieTest {
+
+  @Test
+  public void testGetWithPrefix() {
+    PrefixTrie trie = new PrefixTrie();
+    trie.add("foo_test");
+    trie.add("foo");
+    trie.add("bar");
+    trie.add("foo");
+    assertThat(trie.size()).isEqualTo(3);
+    assertThat(trie.getWithPrefix("fo")).containsExactly("foo", "foo_test").inOrder();
+    assertThat(trie.getWithPrefix("foo_")).containsExactly("foo_test");
+    assertThat(trie.getWithPrefix("")).containsExactly("bar", "foo", "foo_test").inOrder();
+    assertThat(trie.getWithPrefix("baz")).isEmpty();
+  }
+}
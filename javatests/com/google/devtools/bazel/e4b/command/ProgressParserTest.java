@@ -0,0 +1,93 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.command;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.devtools.bazel.e4b.command.ProgressParser.Phase;
+import com.google.devtools.bazel.e4b.command.ProgressParser.Progress;
+import java.util.LinkedList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+/** @{link ProgressParser}Test */
+public class ProgressParserTest {
+
+  private final List<Progress> progress = new LinkedList<>();
+  private long time = 0;
+  private ProgressParser parser;
+
+  @Before
+  public void setup() {
+    parser = new ProgressParser(progress::add, () -> time);
+  }
+
+  private Progress last() {
+    return progress.get(progress.size() - 1);
+  }
+
+  @Test
+  public void testPhases() {
+    parser.accept("Loading: 0 packages loaded");
+    assertThat(last().getPhase()).isEqualTo(Phase.LOADING);
+    parser.accept("Analyzing: 3 targets (12 packages loaded, 105 targets configured)");
+    assertThat(last().getPhase()).isEqualTo(Phase.ANALYSIS);
+    assertThat(last().getTargets()).isEqualTo(3);
+    assertThat(last().getMessage())
+        .isEqualTo("Analyzing 3 targets (12 packages loaded, 105 targets configured)");
+    parser.accept("INFO: Analysed 3 targets (12 packages loaded).");
+    parser.accept("[1,234 / 5,678] Compiling java/foo/Bar.java; 3s linux-sandbox");
+    assertThat(last().getPhase()).isEqualTo(Phase.EXECUTION);
+    assertThat(last().getActionsDone()).isEqualTo(1234);
+    assertThat(last().getActionsTotal()).isEqualTo(5678);
+    assertThat(last().getMessage()).isEqualTo("Compiling java/foo/Bar.java; 3s linux-sandbox");
+    parser.accept("INFO: Elapsed time: 12.345s, Critical Path: 10.11s");
+    assertThat(last().getCriticalPathSeconds()).isEqualTo(10.11);
+    parser.accept("INFO: Build completed successfully, 5,678 total actions");
+    assertThat(last().getPhase()).isEqualTo(Phase.DONE);
+  }
+
+  @Test
+  public void testIrrelevantLinesAreIgnored() {
+    parser.accept("INFO: Found 3 targets...");
+    parser.accept("Target //foo:bar up-to-date:");
+    parser.accept("  bazel-bin/foo/bar.jar");
+    assertThat(progress).isEmpty();
+  }
+
+  @Test
+  public void testThroughput() {
+    parser.accept("[0 / 100] Compiling");
+    assertThat(last().getActionsPerSecond()).isEqualTo(0.0);
+    time = 1000;
+    parser.accept("[10 / 100] Compiling");
+    assertThat(last().getActionsPerSecond()).isEqualTo(10.0);
+    // Updates printed in the same millisecond do not produce infinite rates.
+    parser.accept("[20 / 100] Compiling");
+    assertThat(last().getActionsPerSecond()).isEqualTo(10.0);
+    time = 2000;
+    parser.accept("[40 / 100] Compiling");
+    assertThat(last().getActionsPerSecond()).isGreaterThan(10.0);
+    assertThat(last().toString()).startsWith("[40 / 100] Compiling (");
+  }
+
+  @Test
+  public void testCarriageReturnsAndColors() {
+    parser.accept("[1 / 2] A\r\u001B[32m[2 / 3]\u001B[0m B");
+    assertThat(last().getActionsDone()).isEqualTo(2);
+    assertThat(last().getMessage()).isEqualTo("B");
+  }
+}
@@ -0,0 +1,99 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.command;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** @{link TargetCompletionIndex}Test */
+public class TargetCompletionIndexTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final List<String> loads = new LinkedList<>();
+  private boolean failing = false;
+  private long now = 0;
+  private File buildFile;
+  private TargetCompletionIndex index;
+
+  @Before
+  public void setup() throws IOException {
+    File workspaceRoot = folder.getRoot();
+    new File(workspaceRoot, "foo").mkdirs();
+    buildFile = new File(workspaceRoot, "foo/BUILD");
+    Files.write(buildFile.toPath(), "java_library(name = 'a')".getBytes(StandardCharsets.UTF_8));
+    index = new TargetCompletionIndex(workspaceRoot, packageName -> {
+      loads.add(packageName);
+      return failing ? null : ImmutableList.of("lib", "lib_test", "A.java");
+    }, () -> now);
+  }
+
+  @Test
+  public void testLoadedOncePerBuildFileVersion()
+      throws IOException, InterruptedException, BazelNotFoundException {
+    assertThat(index.complete("//foo", "lib")).containsExactly("lib", "lib_test").inOrder();
+    assertThat(index.complete("foo", "A")).containsExactly("A.java");
+    assertThat(loads).containsExactly("//foo");
+    Files.write(buildFile.toPath(),
+        "java_library(name = 'lib')\n".getBytes(StandardCharsets.UTF_8));
+    buildFile.setLastModified(buildFile.lastModified() + 2000);
+    index.complete("//foo", "");
+    assertThat(loads).containsExactly("//foo", "//foo");
+  }
+
+  @Test
+  public void testFailedLoadIsNotKept()
+      throws IOException, InterruptedException, BazelNotFoundException {
+    failing = true;
+    assertThat(index.complete("//foo", "")).isEmpty();
+    failing = false;
+    assertThat(index.complete("//foo", "lib")).containsExactly("lib", "lib_test").inOrder();
+    assertThat(loads).containsExactly("//foo", "//foo");
+  }
+
+  @Test
+  public void testExternalPackagesExpire()
+      throws IOException, InterruptedException, BazelNotFoundException {
+    assertThat(index.complete("@repo//foo", "lib")).containsExactly("lib", "lib_test").inOrder();
+    now += TargetCompletionIndex.EXTERNAL_TTL_MILLIS - 1;
+    index.complete("@repo//foo", "A");
+    assertThat(loads).containsExactly("@repo//foo");
+    now += 1;
+    index.complete("@repo//foo", "A");
+    assertThat(loads).containsExactly("@repo//foo", "@repo//foo");
+  }
+
+  @Test
+  public void testBuildFiles() throws IOException {
+    assertThat(index.getBuildFile("//foo")).isEqualTo(buildFile);
+    File bazelBuildFile = new File(folder.getRoot(), "foo/BUILD.bazel");
+    bazelBuildFile.createNewFile();
+    assertThat(index.getBuildFile("@//foo")).isEqualTo(bazelBuildFile);
+    assertThat(index.getBuildFile("//bar")).isNull();
+    assertThat(index.getBuildFile("@repo//foo")).isNull();
+  }
+}
@@ -0,0 +1,149 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.command;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** @{link TargetPatternExpander}Test */
+public class TargetPatternExpanderTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final List<String> fallbacks = new LinkedList<>();
+  private PackageIndex index;
+  private TargetPatternExpander expander;
+
+  private void write(String path, String... lines) throws IOException {
+    File file = new File(folder.getRoot(), path);
+    file.getParentFile().mkdirs();
+    Files.write(file.toPath(), String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Before
+  public void setup() throws IOException {
+    write("WORKSPACE");
+    write("foo/BUILD",
+        "java_library(",
+        "    name = 'lib',",
+        "    srcs = ['Lib.java'],",
+        ")",
+        "java_test(name = \"lib_test\", srcs = [\"LibTest.java\"], deps = [':lib'])");
+    write("foo/data/file.txt");
+    write("foo/bar/BUILD.bazel",
+        "load('//tools:macros.bzl', 'java_tests')",
+        "java_tests(name = 'tests', srcs = glob(['*Test.java']))");
+    write("baz/BUILD",
+        "java_library(name = 'baz', srcs = glob(['**/*.java'], exclude = ['Old.java']))");
+    write("baz/A.java");
+    write("baz/Old.java");
+    write("baz/util/B.java");
+    write("baz/sub/BUILD");
+    write("baz/sub/C.java");
+    index = new PackageIndex(folder.getRoot().toPath());
+    expander = new TargetPatternExpander(folder.getRoot(), index, new BuildFileScanner(),
+        pattern -> {
+          fallbacks.add(pattern);
+          return ImmutableList.of(pattern.replace(":all", ":from_bazel"));
+        });
+  }
+
+  @After
+  public void tearDown() {
+    index.close();
+  }
+
+  @Test
+  public void testRecursive() throws IOException, InterruptedException, BazelNotFoundException {
+    assertThat(expander.expand("//foo/..."))
+        .containsExactly("//foo:lib", "//foo:lib_test", "//foo/bar:from_bazel").inOrder();
+    // The macro cannot be expanded locally.
+    assertThat(fallbacks).containsExactly("//foo/bar:all");
+  }
+
+  @Test
+  public void testPackage() throws IOException, InterruptedException, BazelNotFoundException {
+    assertThat(expander.expand("//foo:all")).containsExactly("//foo:lib", "//foo:lib_test");
+    assertThat(expander.expand("//foo:*")).containsExactly("//foo:lib", "//foo:lib_test",
+        "//foo:BUILD", "//foo:Lib.java", "//foo:LibTest.java");
+    assertThat(expander.expand("//foo:lib")).containsExactly("//foo:lib");
+    assertThat(expander.expand("//unknown:all")).isEmpty();
+    assertThat(fallbacks).isEmpty();
+  }
+
+  @Test
+  public void testSplitPackages() throws InterruptedException {
+    assertThat(expander.splitPackages(ImmutableList.of("//foo:lib", "//baz/...", "//foo/...")))
+        .containsExactly("//foo:lib", "//baz:all", "//baz/sub:all", "//foo:all", "//foo/bar:all")
+        .inOrder();
+    assertThat(expander.splitPackages(ImmutableList.of("@repo//...", "//unknown/...")))
+        .containsExactly("@repo//...", "//unknown/...").inOrder();
+    assertThat(expander.splitPackages(ImmutableList.of("//baz/...", "-//baz/sub:all")))
+        .containsExactly("//baz/...", "-//baz/sub:all").inOrder();
+  }
+
+  @Test
+  public void testFallback() throws IOException, InterruptedException, BazelNotFoundException {
+    expander.expand("@repo//foo:all");
+    expander.expand("//foo:Lib.java");
+    assertThat(fallbacks).containsExactly("@repo//foo:all", "//foo:Lib.java");
+  }
+
+  @Test
+  public void testGlobs() throws IOException, InterruptedException, BazelNotFoundException {
+    assertThat(expander.expand("//baz:*"))
+        .containsExactly("//baz:baz", "//baz:BUILD", "//baz:A.java", "//baz:util/B.java");
+    assertThat(fallbacks).isEmpty();
+  }
+
+  @Test
+  public void testOwners() throws IOException, InterruptedException {
+    assertThat(expander.getOwners("foo/Lib.java")).containsExactly("//foo:lib");
+    assertThat(expander.getOwners("foo/LibTest.java")).containsExactly("//foo:lib_test");
+    assertThat(expander.getOwners("foo/data/file.txt")).isEmpty();
+    assertThat(expander.getOwners("unknown/File.java")).isEmpty();
+  }
+
+  @Test
+  public void testStreaming() throws IOException, InterruptedException, BazelNotFoundException {
+    write("foo/macro/BUILD", "load('//tools:macros.bzl', 'my_macro')", "my_macro(name = 'm')");
+    index.close();
+    index = new PackageIndex(folder.getRoot().toPath());
+    expander = new TargetPatternExpander(folder.getRoot(), index, new BuildFileScanner(),
+        pattern -> {
+          fallbacks.add(pattern);
+          return ImmutableList.of("//foo/bar:tests", "//foo/macro:m");
+        });
+    List<List<String>> batches = new LinkedList<>();
+    expander.expand("//foo/...", batches::add);
+    // The packages expanded locally come first, the others are expanded by a single query.
+    assertThat(batches).containsExactly(ImmutableList.of("//foo:lib", "//foo:lib_test"),
+        ImmutableList.of("//foo/bar:tests", "//foo/macro:m")).inOrder();
+    assertThat(fallbacks).containsExactly("//foo/bar:all + //foo/macro:all");
+  }
+}
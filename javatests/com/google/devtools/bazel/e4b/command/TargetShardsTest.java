@@ -0,0 +1,39 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.command;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+/** @{link TargetShards}Test */
+public class TargetShardsTest {
+
+  @Test
+  public void testShardsGrow() {
+    ImmutableList<String> targets =
+        ImmutableList.of("//a", "//b", "//c", "//d", "//e", "//f", "//g", "//h");
+    assertThat(TargetShards.split(targets, 1)).containsExactly(ImmutableList.of("//a"),
+        ImmutableList.of("//b", "//c"), ImmutableList.of("//d", "//e", "//f", "//g"),
+        ImmutableList.of("//h")).inOrder();
+    assertThat(TargetShards.split(targets, 10)).containsExactly(targets);
+  }
+
+  @Test
+  public void testEmpty() {
+    assertThat(TargetShards.split(ImmutableList.of(), 4)).isEmpty();
+  }
+}
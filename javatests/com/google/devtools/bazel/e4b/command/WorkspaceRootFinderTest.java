@@ -0,0 +1,124 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.bazel.e4b.command;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** @{link WorkspaceRootFinder}Test */
+public class WorkspaceRootFinderTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final List<File> confirmations = new LinkedList<>();
+  private WorkspaceRootFinder finder;
+  private File workspace;
+
+  @Before
+  public void setup() throws IOException {
+    workspace = folder.newFolder("workspace");
+    new File(workspace, "WORKSPACE").createNewFile();
+    new File(workspace, "java/foo").mkdirs();
+    finder = new WorkspaceRootFinder(directory -> {
+      confirmations.add(directory);
+      return directory;
+    });
+  }
+
+  @Test
+  public void testFind() throws IOException, InterruptedException, BazelNotFoundException {
+    assertThat(finder.find(new File(workspace, "java/foo"))).isEqualTo(workspace);
+    assertThat(finder.find(new File(workspace, "java"))).isEqualTo(workspace);
+    assertThat(finder.find(workspace)).isEqualTo(workspace);
+    assertThat(finder.find(folder.getRoot())).isNull();
+    // Bazel is only asked once per root.
+    assertThat(confirmations).containsExactly(workspace);
+  }
+
+  @Test
+  public void testMarkers() throws IOException, InterruptedException, BazelNotFoundException {
+    File module = new File(workspace, "java/module");
+    module.mkdirs();
+    new File(module, "MODULE.bazel").createNewFile();
+    File nested = new File(workspace, "java/nested");
+    nested.mkdirs();
+    new File(nested, "WORKSPACE.bazel").createNewFile();
+    assertThat(finder.find(module)).isEqualTo(module);
+    assertThat(finder.find(new File(nested, "src"))).isEqualTo(nested);
+    assertThat(finder.find(new File(workspace, "java/foo"))).isEqualTo(workspace);
+  }
+
+  @Test
+  public void testRemovedWorkspace()
+      throws IOException, InterruptedException, BazelNotFoundException {
+    File nested = new File(workspace, "java/foo");
+    File marker = new File(nested, "MODULE.bazel");
+    marker.createNewFile();
+    assertThat(finder.find(nested)).isEqualTo(nested);
+    marker.delete();
+    assertThat(finder.find(nested)).isEqualTo(workspace);
+    assertThat(confirmations).containsExactly(nested, workspace).inOrder();
+  }
+
+  @Test
+  public void testConfirmedRoot() throws IOException, InterruptedException, BazelNotFoundException {
+    File resolved = folder.newFolder("resolved");
+    finder = new WorkspaceRootFinder(directory -> resolved);
+    assertThat(finder.find(new File(workspace, "java"))).isEqualTo(resolved);
+    finder = new WorkspaceRootFinder(directory -> null);
+    assertThat(finder.find(new File(workspace, "java"))).isNull();
+  }
+
+  @Test
+  public void testConcurrentWorkspaces() throws Exception {
+    File other = folder.newFolder("other");
+    new File(other, "MODULE.bazel").createNewFile();
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    WorkspaceRootFinder slowFinder = new WorkspaceRootFinder(directory -> {
+      if (directory.equals(workspace)) {
+        // A cold Bazel server.
+        started.countDown();
+        release.await();
+      }
+      return directory;
+    });
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<File> slow = executor.submit(() -> slowFinder.find(workspace));
+      assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+      assertThat(slowFinder.find(other)).isEqualTo(other);
+      release.countDown();
+      assertThat(slow.get(10, TimeUnit.SECONDS)).isEqualTo(workspace);
+    } finally {
+      release.countDown();
+      executor.shutdownNow();
+    }
+  }
+}
@@ -12,7 +12,7 @@
 # See the License for the specific language governing permissions and
 # limitations under the License.
 #
-# Aspect for e4b, taken from intellij_info.bzl
+# Aspect for e4b, taken from intellij_info.bzl. Requires Bazel 6.0 or later.
 
 DEPENDENCY_ATTRIBUTES = [
   "deps",
@@ -20,27 +20,63 @@ DEPENDENCY_ATTRIBUTES = [
   "exports",
 ]
 
-def struct_omit_none(**kwargs):
-    d = {name: kwargs[name] for name in kwargs if kwargs[name] != None}
-    return struct(**d)
+# The e4b information of the transitive dependencies of a target.
+E4bInfo = provider(fields = ["ide_info_text", "ide_resolve_files"])
+
+def omit_none(d):
+  return {k: d[k] for k in d if d[k] != None}
 
 def artifact_location(file):
   return None if file == None else file.path
 
+def first(files):
+  if files == None:
+    return None
+  if type(files) == "depset":
+    files = files.to_list()
+  return files[0] if files else None
+
+def label_string(label):
+  # Use the same form as `bazel query` for the targets of the main repository.
+  s = str(label)
+  if s.startswith("@@//"):
+    return s[2:]
+  if s.startswith("@//"):
+    return s[1:]
+  return s
+
+def java_outputs(java_info):
+  outputs = getattr(java_info, "java_outputs", None)
+  if outputs == None:
+    outputs = java_info.outputs.jars
+  return outputs
+
+def interface_jar(output):
+  return getattr(output, "compile_jar", None) or getattr(output, "ijar", None)
+
+def source_jar(output):
+  return getattr(output, "source_jar", None) or first(getattr(output, "source_jars", None))
+
 def library_artifact(java_output):
   if java_output == None or java_output.class_jar == None:
     return None
-  return struct_omit_none(
-        jar = artifact_location(java_output.class_jar),
-        interface_jar = artifact_location(java_output.ijar),
-        source_jar = artifact_location(java_output.source_jar),
-  )
-
-def annotation_processing_jars(annotation_processing):
-  return struct_omit_none(
-        jar = artifact_location(annotation_processing.class_jar),
-        source_jar = artifact_location(annotation_processing.source_jar),
-  )
+  return omit_none({
+        "jar": artifact_location(java_output.class_jar),
+        "interface_jar": artifact_location(interface_jar(java_output)),
+        "source_jar": artifact_location(source_jar(java_output)),
+  })
+
+def generated_jars(java_info):
+  """ Returns the pairs of (class jar, source jar) generated by annotation processors.
+  """
+  result = []
+  for output in java_outputs(java_info):
+    if getattr(output, "generated_class_jar", None) != None:
+      result.append((output.generated_class_jar, getattr(output, "generated_source_jar", None)))
+  annotation_processing = getattr(java_info, "annotation_processing", None)
+  if not result and annotation_processing and annotation_processing.enabled:
+    result.append((annotation_processing.class_jar, annotation_processing.source_jar))
+  return result
 
 def jars_from_output(output):
   """ Collect jars for ide-resolve-files from Java output.
@@ -48,79 +84,83 @@ def jars_from_output(output):
   if output == None:
     return []
   return [jar
-          for jar in [output.class_jar, output.ijar, output.source_jar]
+          for jar in [output.class_jar, interface_jar(output), source_jar(output)]
           if jar != None and not jar.is_source]
 
-def java_rule_ide_info(target, ctx):
+def java_rule_ide_info(java_info, ctx):
   if hasattr(ctx.rule.attr, "srcs"):
      sources = [artifact_location(file)
                 for src in ctx.rule.attr.srcs
-                for file in src.files]
+                for file in src.files.to_list()]
   else:
      sources = []
 
-  jars = [library_artifact(output) for output in target.java.outputs.jars]
-  ide_resolve_files = depset([jar
-       for output in target.java.outputs.jars
-       for jar in jars_from_output(output)])
+  outputs = java_outputs(java_info)
+  jars = [library_artifact(output) for output in outputs]
+  resolve_files = [jar for output in outputs for jar in jars_from_output(output)]
 
   gen_jars = []
-  if target.java.annotation_processing and target.java.annotation_processing.enabled:
-    gen_jars = [annotation_processing_jars(target.java.annotation_processing)]
-    ide_resolve_files = ide_resolve_files + depset([ jar
-        for jar in [target.java.annotation_processing.class_jar,
-                    target.java.annotation_processing.source_jar]
-        if jar != None and not jar.is_source])
-
-  return (struct_omit_none(
-                 sources = sources,
-                 jars = jars,
-                 generated_jars = gen_jars
-          ),
-          ide_resolve_files)
+  for (class_jar, gen_source_jar) in generated_jars(java_info):
+    gen_jars.append(omit_none({
+        "jar": artifact_location(class_jar),
+        "source_jar": artifact_location(gen_source_jar),
+    }))
+    resolve_files += [jar for jar in [class_jar, gen_source_jar]
+                      if jar != None and not jar.is_source]
+
+  return ({
+              "sources": sources,
+              "jars": [jar for jar in jars if jar != None],
+              "generated_jars": gen_jars,
+          },
+          depset(resolve_files))
 
 
 def _aspect_impl(target, ctx):
   kind = ctx.rule.kind
   rule_attrs = ctx.rule.attr
 
-  ide_info_text = depset()
-  ide_resolve_files = depset()
+  transitive_info_text = []
+  transitive_resolve_files = []
   all_deps = []
 
   for attr_name in DEPENDENCY_ATTRIBUTES:
     if hasattr(rule_attrs, attr_name):
       deps = getattr(rule_attrs, attr_name)
-      if type(deps) == 'list':
+      if type(deps) == "list":
         for dep in deps:
-          if hasattr(dep, "intellij_info_files"):
-           ide_info_text = ide_info_text + dep.intellij_info_files.ide_info_text
-           ide_resolve_files = ide_resolve_files + dep.intellij_info_files.ide_resolve_files
-        all_deps += [str(dep.label) for dep in deps]
-
-  if hasattr(target, "java"):
-    (java_rule_ide_info_struct, java_ide_resolve_files) = java_rule_ide_info(target, ctx)
-    info = struct(
-        label = str(target.label),
-        kind = kind,
-        dependencies = all_deps,
-        build_file_artifact_location = ctx.build_file_path,
-    ) + java_rule_ide_info_struct
-    ide_resolve_files = ide_resolve_files + java_ide_resolve_files
-    output = ctx.new_file(target.label.name + ".e4b-build.json")
-    ctx.file_action(output, info.to_json())
-    ide_info_text += depset([output])
-
-  return struct(
-      output_groups = {
+          if E4bInfo in dep:
+            transitive_info_text.append(dep[E4bInfo].ide_info_text)
+            transitive_resolve_files.append(dep[E4bInfo].ide_resolve_files)
+        all_deps += [label_string(dep.label) for dep in deps]
+
+  direct_info_text = []
+  if JavaInfo in target:
+    (java_rule_ide_info_dict, java_ide_resolve_files) = java_rule_ide_info(target[JavaInfo], ctx)
+    info = {
+        "label": label_string(target.label),
+        "kind": kind,
+        "dependencies": all_deps,
+        "build_file_artifact_location": ctx.build_file_path,
+    }
+    info.update(java_rule_ide_info_dict)
+    transitive_resolve_files.append(java_ide_resolve_files)
+    output = ctx.actions.declare_file(target.label.name + ".e4b-build.json")
+    ctx.actions.write(output, json.encode(info))
+    direct_info_text.append(output)
+
+  ide_info_text = depset(direct_info_text, transitive = transitive_info_text)
+  ide_resolve_files = depset(transitive = transitive_resolve_files)
+  return [
+      OutputGroupInfo(**{
         "ide-info-text" : ide_info_text,
         "ide-resolve" : ide_resolve_files,
-      },
-      intellij_info_files = struct(
+      }),
+      E4bInfo(
         ide_info_text = ide_info_text,
         ide_resolve_files = ide_resolve_files,
-      )
-    )
+      ),
+  ]
 
 e4b_aspect = aspect(implementation = _aspect_impl,
     attr_aspects = DEPENDENCY_ATTRIBUTES
@@ -0,0 +1,98 @@
+# Copyright 2017 The Bazel Authors. All rights reserved.
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#    http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# Output formatter for `bazel cquery --output=starlark --starlark:file=e4b_cquery.bzl`.
+#
+# Prints one JSON object per configured Java target with the part of the information of the
+# e4b_aspect that is known at the end of the analysis phase, without executing any action:
+#
+# ```javascript
+# {
+#   // Label of the corresponding target
+#   "label": "//package:target",
+#   // List of jars created when building this target, see e4b_aspect.bzl.
+#   "jars": [jar1, jar2],
+#   // List of jars generated by java annotation processors when building this target.
+#   "generated_jars": [genjar1, genjar2]
+# }
+# ```
+#
+# The kind, sources and dependencies of the targets are obtained with `bazel query`.
+
+def _omit_none(d):
+  return {k: d[k] for k in d if d[k] != None}
+
+def _path(f):
+  return None if f == None else f.path
+
+def _first(files):
+  if files == None:
+    return None
+  if type(files) == "depset":
+    files = files.to_list()
+  return files[0] if files else None
+
+def _java_info(target):
+  p = providers(target)
+  if p == None:
+    return None
+  for key in p:
+    # JavaInfo is keyed by the label of its definition when defined in Starlark.
+    if key == "JavaInfo" or key.endswith("%JavaInfo"):
+      return p[key]
+  return None
+
+def _is_exec(target):
+  options = build_options(target)
+  return options != None and options.get("//command_line_option:is exec configuration", False)
+
+def _label(target):
+  # Use the same form as `bazel query` for the targets of the main repository.
+  label = str(target.label)
+  if label.startswith("@@//"):
+    return label[2:]
+  if label.startswith("@//"):
+    return label[1:]
+  return label
+
+def format(target):
+  info = _java_info(target)
+  if info == None or _is_exec(target):
+    return ""
+  outputs = getattr(info, "java_outputs", None)
+  if outputs == None:
+    outputs = info.outputs.jars
+  jars = []
+  generated_jars = []
+  for output in outputs:
+    if output.class_jar == None:
+      continue
+    interface_jar = getattr(output, "compile_jar", None) or getattr(output, "ijar", None)
+    source_jar = getattr(output, "source_jar", None) or _first(getattr(output, "source_jars", None))
+    jars.append(_omit_none({
+        "jar": _path(output.class_jar),
+        "interface_jar": _path(interface_jar),
+        "source_jar": _path(source_jar),
+    }))
+    generated_class_jar = getattr(output, "generated_class_jar", None)
+    if generated_class_jar != None:
+      generated_jars.append(_omit_none({
+          "jar": _path(generated_class_jar),
+          "source_jar": _path(getattr(output, "generated_source_jar", None)),
+      }))
+  return json.encode({
+      "label": _label(target),
+      "jars": jars,
+      "generated_jars": generated_jars,
+  })
@@ -29,6 +29,8 @@ _DECLARED_DEPS = [
     "org.eclipse.core.resources",
     "org.eclipse.ui.ide",
     "org.eclipse.jdt.core",
+    "org.eclipse.jdt.launching",
+    "org.eclipse.debug.core",
     "org.eclipse.core.runtime",
     "javax.inject",
 ]
@@ -40,6 +42,8 @@ _ECLIPSE_PLUGIN_DEPS = {
   "org.eclipse.core.runtime": "3.11.1.v20150903-1804",
   "org.eclipse.ui": "3.107.0.v20150507-1945",
   "org.eclipse.jdt.core": "3.11.2.v20160128-0629",
+  "org.eclipse.jdt.launching": "3.8.0.v20150527-0946",
+  "org.eclipse.debug.core": "3.10.0.v20150609-1349",
   "org.eclipse.core.resources": "3.10.1.v20150725-1910",
   "org.eclipse.ui.ide": "3.11.0.v20150825-2158",
   # implicit deps